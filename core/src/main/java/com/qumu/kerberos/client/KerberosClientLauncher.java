@@ -0,0 +1,159 @@
+package com.qumu.kerberos.client;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.qumu.kerberos.client.httpclient.BatchResult;
+import com.qumu.kerberos.client.httpclient.ConnectionPoolSettings;
+import com.qumu.kerberos.client.httpclient.KerberosCredentialHolder;
+import com.qumu.kerberos.client.httpclient.KerberosHttpClient;
+import com.qumu.kerberos.client.httpclient.PersistentCredentialCache;
+import com.qumu.kerberos.client.httpclient.ServiceNameType;
+
+/**
+ * Command line launcher of the Kerberos client without Spring, for sidecars and cron jobs: it makes the calls,
+ * prints the responses and exits, starting in a fraction of the time and memory of the Spring Boot Application.
+ *
+ * Options are given as --name=value, with the names of the properties of the Application without the app. prefix.
+ * Several urls can be given separated by commas, they are called in parallel with a single login. With
+ * --credential-cache the tickets are kept on disk, so runs after the first one do not go to the KDC while they
+ * are valid.
+ *
+ * The exit status is 0 when all the calls succeed, 1 when any fails and 2 when the options are wrong.
+ */
+public class KerberosClientLauncher {
+
+	private static final String USAGE = "Usage: --user-principal=<principal> --access-url=<url>[,<url>...] [options]\n"
+			+ "  --keytab-location=<file>           keytab of the user principal, the ticket cache is used without it\n"
+			+ "  --service-name-type=<type>         HOST_BASED (default) or USER_BASED\n"
+			+ "  --service-principal=<principal>    principal of the service for USER_BASED names\n"
+			+ "  --preemptive-auth=<true|false>     send the Negotiate header in the first request\n"
+			+ "  --credential-cache=<file>          ccache to reuse the tickets of previous runs from\n"
+			+ "  --parallelism=<n>                  calls in flight at the same time with several urls (default 10)\n"
+			+ "  --timeout-millis=<n>               time for all the calls with several urls (default 60000)\n"
+			+ "  --pool.max-total=<n>, --pool.max-per-route=<n>, --pool.time-to-live-millis=<n>,\n"
+			+ "  --pool.idle-timeout-millis=<n>, --pool.validate-after-inactivity-millis=<n>,\n"
+			+ "  --pool.connection-bound-auth=<true|false>   connection pool settings";
+
+	public static void main(String[] args) {
+		System.exit(run(args, System.out, System.err));
+	}
+
+	static int run(String[] args, PrintStream out, PrintStream err) {
+		Map<String, String> options;
+		KerberosHttpClient client;
+		List<String> urls;
+		int parallelism;
+		long timeoutMillis;
+		try {
+			options = parse(args);
+			if (options.containsKey("help")) {
+				out.println(USAGE);
+				return 0;
+			}
+			urls = split(required(options, "access-url"));
+			parallelism = Integer.parseInt(get(options, "parallelism", "10"));
+			timeoutMillis = Long.parseLong(get(options, "timeout-millis", "60000"));
+			client = buildClient(options);
+		} catch (IllegalArgumentException e) {
+			err.println(e.getMessage());
+			err.println(USAGE);
+			return 2;
+		}
+
+		try {
+			if (urls.size() == 1) {
+				out.println(client.executeGet(urls.get(0)));
+				return 0;
+			}
+
+			BatchResult<String> result = client.executeAllGet(urls, parallelism, timeoutMillis);
+			for (BatchResult.Outcome<String> outcome : result.getOutcomes()) {
+				if (outcome.getStatus() == BatchResult.Status.SUCCEEDED) {
+					out.println(outcome.getRequest().getURI() + " " + outcome.getResult());
+				} else {
+					err.println(outcome.getRequest().getURI() + " " + outcome.getStatus()
+							+ (outcome.getFailure() != null ? " " + outcome.getFailure() : ""));
+				}
+			}
+			return result.isAllSucceeded() ? 0 : 1;
+		} catch (RuntimeException e) {
+			err.println("Kerberos call failed: " + e);
+			for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+				err.println("  caused by: " + cause);
+			}
+			return 1;
+		} finally {
+			try {
+				client.close();
+			} catch (Exception e) {
+				// Nothing to do, the process is exiting
+			}
+		}
+	}
+
+	private static KerberosHttpClient buildClient(Map<String, String> options) {
+		String userPrincipal = required(options, "user-principal");
+		String serviceNameTypeOption = options.get("service-name-type");
+		ServiceNameType serviceNameType = serviceNameTypeOption != null ? ServiceNameType.valueOf(serviceNameTypeOption) : ServiceNameType.HOST_BASED;
+		String credentialCacheLocation = options.get("credential-cache");
+		PersistentCredentialCache credentialCache = credentialCacheLocation != null ? new PersistentCredentialCache(credentialCacheLocation) : null;
+
+		ConnectionPoolSettings poolSettings = new ConnectionPoolSettings();
+		poolSettings.setMaxTotal(Integer.parseInt(get(options, "pool.max-total", String.valueOf(poolSettings.getMaxTotal()))));
+		poolSettings.setMaxPerRoute(Integer.parseInt(get(options, "pool.max-per-route", String.valueOf(poolSettings.getMaxPerRoute()))));
+		poolSettings.setTimeToLiveMillis(Long.parseLong(get(options, "pool.time-to-live-millis", String.valueOf(poolSettings.getTimeToLiveMillis()))));
+		poolSettings.setIdleTimeoutMillis(Long.parseLong(get(options, "pool.idle-timeout-millis", String.valueOf(poolSettings.getIdleTimeoutMillis()))));
+		poolSettings.setValidateAfterInactivityMillis(Integer.parseInt(get(options, "pool.validate-after-inactivity-millis",
+				String.valueOf(poolSettings.getValidateAfterInactivityMillis()))));
+		poolSettings.setConnectionBoundAuthentication(Boolean.parseBoolean(get(options, "pool.connection-bound-auth", "false")));
+
+		KerberosCredentialHolder credentialHolder = new KerberosCredentialHolder(options.get("keytab-location"), userPrincipal, null,
+				KerberosCredentialHolder.DEFAULT_REFRESH_WINDOW_MILLIS, credentialCache);
+		KerberosHttpClient client = new KerberosHttpClient(credentialHolder, options.get("service-principal"), serviceNameType, poolSettings);
+		client.setPreemptiveAuthentication(Boolean.parseBoolean(get(options, "preemptive-auth", "false")));
+		return client;
+	}
+
+	static Map<String, String> parse(String[] args) {
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			if (!arg.startsWith("--")) {
+				throw new IllegalArgumentException("Unexpected argument: " + arg);
+			}
+			int equals = arg.indexOf('=');
+			if (equals < 0) {
+				options.put(arg.substring(2), "true");
+			} else {
+				options.put(arg.substring(2, equals), arg.substring(equals + 1));
+			}
+		}
+		return options;
+	}
+
+	private static String required(Map<String, String> options, String name) {
+		String value = options.get(name);
+		if (value == null || value.trim().isEmpty()) {
+			throw new IllegalArgumentException("Missing option --" + name);
+		}
+		return value;
+	}
+
+	private static String get(Map<String, String> options, String name, String defaultValue) {
+		String value = options.get(name);
+		return value != null && !value.trim().isEmpty() ? value : defaultValue;
+	}
+
+	private static List<String> split(String urls) {
+		List<String> list = new ArrayList<String>();
+		for (String url : urls.split(",")) {
+			if (!url.trim().isEmpty()) {
+				list.add(url.trim());
+			}
+		}
+		return list;
+	}
+}
@@ -0,0 +1,162 @@
+package com.qumu.kerberos.client;
+
+import java.util.Collection;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.qumu.kerberos.client.httpclient.BatchResult;
+import com.qumu.kerberos.client.httpclient.ConnectionPoolSettings;
+import com.qumu.kerberos.client.httpclient.KerberosHttpClient;
+import com.qumu.kerberos.client.httpclient.KerberosPrincipalRegistry;
+import com.qumu.kerberos.client.httpclient.ServiceNameType;
+
+
+public class KerberosService {
+
+	private static final Log LOG = LogFactory.getLog(KerberosService.class);
+
+	private String userPrincipal;
+
+	private String servicePrincipal;
+
+	private KerberosHttpClient kerberosHttpClient;
+
+	private ServiceNameType serviceNameType;
+
+	private KerberosPrincipalRegistry principalRegistry;
+
+	public void setup(String keytab, String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType) {
+		setup(keytab, userPrincipal, servicePrincipal, serviceNameType, new ConnectionPoolSettings());
+	}
+
+	public void setup(String keytab, String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType, ConnectionPoolSettings poolSettings) {
+		this.userPrincipal = userPrincipal;
+		this.servicePrincipal = servicePrincipal;
+		this.serviceNameType = serviceNameType;
+		this.kerberosHttpClient = new KerberosHttpClient(keytab, userPrincipal, servicePrincipal, serviceNameType, poolSettings);
+	}
+
+	public KerberosHttpClient getKerberosHttpClient() {
+		return kerberosHttpClient;
+	}
+
+	/**
+	 * Sets up the registry used to make calls on behalf of several principals, which share one connection pool.
+	 * Principals are added with {@link #registerPrincipal(String, String, String, ServiceNameType)}.
+	 *
+	 * @param poolSettings settings of the shared connection pool
+	 * @param maxActivePrincipals maximum number of principals whose Subject and tickets are kept
+	 * @param idleTimeoutMillis time without calls after which a principal is evicted
+	 */
+	public synchronized void setupRegistry(ConnectionPoolSettings poolSettings, int maxActivePrincipals, long idleTimeoutMillis) {
+		this.principalRegistry = new KerberosPrincipalRegistry(poolSettings, maxActivePrincipals, idleTimeoutMillis);
+	}
+
+	/**
+	 * Registers a principal to make calls on behalf of, setting up a registry with the default settings if
+	 * {@link #setupRegistry(ConnectionPoolSettings, int, long)} was not called
+	 */
+	public synchronized void registerPrincipal(String keytab, String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType) {
+		if (principalRegistry == null) {
+			principalRegistry = new KerberosPrincipalRegistry();
+		}
+		principalRegistry.register(keytab, userPrincipal, servicePrincipal, serviceNameType);
+	}
+
+	public synchronized KerberosPrincipalRegistry getPrincipalRegistry() {
+		return principalRegistry;
+	}
+
+	/**
+	 * Communicate with a Kerberos Authenticator Service
+	 * presenting a Kerberos service ticket on behalf of userPrincipal in order to initiate further communication with the
+	 * underlying component.
+	 *
+	 * @param componentHostUrl Url without port of the host where the target component/authenticator service is deployed to
+	 */
+	public void executeKerberosValidation(String serverUrl) {
+		String authenticatorServiceUrl = serverUrl;
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Initiating validation for Kerberos, authenticator service url is: " + authenticatorServiceUrl +
+					" user principal is: " + userPrincipal +
+					", serviceNameType is: " + serviceNameType +
+					", servicePrincipal: " + servicePrincipal);
+		}
+
+		try  {
+
+			String response = kerberosHttpClient.executeGet(authenticatorServiceUrl);
+
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Successful response from Kerberos Authenticator service at " + authenticatorServiceUrl + ", response is: " + response);
+			}
+
+		} catch (Exception e) {
+			String msg = "Kerberos authentication call failed when communicating with authenticator service at " + authenticatorServiceUrl;
+			LOG.error(msg, e);
+			throw new RuntimeException(msg);
+		}
+	}
+
+	/**
+	 * Same as {@link #executeKerberosValidation(String)} for many urls, with at most parallelism calls at a time.
+	 * All the calls share one login and the service ticket of each host, see
+	 * {@link KerberosHttpClient#executeAll(Collection, org.apache.http.client.ResponseHandler, int, long)}
+	 *
+	 * @param serverUrls Urls of the authenticator services
+	 * @param parallelism maximum number of calls in flight at the same time
+	 * @param timeoutMillis time for all the calls, the ones not finished by then are reported as timed out or not started
+	 * @return the response or the failure of each call, in the order of the urls
+	 */
+	public BatchResult<String> executeKerberosValidation(Collection<String> serverUrls, int parallelism, long timeoutMillis) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Initiating validation for Kerberos of " + serverUrls.size() + " urls, user principal is: " + userPrincipal +
+					", parallelism: " + parallelism + ", timeout: " + timeoutMillis + " ms");
+		}
+
+		BatchResult<String> result = kerberosHttpClient.executeAllGet(serverUrls, parallelism, timeoutMillis);
+
+		if (!result.isAllSucceeded()) {
+			LOG.error("Kerberos authentication calls failed for some authenticator services: " + result);
+		} else if (LOG.isDebugEnabled()) {
+			LOG.debug("Successful responses from Kerberos Authenticator services: " + result);
+		}
+		return result;
+	}
+
+	/**
+	 * Same as {@link #executeKerberosValidation(String)}, on behalf of one of the principals registered
+	 * with {@link #registerPrincipal(String, String, String, ServiceNameType)}
+	 *
+	 * @param userPrincipal registered principal to present the service ticket of
+	 * @param serverUrl Url of the authenticator service
+	 */
+	public void executeKerberosValidation(String userPrincipal, String serverUrl) {
+		KerberosPrincipalRegistry registry = getPrincipalRegistry();
+		if (registry == null || !registry.isRegistered(userPrincipal)) {
+			throw new IllegalArgumentException("Principal not registered: " + userPrincipal);
+		}
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Initiating validation for Kerberos, authenticator service url is: " + serverUrl +
+					" user principal is: " + userPrincipal);
+		}
+
+		try  {
+
+			String response = registry.executeGet(userPrincipal, serverUrl);
+
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Successful response from Kerberos Authenticator service at " + serverUrl + ", response is: " + response);
+			}
+
+		} catch (Exception e) {
+			String msg = "Kerberos authentication call failed when communicating with authenticator service at " + serverUrl
+					+ " on behalf of " + userPrincipal;
+			LOG.error(msg, e);
+			throw new RuntimeException(msg);
+		}
+	}
+}
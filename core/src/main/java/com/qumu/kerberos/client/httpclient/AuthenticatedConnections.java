@@ -0,0 +1,79 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.security.AccessController;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.http.HttpConnection;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Tracks which pooled connections have been authenticated with SPNEGO and for which principal.
+ *
+ * The principal is stored as an attribute of the connection itself, so it lives as long as the
+ * connection does. Requests are also given the principal as user token, so the pool binds each
+ * connection to the principal that used it and hands it back to the same principal.
+ */
+final class AuthenticatedConnections {
+
+	static final String AUTHENTICATED_PRINCIPAL = "com.qumu.kerberos.authenticated-principal";
+
+	private AuthenticatedConnections() {
+	}
+
+	/**
+	 * Name of the Kerberos principal of the Subject the current thread runs under
+	 *
+	 * @return the principal name or null if not running under a Subject with a Kerberos principal
+	 */
+	static String currentPrincipal() {
+		return principalOf(Subject.getSubject(AccessController.getContext()));
+	}
+
+	/**
+	 * Name of the Kerberos principal of the given Subject
+	 *
+	 * @return the principal name or null if the Subject is null or has no Kerberos principal
+	 */
+	static String principalOf(Subject subject) {
+		if (subject == null) {
+			return null;
+		}
+		for (KerberosPrincipal principal : subject.getPrincipals(KerberosPrincipal.class)) {
+			return principal.getName();
+		}
+		return null;
+	}
+
+	static void markAuthenticated(HttpContext context, String principal) {
+		HttpContext connection = connectionContext(context);
+		if (connection != null && principal != null) {
+			connection.setAttribute(AUTHENTICATED_PRINCIPAL, principal);
+		}
+	}
+
+	static void clear(HttpContext context) {
+		HttpContext connection = connectionContext(context);
+		if (connection != null) {
+			connection.removeAttribute(AUTHENTICATED_PRINCIPAL);
+		}
+	}
+
+	static boolean isAuthenticated(HttpContext context, String principal) {
+		HttpContext connection = connectionContext(context);
+		return connection != null && principal != null && principal.equals(connection.getAttribute(AUTHENTICATED_PRINCIPAL));
+	}
+
+	private static HttpContext connectionContext(HttpContext context) {
+		if (context == null) {
+			return null;
+		}
+		HttpConnection connection = HttpClientContext.adapt(context).getConnection();
+		if (connection instanceof HttpContext && connection.isOpen()) {
+			return (HttpContext) connection;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,126 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Outcome of each request of a batch run with {@link KerberosHttpClient#executeAll(java.util.Collection, org.apache.http.client.ResponseHandler, int, long)},
+ * in the order the requests were given.
+ *
+ * A batch always returns the outcome of every request, even when its deadline passes: the requests finished
+ * by then keep their result or failure, the ones still running are aborted and reported as
+ * {@link Status#TIMED_OUT} and the ones not started as {@link Status#NOT_STARTED}.
+ */
+public class BatchResult<T> {
+
+	public enum Status {
+		SUCCEEDED, FAILED, TIMED_OUT, NOT_STARTED
+	}
+
+	private final List<Outcome<T>> outcomes;
+	private final boolean deadlineExceeded;
+
+	BatchResult(List<Outcome<T>> outcomes, boolean deadlineExceeded) {
+		this.outcomes = Collections.unmodifiableList(outcomes);
+		this.deadlineExceeded = deadlineExceeded;
+	}
+
+	/**
+	 * Outcome of each request, in the order of the requests
+	 */
+	public List<Outcome<T>> getOutcomes() {
+		return outcomes;
+	}
+
+	/**
+	 * Whether the deadline passed before all the requests finished
+	 */
+	public boolean isDeadlineExceeded() {
+		return deadlineExceeded;
+	}
+
+	/**
+	 * Whether all the requests succeeded
+	 */
+	public boolean isAllSucceeded() {
+		return getCount(Status.SUCCEEDED) == outcomes.size();
+	}
+
+	public int getCount(Status status) {
+		int count = 0;
+		for (Outcome<T> outcome : outcomes) {
+			if (outcome.status == status) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Results of the requests that succeeded, in the order of the requests
+	 */
+	public List<T> getResults() {
+		List<T> results = new ArrayList<T>();
+		for (Outcome<T> outcome : outcomes) {
+			if (outcome.status == Status.SUCCEEDED) {
+				results.add(outcome.result);
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public String toString() {
+		return "BatchResult [requests=" + outcomes.size() + ", succeeded=" + getCount(Status.SUCCEEDED) + ", failed=" + getCount(Status.FAILED)
+				+ ", timedOut=" + getCount(Status.TIMED_OUT) + ", notStarted=" + getCount(Status.NOT_STARTED)
+				+ ", deadlineExceeded=" + deadlineExceeded + "]";
+	}
+
+	/**
+	 * Outcome of one request of the batch
+	 */
+	public static class Outcome<T> {
+
+		private final HttpUriRequest request;
+		private final Status status;
+		private final T result;
+		private final Exception failure;
+
+		Outcome(HttpUriRequest request, Status status, T result, Exception failure) {
+			this.request = request;
+			this.status = status;
+			this.result = result;
+			this.failure = failure;
+		}
+
+		public HttpUriRequest getRequest() {
+			return request;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * Value returned by the response handler, null unless the request succeeded
+		 */
+		public T getResult() {
+			return result;
+		}
+
+		/**
+		 * Exception thrown by the request or the response handler, null unless the request failed
+		 */
+		public Exception getFailure() {
+			return failure;
+		}
+
+		@Override
+		public String toString() {
+			return "Outcome [uri=" + request.getURI() + ", status=" + status + (failure != null ? ", failure=" + failure : "") + "]";
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.Args;
+
+/**
+ * Repeatable entity whose content is the remaining bytes of a {@link ByteBuffer}, heap or direct.
+ * The content is written from the buffer without copying it into a byte array, and the buffer
+ * position is not modified so it can be sent again.
+ */
+public class ByteBufferEntity extends AbstractHttpEntity {
+
+	private final ByteBuffer buffer;
+
+	public ByteBufferEntity(ByteBuffer buffer, ContentType contentType) {
+		Args.notNull(buffer, "Buffer");
+		this.buffer = buffer;
+		if (contentType != null) {
+			setContentType(contentType.toString());
+		}
+	}
+
+	public ByteBufferEntity(ByteBuffer buffer) {
+		this(buffer, null);
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	@Override
+	public long getContentLength() {
+		return buffer.remaining();
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		final ByteBuffer content = buffer.duplicate();
+		return new InputStream() {
+
+			@Override
+			public int read() {
+				return content.hasRemaining() ? content.get() & 0xff : -1;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) {
+				if (!content.hasRemaining()) {
+					return -1;
+				}
+				int count = Math.min(len, content.remaining());
+				content.get(b, off, count);
+				return count;
+			}
+
+			@Override
+			public int available() {
+				return content.remaining();
+			}
+		};
+	}
+
+	@Override
+	public void writeTo(OutputStream outstream) throws IOException {
+		Args.notNull(outstream, "Output stream");
+		ByteBuffer content = buffer.duplicate();
+		WritableByteChannel channel = Channels.newChannel(outstream);
+		while (content.hasRemaining()) {
+			channel.write(content);
+		}
+		outstream.flush();
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return false;
+	}
+}
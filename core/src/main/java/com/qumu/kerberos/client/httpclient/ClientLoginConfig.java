@@ -0,0 +1,76 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+
+/**
+ * JAAS configuration for the Krb5LoginModule used to log the client principal into the KDC.
+ *
+ * If a keytab file and a principal are provided they will be used to log in, otherwise the
+ * ticket cache will be used.
+ *
+ * If a persistent credential cache is given, the TGT is taken from it while it is valid, and the keytab
+ * (or the default ticket cache) is only used when it is not, see {@link PersistentCredentialCache}.
+ */
+class ClientLoginConfig extends Configuration {
+
+	private final String keyTabLocation;
+	private final String userPrincipal;
+	private final Map<String, Object> loginOptions;
+	private final String credentialCacheLocation;
+
+	public ClientLoginConfig(String keyTabLocation, String userPrincipal, Map<String, Object> loginOptions) {
+		this(keyTabLocation, userPrincipal, loginOptions, null);
+	}
+
+	public ClientLoginConfig(String keyTabLocation, String userPrincipal, Map<String, Object> loginOptions, String credentialCacheLocation) {
+		super();
+		this.keyTabLocation = keyTabLocation;
+		this.userPrincipal = userPrincipal;
+		this.loginOptions = loginOptions;
+		this.credentialCacheLocation = credentialCacheLocation;
+	}
+
+	@Override
+	public AppConfigurationEntry[] getAppConfigurationEntry(String name) {
+
+		Map<String, Object> options = new HashMap<String, Object>();
+
+		// if we don't have keytab or principal only option is to rely on
+		// credentials cache.
+		if (!hasText(keyTabLocation) || !hasText(userPrincipal)) {
+			// cache
+			options.put("useTicketCache", "true");
+		} else {
+			// keytab
+			options.put("useKeyTab", "true");
+			options.put("keyTab", this.keyTabLocation);
+			options.put("principal", this.userPrincipal);
+			options.put("storeKey", "true");
+		}
+		if (hasText(credentialCacheLocation)) {
+			// The cache is tried first, then the keytab. The keys are only needed to accept contexts,
+			// and are not available when the TGT comes from the cache
+			options.put("useTicketCache", "true");
+			options.put("ticketCache", credentialCacheLocation);
+			options.put("storeKey", "false");
+		}
+		options.put("doNotPrompt", "true");
+		options.put("isInitiator", "true");
+
+		if (loginOptions != null) {
+			options.putAll(loginOptions);
+		}
+
+		return new AppConfigurationEntry[] { new AppConfigurationEntry(
+				"com.sun.security.auth.module.Krb5LoginModule",
+				AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options) };
+	}
+
+	private static boolean hasText(String value) {
+		return value != null && !value.trim().isEmpty();
+	}
+}
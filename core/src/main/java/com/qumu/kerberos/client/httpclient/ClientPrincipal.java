@@ -0,0 +1,85 @@
+package com.qumu.kerberos.client.httpclient;
+
+import org.apache.http.auth.AuthSchemeProvider;
+import org.apache.http.client.config.AuthSchemes;
+import org.apache.http.config.Lookup;
+import org.apache.http.config.RegistryBuilder;
+
+/**
+ * State a client keeps for one user principal: the {@link KerberosCredentialHolder} with its Subject and TGT,
+ * and the SPNEGO scheme factory with the service tickets and names of the servers it talked to.
+ *
+ * Requests made on behalf of the principal carry its scheme registry and auth cache in their context,
+ * so several principals can share the connection pool of a single {@link KerberosHttpClient}.
+ */
+public final class ClientPrincipal {
+
+	private static final long TOUCH_RESOLUTION_MILLIS = 1000;
+
+	private final KerberosCredentialHolder credentialHolder;
+	private final CustomSPNegoSchemeFactory schemeFactory;
+	private final PreemptiveAuthCache preemptiveAuthCache;
+	private final Lookup<AuthSchemeProvider> authSchemeRegistry;
+
+	private volatile long lastAccessTime = System.currentTimeMillis();
+
+	ClientPrincipal(KerberosCredentialHolder credentialHolder, String servicePrincipal, ServiceNameType serviceNameType,
+			boolean connectionBoundAuthentication, CompositeClientListener listener) {
+		this.credentialHolder = credentialHolder;
+		this.schemeFactory = new CustomSPNegoSchemeFactory(serviceNameType, credentialHolder.getUserPrincipal(), servicePrincipal, true, false);
+		this.schemeFactory.setListener(listener);
+		this.schemeFactory.getTicketCache().setCredentialCache(credentialHolder.getCredentialCache());
+		this.preemptiveAuthCache = new PreemptiveAuthCache(schemeFactory, connectionBoundAuthentication);
+		this.authSchemeRegistry = RegistryBuilder.<AuthSchemeProvider> create().register(AuthSchemes.SPNEGO, schemeFactory).build();
+	}
+
+	public String getUserPrincipal() {
+		return credentialHolder.getUserPrincipal();
+	}
+
+	public KerberosCredentialHolder getCredentialHolder() {
+		return credentialHolder;
+	}
+
+	/**
+	 * Service names, credentials and tickets of the servers the principal authenticated against
+	 */
+	public ServiceTicketCache getTicketCache() {
+		return schemeFactory.getTicketCache();
+	}
+
+	/**
+	 * Last time, in milliseconds since the epoch, a request was made on behalf of the principal
+	 */
+	public long getLastAccessTime() {
+		return lastAccessTime;
+	}
+
+	/**
+	 * Records a request of the principal. The time is updated at most once a second, so concurrent
+	 * requests of the same principal do not keep writing it.
+	 */
+	void touch() {
+		long now = System.currentTimeMillis();
+		if (now - lastAccessTime >= TOUCH_RESOLUTION_MILLIS) {
+			lastAccessTime = now;
+		}
+	}
+
+	CustomSPNegoSchemeFactory getSchemeFactory() {
+		return schemeFactory;
+	}
+
+	PreemptiveAuthCache getPreemptiveAuthCache() {
+		return preemptiveAuthCache;
+	}
+
+	Lookup<AuthSchemeProvider> getAuthSchemeRegistry() {
+		return authSchemeRegistry;
+	}
+
+	@Override
+	public String toString() {
+		return "ClientPrincipal [userPrincipal=" + getUserPrincipal() + "]";
+	}
+}
@@ -0,0 +1,122 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpHost;
+
+/**
+ * Listeners registered in a client. Callers check {@link #isEnabled()} before taking any timing,
+ * so there is no cost beyond a volatile read when no listener is registered.
+ *
+ * A listener throwing an exception is logged and does not affect the request or the other listeners.
+ */
+final class CompositeClientListener implements KerberosClientListener {
+
+	private static final Log LOG = LogFactory.getLog(CompositeClientListener.class);
+
+	private final CopyOnWriteArrayList<KerberosClientListener> listeners = new CopyOnWriteArrayList<KerberosClientListener>();
+
+	private volatile boolean enabled;
+
+	void add(KerberosClientListener listener) {
+		listeners.addIfAbsent(listener);
+		enabled = true;
+	}
+
+	void remove(KerberosClientListener listener) {
+		listeners.remove(listener);
+		enabled = !listeners.isEmpty();
+	}
+
+	boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void loginCompleted(String principal, long durationNanos, boolean success) {
+		fire(listener -> listener.loginCompleted(principal, durationNanos, success));
+	}
+
+	@Override
+	public void ticketRenewed(String principal, String service, long durationNanos, boolean success) {
+		fire(listener -> listener.ticketRenewed(principal, service, durationNanos, success));
+	}
+
+	@Override
+	public void ticketCacheHit(String authServer) {
+		fire(listener -> listener.ticketCacheHit(authServer));
+	}
+
+	@Override
+	public void ticketCacheMiss(String authServer) {
+		fire(listener -> listener.ticketCacheMiss(authServer));
+	}
+
+	@Override
+	public void tokenGenerated(String authServer, long durationNanos, boolean ticketCacheHit, boolean success) {
+		fire(listener -> listener.tokenGenerated(authServer, durationNanos, ticketCacheHit, success));
+	}
+
+	@Override
+	public void tokenPoolTaken(String authServer, boolean hit) {
+		fire(listener -> listener.tokenPoolTaken(authServer, hit));
+	}
+
+	@Override
+	public void tokensExpired(String authServer, int count) {
+		fire(listener -> listener.tokensExpired(authServer, count));
+	}
+
+	@Override
+	public void challengeReceived(HttpHost target) {
+		fire(listener -> listener.challengeReceived(target));
+	}
+
+	@Override
+	public void responseReceived(HttpHost target, int statusCode, long durationNanos) {
+		fire(listener -> listener.responseReceived(target, statusCode, durationNanos));
+	}
+
+	@Override
+	public void bodyRead(HttpHost target, long bytes, long durationNanos) {
+		fire(listener -> listener.bodyRead(target, bytes, durationNanos));
+	}
+
+	@Override
+	public void responseCacheHit(HttpHost target, boolean revalidated) {
+		fire(listener -> listener.responseCacheHit(target, revalidated));
+	}
+
+	@Override
+	public void responseCacheMiss(HttpHost target) {
+		fire(listener -> listener.responseCacheMiss(target));
+	}
+
+	@Override
+	public void requestRetried(HttpHost target, String reason) {
+		fire(listener -> listener.requestRetried(target, reason));
+	}
+
+	@Override
+	public void requestHedged(HttpHost target, boolean hedgeWon) {
+		fire(listener -> listener.requestHedged(target, hedgeWon));
+	}
+
+	@Override
+	public void requestCompleted(HttpHost target, long durationNanos, boolean success) {
+		fire(listener -> listener.requestCompleted(target, durationNanos, success));
+	}
+
+	private void fire(Consumer<KerberosClientListener> event) {
+		for (KerberosClientListener listener : listeners) {
+			try {
+				event.accept(listener);
+			} catch (RuntimeException e) {
+				LOG.warn("Error in listener " + listener, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+
+/**
+ * Sizing and eviction settings of the pool of keep-alive connections used by the Kerberos clients.
+ *
+ * Defaults are suitable for a client talking to a few hosts, the values can be set from the
+ * application configuration ({@code app.pool.*} in application.yml).
+ */
+public class ConnectionPoolSettings {
+
+	/** Default maximum number of connections in the pool */
+	public static final int DEFAULT_MAX_TOTAL = 100;
+
+	/** Default maximum number of connections per route (target host) */
+	public static final int DEFAULT_MAX_PER_ROUTE = 20;
+
+	/** Default time a connection can stay idle in the pool before it is closed */
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+	/** Default time of inactivity after which a pooled connection is checked before being reused */
+	public static final int DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+
+	private int maxTotal = DEFAULT_MAX_TOTAL;
+	private int maxPerRoute = DEFAULT_MAX_PER_ROUTE;
+	private long timeToLiveMillis = -1;
+	private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+	private int validateAfterInactivityMillis = DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS;
+	private boolean connectionBoundAuthentication;
+
+	public int getMaxTotal() {
+		return maxTotal;
+	}
+
+	public void setMaxTotal(int maxTotal) {
+		this.maxTotal = maxTotal;
+	}
+
+	public int getMaxPerRoute() {
+		return maxPerRoute;
+	}
+
+	public void setMaxPerRoute(int maxPerRoute) {
+		this.maxPerRoute = maxPerRoute;
+	}
+
+	/**
+	 * Maximum lifetime of a connection, a value <= 0 means no limit
+	 */
+	public long getTimeToLiveMillis() {
+		return timeToLiveMillis;
+	}
+
+	public void setTimeToLiveMillis(long timeToLiveMillis) {
+		this.timeToLiveMillis = timeToLiveMillis;
+	}
+
+	/**
+	 * Time a connection can stay idle in the pool before the background evictor closes it,
+	 * a value <= 0 means idle connections are only closed when they expire
+	 */
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	public int getValidateAfterInactivityMillis() {
+		return validateAfterInactivityMillis;
+	}
+
+	public void setValidateAfterInactivityMillis(int validateAfterInactivityMillis) {
+		this.validateAfterInactivityMillis = validateAfterInactivityMillis;
+	}
+
+	/**
+	 * Whether the server keeps a keep-alive connection authenticated once SPNEGO succeeded on it
+	 * (i.e. IIS with authPersistNonNTLM). If so, preemptive authentication does not generate a
+	 * token for requests sent over a connection that is already authenticated for the principal.
+	 */
+	public boolean isConnectionBoundAuthentication() {
+		return connectionBoundAuthentication;
+	}
+
+	public void setConnectionBoundAuthentication(boolean connectionBoundAuthentication) {
+		this.connectionBoundAuthentication = connectionBoundAuthentication;
+	}
+
+	/**
+	 * Builds the connection manager with the pool sizing of these settings
+	 *
+	 * @return a new pooling connection manager
+	 */
+	public PoolingHttpClientConnectionManager buildConnectionManager() {
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(timeToLiveMillis, TimeUnit.MILLISECONDS);
+		connectionManager.setMaxTotal(maxTotal);
+		connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+		connectionManager.setValidateAfterInactivity(validateAfterInactivityMillis);
+		return connectionManager;
+	}
+
+	/**
+	 * Builds the non-blocking connection manager, with its I/O reactor, used by the async client.
+	 * Connections are not validated after inactivity, idle ones are closed by the client evictor.
+	 *
+	 * @return a new pooling connection manager for non-blocking connections
+	 */
+	public PoolingNHttpClientConnectionManager buildAsyncConnectionManager() {
+		Registry<SchemeIOSessionStrategy> sessionStrategies = RegistryBuilder.<SchemeIOSessionStrategy> create()
+				.register("http", NoopIOSessionStrategy.INSTANCE)
+				.register("https", SSLIOSessionStrategy.getDefaultStrategy())
+				.build();
+		try {
+			PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(
+					new DefaultConnectingIOReactor(IOReactorConfig.DEFAULT), null, sessionStrategies, null, null,
+					timeToLiveMillis, TimeUnit.MILLISECONDS);
+			connectionManager.setMaxTotal(maxTotal);
+			connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+			return connectionManager;
+		} catch (IOReactorException e) {
+			throw new RuntimeException("Error creating the I/O reactor", e);
+		}
+	}
+
+	/**
+	 * Sets the connection manager in the builder along with a background evictor of expired and
+	 * idle connections. Both are shut down when the built client is closed.
+	 *
+	 * @param builder builder of the http client
+	 * @param connectionManager connection manager built by {@link #buildConnectionManager()}
+	 */
+	public void configure(HttpClientBuilder builder, PoolingHttpClientConnectionManager connectionManager) {
+		builder.setConnectionManager(connectionManager);
+		builder.evictExpiredConnections();
+		if (idleTimeoutMillis > 0) {
+			builder.evictIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ConnectionPoolSettings [maxTotal=" + maxTotal + ", maxPerRoute=" + maxPerRoute
+				+ ", timeToLiveMillis=" + timeToLiveMillis + ", idleTimeoutMillis=" + idleTimeoutMillis
+				+ ", validateAfterInactivityMillis=" + validateAfterInactivityMillis
+				+ ", connectionBoundAuthentication=" + connectionBoundAuthentication + "]";
+	}
+}
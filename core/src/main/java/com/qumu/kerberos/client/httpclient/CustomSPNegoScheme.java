@@ -0,0 +1,100 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+
+import javax.security.auth.Subject;
+
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.KerberosCredentials;
+import org.apache.http.impl.auth.SPNegoScheme;
+import org.apache.http.protocol.HttpContext;
+import org.ietf.jgss.GSSCredential;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.GSSName;
+import org.ietf.jgss.Oid;
+
+public class CustomSPNegoScheme extends SPNegoScheme {
+
+	/**
+	 * Attribute of the request context holding the {@link Subject} to generate the token under, for
+	 * requests whose headers are not generated in the thread that called Subject.doAs (i.e. async requests)
+	 */
+	public static final String SUBJECT_ATTRIBUTE = "com.qumu.kerberos.subject";
+
+	private final SpnegoAuthenticator authenticator;
+
+    public CustomSPNegoScheme(String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType, ServiceTicketCache ticketCache,
+            ServiceNameResolver nameResolver, final boolean stripPort, final boolean useCanonicalHostname) {
+        this(new SpnegoAuthenticator(userPrincipal, servicePrincipal, serviceNameType, ticketCache, nameResolver), stripPort, useCanonicalHostname);
+    }
+
+    public CustomSPNegoScheme(String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType, ServiceTicketCache ticketCache, final boolean stripPort, final boolean useCanonicalHostname) {
+        this(userPrincipal, servicePrincipal, serviceNameType, ticketCache, new ServiceNameResolver(userPrincipal, servicePrincipal, serviceNameType),
+                stripPort, useCanonicalHostname);
+    }
+
+    public CustomSPNegoScheme(String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType, final boolean stripPort, final boolean useCanonicalHostname) {
+        this(userPrincipal, servicePrincipal, serviceNameType, new ServiceTicketCache(), stripPort, useCanonicalHostname);
+    }
+
+    public CustomSPNegoScheme(String userPrincipal, ServiceNameType serviceNameType, final boolean stripPort, final boolean useCanonicalHostname) {
+    	this(userPrincipal, null, serviceNameType, stripPort, useCanonicalHostname);
+    }
+
+    /**
+     * Scheme generating its tokens with the given authenticator, which can be shared by many schemes
+     */
+    public CustomSPNegoScheme(SpnegoAuthenticator authenticator, final boolean stripPort, final boolean useCanonicalHostname) {
+        super(stripPort, useCanonicalHostname);
+        this.authenticator = authenticator;
+    }
+
+    /**
+     * Sets the listeners notified of the ticket cache lookups and token generations
+     */
+    void setListener(CompositeClientListener listener) {
+        authenticator.setListener(listener);
+    }
+
+	@Override
+	public Header authenticate(final Credentials credentials, final HttpRequest request, final HttpContext context) throws AuthenticationException {
+		final Subject subject = context != null ? (Subject) context.getAttribute(SUBJECT_ATTRIBUTE) : null;
+		if (subject == null || subject == Subject.getSubject(AccessController.getContext())) {
+			return super.authenticate(credentials, request, context);
+		}
+
+		try {
+			return Subject.doAs(subject, new PrivilegedExceptionAction<Header>() {
+				@Override
+				public Header run() throws AuthenticationException {
+					return CustomSPNegoScheme.super.authenticate(credentials, request, context);
+				}
+			});
+		} catch (PrivilegedActionException e) {
+			throw (AuthenticationException) e.getException();
+		}
+	}
+
+	@Override
+	protected byte[] generateGSSToken(
+            final byte[] input, final Oid oid, final String authServer,
+            final Credentials credentials) throws GSSException {
+        // Running inside Subject.doAs, the Subject holds the TGT and the service tickets obtained so far
+        final Subject subject = Subject.getSubject(AccessController.getContext());
+        GSSCredential credential = credentials instanceof KerberosCredentials ? ((KerberosCredentials) credentials).getGSSCredential() : null;
+        return authenticator.generateToken(input, oid, authServer, subject, credential);
+    }
+
+	/**
+	 * Creates the GSS name of the service at the given server, without the cache of canonical names
+	 */
+	GSSName generateGSSName(GSSManager manager, String authServer) throws GSSException {
+		return authenticator.generateGSSName(manager, authServer);
+	}
+}
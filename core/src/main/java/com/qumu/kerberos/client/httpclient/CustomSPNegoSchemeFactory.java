@@ -0,0 +1,61 @@
+package com.qumu.kerberos.client.httpclient;
+
+import org.apache.http.auth.AuthScheme;
+import org.apache.http.impl.auth.SPNegoSchemeFactory;
+import org.apache.http.protocol.HttpContext;
+
+public class CustomSPNegoSchemeFactory extends SPNegoSchemeFactory {
+
+	private final SpnegoAuthenticator authenticator;
+
+	public CustomSPNegoSchemeFactory(ServiceNameType serviceNameType, String userPrincipal, final boolean stripPort, final boolean useCanonicalHostname) {
+		this(serviceNameType, userPrincipal, null, stripPort, useCanonicalHostname);
+	}
+
+	public CustomSPNegoSchemeFactory(ServiceNameType serviceNameType, String userPrincipal, String servicePrincipal, final boolean stripPort, final boolean useCanonicalHostname) {
+		   super(stripPort, useCanonicalHostname);
+		   this.authenticator = new SpnegoAuthenticator(userPrincipal, servicePrincipal, serviceNameType);
+	}
+
+    /**
+     * Generator of the tokens of all the schemes created by this factory
+     */
+    public SpnegoAuthenticator getAuthenticator() {
+        return authenticator;
+    }
+
+    /**
+     * Cache of service names, credentials and tickets shared by all the schemes created by this factory
+     */
+    public ServiceTicketCache getTicketCache() {
+        return authenticator.getTicketCache();
+    }
+
+    /**
+     * Canonical service names of the servers, resolved once and shared by all the schemes created by this factory
+     */
+    public ServiceNameResolver getNameResolver() {
+        return authenticator.getNameResolver();
+    }
+
+    /**
+     * Sets the listeners notified by the schemes created by this factory
+     */
+    void setListener(CompositeClientListener listener) {
+        authenticator.setListener(listener);
+    }
+
+    @Override
+    public AuthScheme create(final HttpContext context) {
+        return new CustomSPNegoScheme(authenticator, super.isStripPort(), super.isUseCanonicalHostname());
+    }
+
+    /**
+     * Creates a scheme ready to generate a token without having received a challenge
+     *
+     * @param skipAuthenticatedConnections whether to skip the token on connections already authenticated
+     */
+    AuthScheme createPreemptive(boolean skipAuthenticatedConnections) {
+        return new PreemptiveSPNegoScheme(authenticator, skipAuthenticatedConnections, super.isStripPort(), super.isUseCanonicalHostname());
+    }
+}
@@ -0,0 +1,88 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * HTTP/1.1 {@link KerberosTransport} on Apache HttpClient, with a pool of connections. Each request in flight
+ * takes a connection of its own, see {@link JdkHttpTransport} to share one connection per server with HTTP/2.
+ *
+ * HttpClient does not authenticate the requests itself, the 401 challenges are returned to the
+ * {@link KerberosTransportClient}.
+ */
+public class HttpClientTransport implements KerberosTransport {
+
+	private static final InputStream EMPTY_BODY = new ByteArrayInputStream(new byte[0]);
+
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final CloseableHttpClient httpClient;
+
+	public HttpClientTransport() {
+		this(new ConnectionPoolSettings());
+	}
+
+	public HttpClientTransport(ConnectionPoolSettings poolSettings) {
+		this.connectionManager = poolSettings.buildConnectionManager();
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		poolSettings.configure(builder, connectionManager);
+		// The challenges are answered by the transport client
+		builder.setDefaultRequestConfig(RequestConfig.custom().setAuthenticationEnabled(false).build());
+		builder.disableAuthCaching();
+		this.httpClient = builder.build();
+	}
+
+	@Override
+	public TransportResponse execute(TransportRequest request) throws IOException {
+		RequestBuilder builder = RequestBuilder.create(request.getMethod()).setUri(request.getUri());
+		for (Map.Entry<String, List<String>> header : request.getHeaders().entrySet()) {
+			for (String value : header.getValue()) {
+				builder.addHeader(header.getKey(), value);
+			}
+		}
+		if (request.getBody() != null) {
+			builder.setEntity(new ByteArrayEntity(request.getBody()));
+		}
+
+		CloseableHttpResponse response = httpClient.execute(builder.build());
+		Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+		for (Header header : response.getAllHeaders()) {
+			List<String> values = headers.get(header.getName());
+			if (values == null) {
+				values = new ArrayList<String>(1);
+				headers.put(header.getName(), values);
+			}
+			values.add(header.getValue());
+		}
+		HttpEntity entity = response.getEntity();
+		return new TransportResponse(response.getStatusLine().getStatusCode(), response.getStatusLine().getProtocolVersion().toString(),
+				headers, entity != null ? entity.getContent() : EMPTY_BODY, response);
+	}
+
+	/**
+	 * Statistics of the connection pool
+	 */
+	public PoolStats getPoolStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	@Override
+	public void close() throws IOException {
+		httpClient.close();
+	}
+}
@@ -0,0 +1,148 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+/**
+ * Request executor reporting each attempt of a request to the listeners: the status and the time
+ * until the response head arrives, and the size and read time of the response body.
+ *
+ * It is called for every attempt, so 401 challenges are reported as well, unlike response interceptors
+ * that only see the final response.
+ */
+class InstrumentedRequestExecutor extends HttpRequestExecutor {
+
+	private final CompositeClientListener listener;
+
+	InstrumentedRequestExecutor(CompositeClientListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context) throws IOException, HttpException {
+		if (!listener.isEnabled()) {
+			return super.execute(request, conn, context);
+		}
+
+		long start = System.nanoTime();
+		HttpResponse response = super.execute(request, conn, context);
+		HttpHost target = HttpClientContext.adapt(context).getTargetHost();
+		listener.responseReceived(target, response.getStatusLine().getStatusCode(), System.nanoTime() - start);
+
+		HttpEntity entity = response.getEntity();
+		if (entity != null) {
+			response.setEntity(new InstrumentedEntity(entity, target, listener));
+		}
+		return response;
+	}
+
+	/**
+	 * Counts the bytes read from the body and reports them when the stream ends or is closed.
+	 * The body is reported once, even if its content is requested again to consume it.
+	 */
+	private static class InstrumentedEntity extends HttpEntityWrapper {
+
+		private final HttpHost target;
+		private final CompositeClientListener listener;
+		private boolean reported;
+
+		InstrumentedEntity(HttpEntity entity, HttpHost target, CompositeClientListener listener) {
+			super(entity);
+			this.target = target;
+			this.listener = listener;
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			return new CountingInputStream(super.getContent(), this);
+		}
+
+		void report(long bytes, long durationNanos) {
+			if (!reported) {
+				reported = true;
+				listener.bodyRead(target, bytes, durationNanos);
+			}
+		}
+
+		@Override
+		public void writeTo(OutputStream outstream) throws IOException {
+			InputStream in = getContent();
+			try {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					outstream.write(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+
+		private final InstrumentedEntity entity;
+		private final long start = System.nanoTime();
+		private long count;
+
+		CountingInputStream(InputStream in, InstrumentedEntity entity) {
+			super(in);
+			this.entity = entity;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b == -1) {
+				report();
+			} else {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read == -1) {
+				report();
+			} else {
+				count += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				report();
+			}
+		}
+
+		private void report() {
+			entity.report(count, System.nanoTime() - start);
+		}
+	}
+}
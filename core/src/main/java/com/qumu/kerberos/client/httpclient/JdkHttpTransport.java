@@ -0,0 +1,224 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * HTTP/2 {@link KerberosTransport} on the HttpClient of the JDK ({@code java.net.http}, Java 11 or later).
+ * Concurrent requests to a server are multiplexed as streams of a single connection, instead of a
+ * connection and handshake each, which cuts the connections and their setup under fan-out load. Servers
+ * that do not speak HTTP/2 are called with HTTP/1.1.
+ *
+ * HTTP/2 is negotiated with ALPN over https. Over plain http, the first request to a server asks for an
+ * upgrade (h2c), which the JDK only does for requests without a body.
+ *
+ * The project is built for Java 8, so the JDK client is called through reflection. Creating the transport
+ * on an older Java fails with an {@link UnsupportedOperationException}, see {@link #isAvailable()}.
+ */
+public class JdkHttpTransport implements KerberosTransport {
+
+	/** Default time to establish a connection */
+	public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+
+	/** Headers the JDK client sets itself and does not let callers set */
+	private static final Set<String> RESTRICTED_HEADERS = Collections.unmodifiableSet(
+			new HashSet<String>(Arrays.asList("connection", "content-length", "expect", "host", "upgrade")));
+
+	private static final Api API = loadApi();
+
+	private final ExecutorService executor;
+	private final Object httpClient;
+	private final long requestTimeoutMillis;
+
+	public JdkHttpTransport() {
+		this(DEFAULT_CONNECT_TIMEOUT_MILLIS, 0);
+	}
+
+	/**
+	 * @param connectTimeoutMillis time to establish a connection
+	 * @param requestTimeoutMillis time to receive the response head of each request, 0 for no limit
+	 * @throws UnsupportedOperationException if the JDK has no {@code java.net.http} client
+	 */
+	public JdkHttpTransport(long connectTimeoutMillis, long requestTimeoutMillis) {
+		if (API == null) {
+			throw new UnsupportedOperationException("The HTTP/2 transport needs the java.net.http client of Java 11 or later, running on "
+					+ System.getProperty("java.version"));
+		}
+		this.requestTimeoutMillis = requestTimeoutMillis;
+		// The default executor of the JDK client is not daemon, an own one lets the JVM exit
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "kerberos-http2");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			Object builder = API.newBuilder.invoke(null);
+			API.builderVersion.invoke(builder, API.http2);
+			API.builderConnectTimeout.invoke(builder, Duration.ofMillis(connectTimeoutMillis));
+			API.builderExecutor.invoke(builder, executor);
+			this.httpClient = API.builderBuild.invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			executor.shutdownNow();
+			throw new IllegalStateException("Error building the java.net.http client", e);
+		}
+	}
+
+	/**
+	 * Whether the running JDK has the {@code java.net.http} client this transport needs
+	 */
+	public static boolean isAvailable() {
+		return API != null;
+	}
+
+	@Override
+	public TransportResponse execute(TransportRequest request) throws IOException {
+		Object response;
+		try {
+			Object builder = API.newRequestBuilder.invoke(null, request.getUri());
+			for (Map.Entry<String, List<String>> header : request.getHeaders().entrySet()) {
+				if (RESTRICTED_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT))) {
+					continue;
+				}
+				for (String value : header.getValue()) {
+					API.requestHeader.invoke(builder, header.getKey(), value);
+				}
+			}
+			Object bodyPublisher = request.getBody() != null ? API.ofByteArray.invoke(null, (Object) request.getBody()) : API.noBody.invoke(null);
+			API.requestMethod.invoke(builder, request.getMethod(), bodyPublisher);
+			if (requestTimeoutMillis > 0) {
+				API.requestTimeout.invoke(builder, Duration.ofMillis(requestTimeoutMillis));
+			}
+			response = API.send.invoke(httpClient, API.requestBuild.invoke(builder), API.ofInputStream.invoke(null));
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+				InterruptedIOException interrupted = new InterruptedIOException("Interrupted waiting for " + request.getUri());
+				interrupted.initCause(cause);
+				throw interrupted;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Error sending " + request, cause);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Error calling the java.net.http client", e);
+		}
+
+		try {
+			@SuppressWarnings("unchecked")
+			Map<String, List<String>> headers = (Map<String, List<String>>) API.headersMap.invoke(API.responseHeaders.invoke(response));
+			String protocol = API.responseVersion.invoke(response) == API.http2 ? "HTTP/2" : "HTTP/1.1";
+			return new TransportResponse((Integer) API.statusCode.invoke(response), protocol, headers,
+					(InputStream) API.responseBody.invoke(response), null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Error reading the java.net.http response", e);
+		}
+	}
+
+	/**
+	 * Stops the threads of the client, its connections are closed when they are collected
+	 * or, on Java 21 or later, right away
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (httpClient instanceof AutoCloseable) {
+				((AutoCloseable) httpClient).close();
+			}
+		} catch (Exception e) {
+			throw new IOException("Error closing the java.net.http client", e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static Api loadApi() {
+		try {
+			return new Api();
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Methods of the {@code java.net.http} API, looked up once
+	 */
+	private static final class Api {
+
+		final Method newBuilder;
+		final Method builderVersion;
+		final Method builderConnectTimeout;
+		final Method builderExecutor;
+		final Method builderBuild;
+		final Object http2;
+		final Method send;
+		final Method newRequestBuilder;
+		final Method requestHeader;
+		final Method requestMethod;
+		final Method requestTimeout;
+		final Method requestBuild;
+		final Method ofByteArray;
+		final Method noBody;
+		final Method ofInputStream;
+		final Method statusCode;
+		final Method responseHeaders;
+		final Method headersMap;
+		final Method responseVersion;
+		final Method responseBody;
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Api() throws ReflectiveOperationException {
+			Class<?> client = Class.forName("java.net.http.HttpClient");
+			Class<?> clientBuilder = Class.forName("java.net.http.HttpClient$Builder");
+			Class<?> version = Class.forName("java.net.http.HttpClient$Version");
+			Class<?> request = Class.forName("java.net.http.HttpRequest");
+			Class<?> requestBuilder = Class.forName("java.net.http.HttpRequest$Builder");
+			Class<?> bodyPublisher = Class.forName("java.net.http.HttpRequest$BodyPublisher");
+			Class<?> bodyPublishers = Class.forName("java.net.http.HttpRequest$BodyPublishers");
+			Class<?> bodyHandler = Class.forName("java.net.http.HttpResponse$BodyHandler");
+			Class<?> bodyHandlers = Class.forName("java.net.http.HttpResponse$BodyHandlers");
+			Class<?> response = Class.forName("java.net.http.HttpResponse");
+			Class<?> headers = Class.forName("java.net.http.HttpHeaders");
+
+			newBuilder = client.getMethod("newBuilder");
+			builderVersion = clientBuilder.getMethod("version", version);
+			builderConnectTimeout = clientBuilder.getMethod("connectTimeout", Duration.class);
+			builderExecutor = clientBuilder.getMethod("executor", Executor.class);
+			builderBuild = clientBuilder.getMethod("build");
+			http2 = Enum.valueOf((Class<Enum>) version, "HTTP_2");
+			send = client.getMethod("send", request, bodyHandler);
+			newRequestBuilder = request.getMethod("newBuilder", URI.class);
+			requestHeader = requestBuilder.getMethod("header", String.class, String.class);
+			requestMethod = requestBuilder.getMethod("method", String.class, bodyPublisher);
+			requestTimeout = requestBuilder.getMethod("timeout", Duration.class);
+			requestBuild = requestBuilder.getMethod("build");
+			ofByteArray = bodyPublishers.getMethod("ofByteArray", byte[].class);
+			noBody = bodyPublishers.getMethod("noBody");
+			ofInputStream = bodyHandlers.getMethod("ofInputStream");
+			statusCode = response.getMethod("statusCode");
+			responseHeaders = response.getMethod("headers");
+			headersMap = headers.getMethod("map");
+			responseVersion = response.getMethod("version");
+			responseBody = response.getMethod("body");
+		}
+	}
+}
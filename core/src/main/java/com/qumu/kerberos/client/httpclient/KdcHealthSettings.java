@@ -0,0 +1,154 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of the tracking of the health and latency of the KDCs, see {@link KdcHealthTracker}.
+ *
+ * The realm and its KDCs are read from the krb5.conf in use unless they are given here.
+ */
+public class KdcHealthSettings {
+
+	/** Default number of consecutive failures after which a KDC is skipped */
+	public static final int DEFAULT_FAILURE_THRESHOLD = 2;
+
+	/** Default time a failing KDC is skipped before it is probed again */
+	public static final long DEFAULT_OPEN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+	/** Default maximum time a KDC that keeps failing its probes is skipped */
+	public static final long DEFAULT_MAX_OPEN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	/** Default time between probes of the KDCs */
+	public static final long DEFAULT_PROBE_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+	/** Default client of the ticket requests the KDCs are probed with */
+	public static final String DEFAULT_PROBE_PRINCIPAL = "kerberos-client-probe";
+
+	/** Default time to wait for a KDC to answer before trying the next one */
+	public static final int DEFAULT_KDC_TIMEOUT_MILLIS = 3000;
+
+	private String baseConfigLocation;
+	private String realm;
+	private List<String> kdcs = new ArrayList<String>();
+	private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+	private long openMillis = DEFAULT_OPEN_MILLIS;
+	private long maxOpenMillis = DEFAULT_MAX_OPEN_MILLIS;
+	private long probeIntervalMillis = DEFAULT_PROBE_INTERVAL_MILLIS;
+	private int kdcTimeoutMillis = DEFAULT_KDC_TIMEOUT_MILLIS;
+	private String probePrincipal = DEFAULT_PROBE_PRINCIPAL;
+
+	/**
+	 * krb5.conf the generated configuration is based on, by default the one of the java.security.krb5.conf
+	 * system property or /etc/krb5.conf
+	 */
+	public String getBaseConfigLocation() {
+		return baseConfigLocation;
+	}
+
+	public void setBaseConfigLocation(String baseConfigLocation) {
+		this.baseConfigLocation = baseConfigLocation;
+	}
+
+	/**
+	 * Realm of the KDCs, by default the default_realm of the base configuration
+	 */
+	public String getRealm() {
+		return realm;
+	}
+
+	public void setRealm(String realm) {
+		this.realm = realm;
+	}
+
+	/**
+	 * KDCs of the realm as host or host:port, by default the ones of the realm in the base configuration
+	 */
+	public List<String> getKdcs() {
+		return kdcs;
+	}
+
+	public void setKdcs(List<String> kdcs) {
+		this.kdcs = kdcs;
+	}
+
+	/**
+	 * Number of consecutive probes a KDC does not answer after which it is left out
+	 */
+	public int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	public void setFailureThreshold(int failureThreshold) {
+		if (failureThreshold <= 0) {
+			throw new IllegalArgumentException("The failure threshold must be positive: " + failureThreshold);
+		}
+		this.failureThreshold = failureThreshold;
+	}
+
+	/**
+	 * Time a failing KDC is left out before it is probed again. It doubles every time the probe fails.
+	 */
+	public long getOpenMillis() {
+		return openMillis;
+	}
+
+	public void setOpenMillis(long openMillis) {
+		this.openMillis = openMillis;
+	}
+
+	public long getMaxOpenMillis() {
+		return maxOpenMillis;
+	}
+
+	public void setMaxOpenMillis(long maxOpenMillis) {
+		this.maxOpenMillis = maxOpenMillis;
+	}
+
+	/**
+	 * Time between probes of the KDCs, which measure their latency and find the failing ones
+	 */
+	public long getProbeIntervalMillis() {
+		return probeIntervalMillis;
+	}
+
+	public void setProbeIntervalMillis(long probeIntervalMillis) {
+		this.probeIntervalMillis = probeIntervalMillis;
+	}
+
+	/**
+	 * Time to wait for a KDC to answer, it is the kdc_timeout of the generated configuration, so of every Kerberos
+	 * exchange of the JVM, and the timeout of the probes
+	 */
+	public int getKdcTimeoutMillis() {
+		return kdcTimeoutMillis;
+	}
+
+	public void setKdcTimeoutMillis(int kdcTimeoutMillis) {
+		this.kdcTimeoutMillis = kdcTimeoutMillis;
+	}
+
+	/**
+	 * Client principal of the ticket requests the KDCs are probed with, without realm. The KDCs answer them with an
+	 * error, unknown principal or pre-authentication required, so an existing principal keeps them out of the
+	 * failed logins audited by the KDC.
+	 */
+	public String getProbePrincipal() {
+		return probePrincipal;
+	}
+
+	public void setProbePrincipal(String probePrincipal) {
+		if (probePrincipal == null || probePrincipal.isEmpty()) {
+			throw new IllegalArgumentException("The probe principal must not be empty");
+		}
+		this.probePrincipal = probePrincipal;
+	}
+
+	@Override
+	public String toString() {
+		return "KdcHealthSettings [baseConfigLocation=" + baseConfigLocation + ", realm=" + realm + ", kdcs=" + kdcs
+				+ ", failureThreshold=" + failureThreshold + ", openMillis=" + openMillis + ", maxOpenMillis=" + maxOpenMillis
+				+ ", probeIntervalMillis=" + probeIntervalMillis + ", kdcTimeoutMillis=" + kdcTimeoutMillis + ", probePrincipal=" + probePrincipal + "]";
+	}
+}
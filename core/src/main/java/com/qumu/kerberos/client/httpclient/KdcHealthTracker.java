@@ -0,0 +1,745 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.security.auth.login.LoginException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Tracks the health and latency of the KDCs of a realm, so logins and service ticket requests go to the fastest
+ * healthy one first.
+ *
+ * The JDK tries the KDCs of a realm in the order of krb5.conf, waiting for its timeouts and retries on each one
+ * that is down before going to the next, so a single bad KDC adds seconds to every exchange. Instead, the tracker
+ * generates a krb5.conf from the base one where the KDCs of the realm are sorted from the fastest to the slowest,
+ * and the failing ones left out, and points the java.security.krb5.conf system property to it once, when it is
+ * created. The rest of the configuration is kept as is, so every Kerberos exchange of the JVM still fails over to
+ * the other KDCs of the list. The file is only rewritten, and the configuration of the JDK reloaded, when the
+ * order changes.
+ *
+ * A background thread measures the KDCs every {@link KdcHealthSettings#getProbeIntervalMillis()} with a request
+ * for a ticket of {@link KdcHealthSettings#getProbePrincipal()}, which any working KDC answers without
+ * credentials (with an error), so the latency includes the KDC and not only the network. A KDC that does not
+ * answer {@link KdcHealthSettings#getFailureThreshold()} probes in a row is left out (its circuit is open) for
+ * {@link KdcHealthSettings#getOpenMillis()}. Then it is probed again: if it answers it is put back at the end of
+ * the list until the next probe confirms it, otherwise it is left out for twice as long, up to
+ * {@link KdcHealthSettings#getMaxOpenMillis()}. When all the KDCs are failing, they are all listed anyway, so
+ * logins do not fail only because of their past. A login that can not reach any KDC triggers a probe straight away.
+ *
+ * The generated file is the java.security.krb5.conf of the whole JVM, so only one tracker can be open at a time:
+ * creating another one fails with an {@link IllegalStateException} until the first is closed. A second tracker
+ * would take the file of the first as its base, and the reorderings of the first would no longer reach the JDK.
+ * Clients of the realm share the tracker; the other realms of the base configuration are kept as they are.
+ *
+ * The JDK configuration is reloaded through sun.security.krb5.Config, which on Java 9 or later needs
+ * {@code --add-exports java.security.jgss/sun.security.krb5=ALL-UNNAMED}. Without it, the new order is read by
+ * the next login of the clients using the tracker.
+ */
+public class KdcHealthTracker implements Closeable {
+
+	private static final Log LOG = LogFactory.getLog(KdcHealthTracker.class);
+
+	static final String KRB5_CONF_PROPERTY = "java.security.krb5.conf";
+
+	private static final String DEFAULT_KRB5_CONF = "/etc/krb5.conf";
+
+	private static final int DEFAULT_KDC_PORT = 88;
+
+	/** First octet of the AS-REP and KRB-ERROR messages, either one means the KDC answered a probe */
+	private static final int AS_REP_TAG = 0x6b;
+	private static final int KRB_ERROR_TAG = 0x7e;
+
+	/** Weight of the last probe in the average latency of a KDC */
+	private static final double LATENCY_WEIGHT = 0.3;
+
+	/** A KDC only goes ahead of another one if it is faster by more than this fraction, so the order does not flap */
+	private static final double REORDER_TOLERANCE = 0.2;
+
+	/** The tracker whose configuration the JVM uses, only one can be open */
+	private static final AtomicReference<KdcHealthTracker> openTracker = new AtomicReference<KdcHealthTracker>();
+
+	public enum CircuitState {
+		/** The KDC is used */
+		CLOSED,
+		/** The KDC failed and is left out until it answers a probe */
+		OPEN,
+		/** The KDC answered a probe after failing, it is listed last until the next probe confirms it is back */
+		HALF_OPEN
+	}
+
+	private final KdcHealthSettings settings;
+	private final String realm;
+	private final List<String> baseConfig;
+	private final List<Kdc> kdcs;
+	private final Path configDirectory;
+	private final Path configFile;
+	private final String previousConfigLocation;
+	private final ScheduledExecutorService prober;
+
+	/** Addresses of the KDCs in the order of the generated configuration, only changed by the prober */
+	private volatile List<String> order;
+
+	public KdcHealthTracker() {
+		this(new KdcHealthSettings());
+	}
+
+	public KdcHealthTracker(KdcHealthSettings settings) {
+		this.settings = settings;
+		if (!openTracker.compareAndSet(null, this)) {
+			throw new IllegalStateException("A KdcHealthTracker is already open, only one can be open in the JVM: share it between the clients or close it first");
+		}
+		try {
+			String baseLocation = settings.getBaseConfigLocation();
+			if (baseLocation == null) {
+				baseLocation = System.getProperty(KRB5_CONF_PROPERTY, DEFAULT_KRB5_CONF);
+			}
+			try {
+				baseConfig = Files.readAllLines(Paths.get(baseLocation), StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				throw new RuntimeException("Error reading the Kerberos configuration " + baseLocation, e);
+			}
+
+			this.realm = settings.getRealm() != null ? settings.getRealm() : findDefaultRealm(baseConfig);
+			if (realm == null) {
+				throw new IllegalArgumentException("No realm given and no default_realm in " + baseLocation);
+			}
+			List<String> addresses = settings.getKdcs() != null && !settings.getKdcs().isEmpty() ? settings.getKdcs() : findKdcs(baseConfig, realm);
+			if (addresses.isEmpty()) {
+				throw new IllegalArgumentException("No KDCs given and none for the realm " + realm + " in " + baseLocation);
+			}
+			List<Kdc> kdcs = new ArrayList<Kdc>(addresses.size());
+			for (String address : addresses) {
+				kdcs.add(new Kdc(address));
+			}
+			this.kdcs = Collections.unmodifiableList(kdcs);
+			this.order = Collections.unmodifiableList(new ArrayList<String>(addresses));
+
+			try {
+				this.configDirectory = Files.createTempDirectory("kerberos-kdc");
+				this.configFile = configDirectory.resolve("krb5.conf");
+				writeConfig(order);
+			} catch (IOException e) {
+				throw new RuntimeException("Error writing the Kerberos configuration of the KDCs", e);
+			}
+			this.previousConfigLocation = System.getProperty(KRB5_CONF_PROPERTY);
+			System.setProperty(KRB5_CONF_PROPERTY, configFile.toString());
+			refreshJdkConfig();
+
+			this.prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "kerberos-kdc-prober");
+				thread.setDaemon(true);
+				return thread;
+			});
+			prober.scheduleWithFixedDelay(this::probe, 0, settings.getProbeIntervalMillis(), TimeUnit.MILLISECONDS);
+
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Tracking the KDCs " + addresses + " of " + realm + " in " + configFile + " with " + settings);
+			}
+		} catch (RuntimeException e) {
+			openTracker.compareAndSet(this, null);
+			throw e;
+		}
+	}
+
+	public String getRealm() {
+		return realm;
+	}
+
+	/**
+	 * Location of the generated krb5.conf, the java.security.krb5.conf of the JVM while the tracker is open
+	 */
+	public String getConfigLocation() {
+		return configFile.toString();
+	}
+
+	/**
+	 * Addresses of the KDCs of the realm in the order they are tried, without the ones left out
+	 */
+	public List<String> getOrder() {
+		return order;
+	}
+
+	/**
+	 * Runs a login, probing the KDCs straight away if it could not reach any of them
+	 *
+	 * @param attempt login with refreshKrb5Config, so it reads the last order of the KDCs
+	 */
+	<T> T login(Callable<T> attempt) throws LoginException {
+		try {
+			return attempt.call();
+		} catch (LoginException e) {
+			if (isUnreachable(e)) {
+				LOG.warn("Login through the KDCs " + order + " of " + realm + " failed, probing them");
+				try {
+					prober.execute(this::probe);
+				} catch (RejectedExecutionException closed) {
+					// The tracker was closed meanwhile
+				}
+			}
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException("Error logging in through the KDCs of " + realm, e);
+		}
+	}
+
+	/**
+	 * Probes the KDCs that are due, and writes the configuration again if their order changed
+	 */
+	private void probe() {
+		try {
+			for (Kdc kdc : kdcs) {
+				if (kdc.isDueForProbe(System.currentTimeMillis())) {
+					long start = System.nanoTime();
+					boolean answered = isAnswering(kdc.address);
+					kdc.probed(answered, System.nanoTime() - start, System.currentTimeMillis());
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("Probed KDC " + kdc.address + " of " + realm + ", " + kdc);
+					}
+				}
+			}
+			List<String> ranked = rank();
+			if (!ranked.equals(order)) {
+				writeConfig(ranked);
+				order = Collections.unmodifiableList(ranked);
+				if (LOG.isInfoEnabled()) {
+					LOG.info("KDCs of " + realm + " reordered to " + ranked + ", " + getKdcStatus());
+				}
+				refreshJdkConfig();
+			}
+		} catch (IOException e) {
+			LOG.error("Error writing the Kerberos configuration " + configFile, e);
+		} catch (RuntimeException e) {
+			LOG.error("Error probing the KDCs of " + realm, e);
+		}
+	}
+
+	/**
+	 * KDCs to list: the closed ones by latency and then the half open ones, or all of them when all are open.
+	 * A KDC only overtakes the one before it in the current order if it is clearly faster.
+	 */
+	private List<String> rank() {
+		List<Kdc> closed = new ArrayList<Kdc>(kdcs.size());
+		List<Kdc> halfOpen = new ArrayList<Kdc>(kdcs.size());
+		for (String address : order) {
+			Kdc kdc = find(address);
+			CircuitState state = kdc.getState();
+			if (state == CircuitState.CLOSED) {
+				closed.add(kdc);
+			} else if (state == CircuitState.HALF_OPEN) {
+				halfOpen.add(kdc);
+			}
+		}
+		// The ones left out earlier come back in the order of the configuration
+		for (Kdc kdc : kdcs) {
+			CircuitState state = kdc.getState();
+			if (state == CircuitState.CLOSED && !closed.contains(kdc)) {
+				closed.add(kdc);
+			} else if (state == CircuitState.HALF_OPEN && !halfOpen.contains(kdc)) {
+				halfOpen.add(kdc);
+			}
+		}
+
+		// Insertion sort with tolerance, KDCs not measured yet go first so they get measured
+		for (int i = 1; i < closed.size(); i++) {
+			Kdc kdc = closed.get(i);
+			int j = i;
+			while (j > 0 && isClearlyFaster(kdc.getLatencyNanos(), closed.get(j - 1).getLatencyNanos())) {
+				closed.set(j, closed.get(j - 1));
+				j--;
+			}
+			closed.set(j, kdc);
+		}
+
+		List<String> ranked = new ArrayList<String>(kdcs.size());
+		for (Kdc kdc : closed) {
+			ranked.add(kdc.address);
+		}
+		for (Kdc kdc : halfOpen) {
+			ranked.add(kdc.address);
+		}
+		if (ranked.isEmpty()) {
+			for (Kdc kdc : kdcs) {
+				ranked.add(kdc.address);
+			}
+		}
+		return ranked;
+	}
+
+	private static boolean isClearlyFaster(double latencyNanos, double otherLatencyNanos) {
+		if (otherLatencyNanos < 0) {
+			return false;
+		}
+		return latencyNanos < 0 || latencyNanos * (1 + REORDER_TOLERANCE) < otherLatencyNanos;
+	}
+
+	private Kdc find(String address) {
+		for (Kdc kdc : kdcs) {
+			if (kdc.address.equals(address)) {
+				return kdc;
+			}
+		}
+		throw new IllegalStateException("Unknown KDC " + address);
+	}
+
+	/**
+	 * Replaces the generated configuration, atomically so the JDK never reads a partial one
+	 */
+	private void writeConfig(List<String> addresses) throws IOException {
+		Path temporary = Files.createTempFile(configDirectory, "krb5", ".tmp");
+		Files.write(temporary, generateConfig(baseConfig, realm, addresses, settings.getKdcTimeoutMillis()), StandardCharsets.UTF_8);
+		Files.move(temporary, configFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Makes the JDK read the configuration again, returning whether it could
+	 */
+	private static boolean refreshJdkConfig() {
+		try {
+			Class.forName("sun.security.krb5.Config").getMethod("refresh").invoke(null);
+			return true;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Could not reload the Kerberos configuration of the JDK, it is read by the next login", e);
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Sends a ticket request to the KDC over TCP, returning whether it answered within the timeout
+	 */
+	private boolean isAnswering(String address) {
+		String host = address;
+		int port = DEFAULT_KDC_PORT;
+		int colon = address.lastIndexOf(':');
+		if (colon > 0 && address.indexOf(']') < colon) {
+			host = address.substring(0, colon);
+			port = Integer.parseInt(address.substring(colon + 1));
+		}
+		if (host.startsWith("[") && host.endsWith("]")) {
+			host = host.substring(1, host.length() - 1);
+		}
+		byte[] request = encodeAsRequest(settings.getProbePrincipal(), realm, ThreadLocalRandom.current().nextInt() & Integer.MAX_VALUE,
+				System.currentTimeMillis());
+		try (Socket socket = new Socket()) {
+			socket.connect(new InetSocketAddress(host, port), settings.getKdcTimeoutMillis());
+			socket.setSoTimeout(settings.getKdcTimeoutMillis());
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.writeInt(request.length);
+			out.write(request);
+			out.flush();
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			int length = in.readInt();
+			int tag = in.readUnsignedByte();
+			// A KRB-ERROR (i.e. unknown principal or pre-authentication required) or an AS-REP
+			return length > 0 && (tag == KRB_ERROR_TAG || tag == AS_REP_TAG);
+		} catch (IOException e) {
+			return false;
+		} catch (RuntimeException e) {
+			LOG.warn("Error probing the KDC " + address, e);
+			return false;
+		}
+	}
+
+	/**
+	 * DER encoding of an AS-REQ for a ticket granting ticket of the given client, without pre-authentication
+	 * (RFC 4120 section 5.4.1)
+	 */
+	static byte[] encodeAsRequest(String client, String realm, int nonce, long now) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss'Z'", Locale.ROOT);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		String till = format.format(new Date(now + TimeUnit.DAYS.toMillis(1)));
+
+		byte[] body = sequence(
+				// kdc-options: no flags
+				explicit(0, tlv(0x03, new byte[] { 0, 0, 0, 0, 0 })),
+				explicit(1, principalName(1, client.split("/"))),
+				explicit(2, generalString(realm)),
+				explicit(3, principalName(2, new String[] { "krbtgt", realm })),
+				explicit(5, tlv(0x18, till.getBytes(StandardCharsets.US_ASCII))),
+				explicit(7, integer(nonce)),
+				// aes256-cts-hmac-sha1-96, aes128-cts-hmac-sha1-96, rc4-hmac
+				explicit(8, sequence(integer(18), integer(17), integer(23))));
+		return tlv(0x6a, sequence(explicit(1, integer(5)), explicit(2, integer(10)), explicit(4, body)));
+	}
+
+	private static byte[] principalName(int type, String[] components) {
+		byte[][] strings = new byte[components.length][];
+		for (int i = 0; i < components.length; i++) {
+			strings[i] = generalString(components[i]);
+		}
+		return sequence(explicit(0, integer(type)), explicit(1, sequence(strings)));
+	}
+
+	private static byte[] generalString(String value) {
+		return tlv(0x1b, value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static byte[] integer(int value) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(5);
+		boolean started = false;
+		for (int shift = 24; shift > 0; shift -= 8) {
+			int octet = (value >>> shift) & 0xff;
+			int next = (value >>> (shift - 8)) & 0xff;
+			// Leading octets are dropped while they only repeat the sign of the next one
+			if (!started && (octet == 0 && next < 0x80 || octet == 0xff && next >= 0x80)) {
+				continue;
+			}
+			started = true;
+			bytes.write(octet);
+		}
+		bytes.write(value & 0xff);
+		return tlv(0x02, bytes.toByteArray());
+	}
+
+	private static byte[] explicit(int tag, byte[] content) {
+		return tlv(0xa0 | tag, content);
+	}
+
+	private static byte[] sequence(byte[]... elements) {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		for (byte[] element : elements) {
+			content.write(element, 0, element.length);
+		}
+		return tlv(0x30, content.toByteArray());
+	}
+
+	private static byte[] tlv(int tag, byte[] content) {
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream(content.length + 6);
+		encoded.write(tag);
+		int length = content.length;
+		if (length < 0x80) {
+			encoded.write(length);
+		} else {
+			int octets = length < 0x100 ? 1 : length < 0x10000 ? 2 : length < 0x1000000 ? 3 : 4;
+			encoded.write(0x80 | octets);
+			for (int shift = (octets - 1) * 8; shift >= 0; shift -= 8) {
+				encoded.write((length >>> shift) & 0xff);
+			}
+		}
+		encoded.write(content, 0, content.length);
+		return encoded.toByteArray();
+	}
+
+	/**
+	 * Whether the login failed because no KDC could be reached, rather than being refused by one
+	 */
+	static boolean isUnreachable(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof IOException) {
+				return true;
+			}
+			if (cause.getMessage() != null && cause.getMessage().contains("Cannot contact any KDC")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Health and latency of each KDC, in the order of the base configuration
+	 */
+	public List<KdcStatus> getKdcStatus() {
+		List<KdcStatus> status = new ArrayList<KdcStatus>(kdcs.size());
+		for (Kdc kdc : kdcs) {
+			status.add(kdc.getStatus());
+		}
+		return status;
+	}
+
+	/**
+	 * Stops probing and points the JVM back to the configuration it had before the tracker
+	 */
+	@Override
+	public void close() {
+		prober.shutdownNow();
+		// Unless something else changed it meanwhile
+		if (configFile.toString().equals(System.getProperty(KRB5_CONF_PROPERTY))) {
+			if (previousConfigLocation != null) {
+				System.setProperty(KRB5_CONF_PROPERTY, previousConfigLocation);
+			} else {
+				System.clearProperty(KRB5_CONF_PROPERTY);
+			}
+			refreshJdkConfig();
+		}
+		try {
+			Files.deleteIfExists(configFile);
+			Files.deleteIfExists(configDirectory);
+		} catch (IOException e) {
+			LOG.warn("Error deleting the Kerberos configuration " + configFile, e);
+		}
+		openTracker.compareAndSet(this, null);
+	}
+
+	static String findDefaultRealm(List<String> config) {
+		String section = null;
+		for (String line : config) {
+			String trimmed = stripComment(line);
+			if (trimmed.startsWith("[")) {
+				section = trimmed;
+			} else if ("[libdefaults]".equals(section) && isKey(trimmed, "default_realm")) {
+				return trimmed.substring(trimmed.indexOf('=') + 1).trim();
+			}
+		}
+		return null;
+	}
+
+	static List<String> findKdcs(List<String> config, String realm) {
+		List<String> kdcs = new ArrayList<String>();
+		String section = null;
+		boolean inRealm = false;
+		for (String line : config) {
+			String trimmed = stripComment(line);
+			if (trimmed.startsWith("[")) {
+				section = trimmed;
+				inRealm = false;
+			} else if ("[realms]".equals(section)) {
+				if (isRealmStart(trimmed, realm)) {
+					inRealm = true;
+				} else if (inRealm && trimmed.startsWith("}")) {
+					inRealm = false;
+				} else if (inRealm && isKey(trimmed, "kdc")) {
+					kdcs.add(trimmed.substring(trimmed.indexOf('=') + 1).trim());
+				}
+			}
+		}
+		return kdcs;
+	}
+
+	/**
+	 * Copy of the base configuration whose realm has the given KDCs, in that order, and the given kdc_timeout
+	 */
+	static List<String> generateConfig(List<String> config, String realm, List<String> kdcs, int kdcTimeoutMillis) {
+		String timeout = "  kdc_timeout = " + kdcTimeoutMillis;
+
+		List<String> generated = new ArrayList<String>(config.size() + kdcs.size() + 4);
+		String section = null;
+		boolean inRealm = false;
+		boolean hasLibdefaults = false;
+		boolean hasRealm = false;
+		for (String line : config) {
+			String trimmed = stripComment(line);
+			if (trimmed.startsWith("[")) {
+				if ("[realms]".equals(section) && !hasRealm) {
+					addRealm(generated, realm, kdcs);
+					hasRealm = true;
+				}
+				section = trimmed;
+				inRealm = false;
+				generated.add(line);
+				if ("[libdefaults]".equals(section)) {
+					hasLibdefaults = true;
+					generated.add(timeout);
+				}
+				continue;
+			}
+			if ("[libdefaults]".equals(section) && isKey(trimmed, "kdc_timeout")) {
+				continue;
+			}
+			if ("[realms]".equals(section)) {
+				if (isRealmStart(trimmed, realm)) {
+					inRealm = true;
+					hasRealm = true;
+					generated.add(line);
+					for (String kdc : kdcs) {
+						generated.add("    kdc = " + kdc);
+					}
+					continue;
+				} else if (inRealm && trimmed.startsWith("}")) {
+					inRealm = false;
+				} else if (inRealm && isKey(trimmed, "kdc")) {
+					continue;
+				}
+			}
+			generated.add(line);
+		}
+		if (!hasRealm) {
+			if (!"[realms]".equals(section)) {
+				generated.add("[realms]");
+			}
+			addRealm(generated, realm, kdcs);
+		}
+		if (!hasLibdefaults) {
+			List<String> withLibdefaults = new ArrayList<String>(generated.size() + 3);
+			withLibdefaults.add("[libdefaults]");
+			withLibdefaults.add("  default_realm = " + realm);
+			withLibdefaults.add(timeout);
+			withLibdefaults.addAll(generated);
+			return withLibdefaults;
+		}
+		return generated;
+	}
+
+	private static void addRealm(List<String> generated, String realm, List<String> kdcs) {
+		generated.add("  " + realm + " = {");
+		for (String kdc : kdcs) {
+			generated.add("    kdc = " + kdc);
+		}
+		generated.add("  }");
+	}
+
+	private static boolean isRealmStart(String line, String realm) {
+		return line.startsWith(realm) && line.endsWith("{") && line.substring(realm.length()).trim().startsWith("=");
+	}
+
+	private static boolean isKey(String line, String key) {
+		return line.toLowerCase(Locale.ROOT).startsWith(key) && line.substring(key.length()).trim().startsWith("=");
+	}
+
+	private static String stripComment(String line) {
+		String trimmed = line.trim();
+		return trimmed.startsWith("#") || trimmed.startsWith(";") ? "" : trimmed;
+	}
+
+	/**
+	 * Health and latency of a KDC at some point
+	 */
+	public static class KdcStatus {
+
+		private final String address;
+		private final CircuitState state;
+		private final long averageLatencyMillis;
+		private final int consecutiveFailures;
+		private final long openUntil;
+
+		KdcStatus(String address, CircuitState state, long averageLatencyMillis, int consecutiveFailures, long openUntil) {
+			this.address = address;
+			this.state = state;
+			this.averageLatencyMillis = averageLatencyMillis;
+			this.consecutiveFailures = consecutiveFailures;
+			this.openUntil = openUntil;
+		}
+
+		public String getAddress() {
+			return address;
+		}
+
+		public CircuitState getState() {
+			return state;
+		}
+
+		/**
+		 * Weighted average of the time the KDC took to answer the probes, -1 when it has not answered one yet
+		 */
+		public long getAverageLatencyMillis() {
+			return averageLatencyMillis;
+		}
+
+		public int getConsecutiveFailures() {
+			return consecutiveFailures;
+		}
+
+		/**
+		 * Time until which the KDC is left out before being probed, 0 unless its circuit is open
+		 */
+		public long getOpenUntil() {
+			return openUntil;
+		}
+
+		@Override
+		public String toString() {
+			return "KdcStatus [address=" + address + ", state=" + state + ", averageLatencyMillis=" + averageLatencyMillis
+					+ ", consecutiveFailures=" + consecutiveFailures + ", openUntil=" + (openUntil > 0 ? new Date(openUntil) : "-") + "]";
+		}
+	}
+
+	/**
+	 * Statistics and circuit of a KDC, updated by the prober
+	 */
+	private class Kdc {
+
+		private final String address;
+
+		private double latencyNanos = -1;
+		private int consecutiveFailures;
+		private CircuitState state = CircuitState.CLOSED;
+		private long openUntil;
+		private long openMillis;
+
+		Kdc(String address) {
+			this.address = address;
+			this.openMillis = settings.getOpenMillis();
+		}
+
+		synchronized double getLatencyNanos() {
+			return latencyNanos;
+		}
+
+		synchronized CircuitState getState() {
+			return state;
+		}
+
+		synchronized boolean isDueForProbe(long now) {
+			return state != CircuitState.OPEN || now >= openUntil;
+		}
+
+		synchronized void probed(boolean answered, long nanos, long now) {
+			if (answered) {
+				latencyNanos = latencyNanos < 0 ? nanos : LATENCY_WEIGHT * nanos + (1 - LATENCY_WEIGHT) * latencyNanos;
+				consecutiveFailures = 0;
+				if (state == CircuitState.OPEN) {
+					state = CircuitState.HALF_OPEN;
+				} else {
+					state = CircuitState.CLOSED;
+					openMillis = settings.getOpenMillis();
+				}
+				openUntil = 0;
+				return;
+			}
+			consecutiveFailures++;
+			// A KDC coming back gets a single chance
+			if (state != CircuitState.CLOSED || consecutiveFailures >= settings.getFailureThreshold()) {
+				open(now);
+			}
+		}
+
+		private void open(long now) {
+			if (state == CircuitState.CLOSED) {
+				openMillis = settings.getOpenMillis();
+			} else {
+				openMillis = Math.min(openMillis * 2, settings.getMaxOpenMillis());
+			}
+			state = CircuitState.OPEN;
+			openUntil = now + openMillis;
+		}
+
+		synchronized KdcStatus getStatus() {
+			return new KdcStatus(address, state, latencyNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis((long) latencyNanos),
+					consecutiveFailures, state == CircuitState.OPEN ? openUntil : 0);
+		}
+
+		@Override
+		public synchronized String toString() {
+			return getStatus().toString();
+		}
+	}
+}
@@ -0,0 +1,410 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.Subject;
+import javax.security.auth.login.LoginException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.auth.AuthSchemeProvider;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.config.AuthSchemes;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.Lookup;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.pool.PoolStats;
+import org.ietf.jgss.GSSException;
+
+/**
+ * Non-blocking counterpart of {@link KerberosHttpClient}, built on HttpAsyncClient. Requests return a
+ * {@link CompletableFuture} right away and are run by a small set of I/O dispatcher threads, so many
+ * requests can be in flight without a thread blocked on each of them.
+ *
+ * SPNEGO tokens are generated in the I/O threads, under the Subject of the {@link KerberosCredentialHolder},
+ * which is passed along with each request (see {@link CustomSPNegoScheme#SUBJECT_ATTRIBUTE}). The holder can be
+ * shared with a {@link KerberosHttpClient} so both use the same login and service tickets. Getting a service
+ * ticket is a blocking call to the KDC, which would stall every connection of the I/O thread, so when the ticket
+ * of the target is not cached it is obtained in the calling thread before the request is submitted; the I/O
+ * threads then only build the tokens from the cached ticket.
+ *
+ * The number of requests in flight is bounded. When the limit is reached new requests are rejected
+ * (their future fails with a {@link RejectedExecutionException}) so callers can slow down instead of
+ * queueing an unbounded amount of work.
+ *
+ * The login is done in the calling thread too, the first time and whenever the TGT is about to expire.
+ */
+public class KerberosAsyncHttpClient implements Closeable {
+
+	private static final Log LOG = LogFactory.getLog(KerberosAsyncHttpClient.class);
+
+	/** Default maximum number of requests in flight */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 200;
+
+	private static final Credentials credentials = new KerberosHttpClient.NullCredentials();
+
+	private final KerberosCredentialHolder credentialHolder;
+	private final CustomSPNegoSchemeFactory schemeFactory;
+	private final PreemptiveAuthCache preemptiveAuthCache;
+	private final PoolingNHttpClientConnectionManager connectionManager;
+	private final CloseableHttpAsyncClient httpClient;
+	private final ScheduledExecutorService evictor;
+	private final int maxInFlight;
+	private final Semaphore inFlight;
+	private volatile boolean preemptiveAuthentication;
+	private final CompositeClientListener listener = new CompositeClientListener();
+
+	public KerberosAsyncHttpClient(String keytabLocation, String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType) {
+		this(keytabLocation, userPrincipal, servicePrincipal, serviceNameType, new ConnectionPoolSettings(), DEFAULT_MAX_IN_FLIGHT);
+	}
+
+	public KerberosAsyncHttpClient(String keytabLocation, String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType,
+			ConnectionPoolSettings poolSettings, int maxInFlight) {
+		this(new KerberosCredentialHolder(keytabLocation, userPrincipal), servicePrincipal, serviceNameType, poolSettings, maxInFlight);
+	}
+
+	public KerberosAsyncHttpClient(KerberosCredentialHolder credentialHolder, String servicePrincipal, ServiceNameType serviceNameType,
+			ConnectionPoolSettings poolSettings, int maxInFlight) {
+		if (maxInFlight <= 0) {
+			throw new IllegalArgumentException("The maximum number of requests in flight must be positive: " + maxInFlight);
+		}
+		this.credentialHolder = credentialHolder;
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight);
+		this.schemeFactory = new CustomSPNegoSchemeFactory(serviceNameType, credentialHolder.getUserPrincipal(), servicePrincipal, true, false);
+		this.schemeFactory.setListener(listener);
+		this.schemeFactory.getTicketCache().setCredentialCache(credentialHolder.getCredentialCache());
+		this.preemptiveAuthCache = new PreemptiveAuthCache(schemeFactory, poolSettings.isConnectionBoundAuthentication());
+		this.connectionManager = poolSettings.buildAsyncConnectionManager();
+		this.httpClient = buildHttpClient();
+		this.evictor = startEvictor(poolSettings);
+		this.httpClient.start();
+	}
+
+	/**
+	 * Builds the async client with the same SPNEGO setup as the sync {@link KerberosHttpClient}
+	 */
+	private CloseableHttpAsyncClient buildHttpClient() {
+		HttpAsyncClientBuilder builder = HttpAsyncClientBuilder.create();
+		builder.setConnectionManager(connectionManager);
+		Lookup<AuthSchemeProvider> authSchemeRegistry = RegistryBuilder.<AuthSchemeProvider> create()
+				.register(AuthSchemes.SPNEGO, schemeFactory).build();
+		builder.setDefaultAuthSchemeRegistry(authSchemeRegistry);
+		builder.setTargetAuthenticationStrategy(new SPNegoAuthenticationStrategy(listener));
+		BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+		credentialsProvider.setCredentials(new AuthScope(null, -1, null), credentials);
+		builder.setDefaultCredentialsProvider(credentialsProvider);
+		return builder.build();
+	}
+
+	/**
+	 * HttpAsyncClient has no evictor of its own, expired and idle connections are closed by a
+	 * background thread, as the sync client does
+	 */
+	private ScheduledExecutorService startEvictor(ConnectionPoolSettings poolSettings) {
+		final long idleTimeoutMillis = poolSettings.getIdleTimeoutMillis();
+		long period = idleTimeoutMillis > 0 ? Math.max(idleTimeoutMillis / 2, 1000) : TimeUnit.SECONDS.toMillis(10);
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "kerberos-async-connection-evictor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			connectionManager.closeExpiredConnections();
+			if (idleTimeoutMillis > 0) {
+				connectionManager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+		return scheduler;
+	}
+
+	/**
+	 * Enables or disables preemptive authentication, see {@link KerberosHttpClient#setPreemptiveAuthentication(boolean)}
+	 */
+	public void setPreemptiveAuthentication(boolean preemptiveAuthentication) {
+		this.preemptiveAuthentication = preemptiveAuthentication;
+	}
+
+	public boolean isPreemptiveAuthentication() {
+		return preemptiveAuthentication;
+	}
+
+	/**
+	 * Generates the SPNEGO tokens of the requests ahead of time, so the I/O threads take a ready one instead of
+	 * generating it, see {@link KerberosHttpClient#enableTokenPool(TokenPoolSettings)}
+	 */
+	public void enableTokenPool(TokenPoolSettings settings) {
+		schemeFactory.getAuthenticator().enableTokenPool(settings);
+	}
+
+	public void disableTokenPool() {
+		schemeFactory.getAuthenticator().disableTokenPool();
+	}
+
+	public TokenPool getTokenPool() {
+		return schemeFactory.getAuthenticator().getTokenPool();
+	}
+
+	/**
+	 * Registers a listener of the timings and counters of the requests, see {@link KerberosHttpClient#addListener(KerberosClientListener)}.
+	 * The async client reports logins, ticket cache lookups, token generations, challenges and completed requests,
+	 * but not the responses of each attempt nor the body reads, which are up to the response consumers.
+	 */
+	public void addListener(KerberosClientListener listener) {
+		this.listener.add(listener);
+	}
+
+	public void removeListener(KerberosClientListener listener) {
+		this.listener.remove(listener);
+	}
+
+	public KerberosCredentialHolder getCredentialHolder() {
+		return credentialHolder;
+	}
+
+	/**
+	 * Underlying HttpAsyncClient, for integrations that run the requests themselves (i.e. a Spring request factory,
+	 * see CustomKerberosAsyncRestTemplate) with a context from {@link #createContext()}. Those requests are only
+	 * counted in the limit of requests in flight if they go through {@link #acquireInFlight()}.
+	 */
+	public CloseableHttpAsyncClient getHttpClient() {
+		return httpClient;
+	}
+
+	/**
+	 * Creates the context of a request run with {@link #getHttpClient()}, see {@link KerberosHttpClient#createContext()}
+	 *
+	 * @return a new context, for a single request
+	 * @throws RuntimeException if the login fails
+	 */
+	public HttpClientContext createContext() {
+		try {
+			return createContext(credentialHolder.getSubject(listener), false);
+		} catch (LoginException e) {
+			throw new RuntimeException("Error logging in " + credentialHolder.getUserPrincipal(), e);
+		}
+	}
+
+	/**
+	 * Counts a request run with {@link #getHttpClient()} in the limit of requests in flight, until
+	 * {@link #releaseInFlight()} is called
+	 *
+	 * @throws RejectedExecutionException if the limit of requests in flight is reached
+	 */
+	public void acquireInFlight() {
+		if (!inFlight.tryAcquire()) {
+			throw new RejectedExecutionException("Too many requests in flight, the limit is " + maxInFlight);
+		}
+	}
+
+	/**
+	 * Gives back the place taken by {@link #acquireInFlight()}, once the request has completed, failed or been cancelled
+	 */
+	public void releaseInFlight() {
+		inFlight.release();
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * Number of requests started and not completed yet
+	 */
+	public int getInFlight() {
+		return maxInFlight - inFlight.availablePermits();
+	}
+
+	/**
+	 * Statistics of the whole connection pool
+	 */
+	public PoolStats getPoolStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	/**
+	 * Stops the I/O reactor, closing the pooled connections, and the background evictor.
+	 * Requests in flight are aborted.
+	 */
+	@Override
+	public void close() throws IOException {
+		evictor.shutdownNow();
+		disableTokenPool();
+		httpClient.close();
+	}
+
+	/**
+	 * Performs a GET request and reads the response as a String, see {@link KerberosHttpClient#executeGet(String)}
+	 *
+	 * @param url url to request
+	 * @return future completed with the response body, or failed if the call fails or the status is not 2xx
+	 */
+	public CompletableFuture<String> executeAsync(String url) {
+		return executeAsync(new HttpGet(url), KerberosHttpClient.STRING_RESPONSE_HANDLER);
+	}
+
+	/**
+	 * Performs a request with the given method and body and reads the response as a String
+	 *
+	 * @param method HTTP method: GET, POST, PUT, PATCH, DELETE, HEAD...
+	 * @param url url to request
+	 * @param body request body or null, see {@link KerberosHttpClient#execute(String, String, HttpEntity, ResponseHandler)}
+	 * @return future completed with the response body, or failed if the call fails or the status is not 2xx
+	 */
+	public CompletableFuture<String> executeAsync(String method, String url, HttpEntity body) {
+		HttpUriRequest request = RequestBuilder.create(method).setUri(url).setEntity(body).build();
+		return executeAsync(request, KerberosHttpClient.STRING_RESPONSE_HANDLER);
+	}
+
+	/**
+	 * Performs the given request and hands the response to the given handler once its body has been
+	 * read into memory. The handler runs in an I/O dispatcher thread, so it must not block.
+	 *
+	 * @param request request to perform
+	 * @param responseHandler handler of the response
+	 * @return future completed with the value returned by the handler
+	 */
+	public <T> CompletableFuture<T> executeAsync(HttpUriRequest request, ResponseHandler<? extends T> responseHandler) {
+		return executeAsync(HttpAsyncMethods.create(request), new ResponseHandlerConsumer<T>(responseHandler));
+	}
+
+	/**
+	 * Performs a request streaming its body from the producer and the response to the consumer, so neither
+	 * has to be held in memory.
+	 *
+	 * Cancelling the returned future aborts the request.
+	 *
+	 * @param requestProducer producer of the request
+	 * @param responseConsumer consumer of the response
+	 * @return future completed with the result of the consumer, or failed with the cause of the failure.
+	 * It fails with a {@link RejectedExecutionException} if the limit of requests in flight is reached.
+	 */
+	public <T> CompletableFuture<T> executeAsync(HttpAsyncRequestProducer requestProducer, HttpAsyncResponseConsumer<T> responseConsumer) {
+
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+
+		try {
+			acquireInFlight();
+		} catch (RejectedExecutionException e) {
+			closeQuietly(requestProducer);
+			closeQuietly(responseConsumer);
+			result.completeExceptionally(e);
+			return result;
+		}
+
+		if (listener.isEnabled()) {
+			final long start = System.nanoTime();
+			final HttpHost target = requestProducer.getTarget();
+			result.whenComplete((response, e) -> listener.requestCompleted(target, System.nanoTime() - start, e == null));
+		}
+
+		try {
+			Subject subject = credentialHolder.getSubject(listener);
+			boolean nonRepeatableBody = !requestProducer.isRepeatable();
+			acquireServiceTicket(requestProducer.getTarget(), subject);
+			HttpClientContext context = createContext(subject, nonRepeatableBody);
+			final HttpRequest request = nonRepeatableBody ? requestProducer.generateRequest() : null;
+			// Let the server answer the challenge before the body is sent, it can not be sent twice
+			final RequestConfig callerConfig = nonRepeatableBody ? KerberosHttpClient.enableExpectContinue(request, context) : null;
+
+			final Future<T> future = httpClient.execute(requestProducer, responseConsumer, context, new FutureCallback<T>() {
+
+				@Override
+				public void completed(T response) {
+					inFlight.release();
+					result.complete(response);
+				}
+
+				@Override
+				public void failed(Exception e) {
+					inFlight.release();
+					LOG.error("Error executing call to " + requestProducer.getTarget(), e);
+					result.completeExceptionally(e);
+				}
+
+				@Override
+				public void cancelled() {
+					inFlight.release();
+					result.cancel(false);
+				}
+			});
+
+			result.whenComplete((response, e) -> {
+				if (result.isCancelled()) {
+					future.cancel(true);
+				}
+				if (request != null) {
+					// The request is the caller's, it may be sent again later
+					KerberosHttpClient.restoreConfig(request, callerConfig);
+				}
+			});
+		} catch (Exception e) {
+			inFlight.release();
+			closeQuietly(requestProducer);
+			closeQuietly(responseConsumer);
+			result.completeExceptionally(new RuntimeException("Error running call", e));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Obtains the service ticket of the target in the calling thread if it is not cached yet, so the I/O thread
+	 * generating the token does not block on the KDC
+	 */
+	private void acquireServiceTicket(HttpHost target, Subject subject) {
+		if (target == null) {
+			return;
+		}
+		try {
+			schemeFactory.getAuthenticator().acquireServiceTicket(target.getHostName(), subject);
+		} catch (GSSException e) {
+			// The server may not ask for a token, if it does the I/O thread tries again and fails the request
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Could not obtain the service ticket of " + target + " before sending the request", e);
+			}
+		}
+	}
+
+	private HttpClientContext createContext(Subject subject, boolean nonRepeatableBody) {
+		HttpClientContext context = HttpClientContext.create();
+		// Tokens are generated in the I/O threads, which do not run under the Subject
+		context.setAttribute(CustomSPNegoScheme.SUBJECT_ATTRIBUTE, subject);
+		context.setUserToken(AuthenticatedConnections.principalOf(subject));
+		context.setAuthCache(preemptiveAuthCache.forRequest(preemptiveAuthentication || nonRepeatableBody));
+		return context;
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			LOG.debug("Error closing " + closeable, e);
+		}
+	}
+}
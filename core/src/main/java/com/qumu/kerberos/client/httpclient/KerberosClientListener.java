@@ -0,0 +1,150 @@
+package com.qumu.kerberos.client.httpclient;
+
+import org.apache.http.HttpHost;
+
+/**
+ * Receives the timings and counters of each phase of the requests made by the Kerberos clients,
+ * so the time spent in the login, the service ticket request, the token generation, the 401 round
+ * trip and the body read can be told apart.
+ *
+ * All methods do nothing by default, implementations override the ones they are interested in.
+ * They are called in the threads running the requests, so they must be fast and thread safe.
+ * Durations are in nanoseconds. Listeners are registered with
+ * {@link KerberosHttpClient#addListener(KerberosClientListener)}, when none is registered the clients
+ * do not take any timing.
+ */
+public interface KerberosClientListener {
+
+	/**
+	 * A JAAS login against the KDC finished
+	 *
+	 * @param principal user principal logged in
+	 * @param durationNanos time the login took
+	 * @param success whether the login succeeded
+	 */
+	default void loginCompleted(String principal, long durationNanos, boolean success) {
+	}
+
+	/**
+	 * A ticket was renewed in the background before its expiry, or the renewal failed and will be retried later
+	 *
+	 * @param principal user principal the ticket belongs to
+	 * @param service principal of the service the ticket is for, or null for the TGT
+	 * @param durationNanos time the renewal took
+	 * @param success whether the renewal succeeded
+	 */
+	default void ticketRenewed(String principal, String service, long durationNanos, boolean success) {
+	}
+
+	/**
+	 * The GSS name, credential and service ticket for the server were found in the cache
+	 */
+	default void ticketCacheHit(String authServer) {
+	}
+
+	/**
+	 * There was no valid cached state for the server, the service ticket is requested from the KDC
+	 * (TGS-REQ) while generating the token
+	 */
+	default void ticketCacheMiss(String authServer) {
+	}
+
+	/**
+	 * A SPNEGO token was generated, or its generation failed
+	 *
+	 * @param authServer target server
+	 * @param durationNanos time the generation took, including the TGS-REQ on a cache miss
+	 * @param ticketCacheHit whether the cached service ticket was used
+	 * @param success whether a token was generated
+	 */
+	default void tokenGenerated(String authServer, long durationNanos, boolean ticketCacheHit, boolean success) {
+	}
+
+	/**
+	 * A request asked the {@link TokenPool} for a token
+	 *
+	 * @param authServer target server
+	 * @param hit whether a token was ready, otherwise the request generates it
+	 */
+	default void tokenPoolTaken(String authServer, boolean hit) {
+	}
+
+	/**
+	 * Tokens of the {@link TokenPool} were discarded without being used
+	 *
+	 * @param authServer target server
+	 * @param count number of tokens discarded
+	 */
+	default void tokensExpired(String authServer, int count) {
+	}
+
+	/**
+	 * The server answered with a SPNEGO challenge (401), so the request is sent again with a token
+	 */
+	default void challengeReceived(HttpHost target) {
+	}
+
+	/**
+	 * A response was received for an attempt of a request, including the 401 challenges
+	 *
+	 * @param target target host
+	 * @param statusCode response status
+	 * @param durationNanos time from sending the request to receiving the response head
+	 */
+	default void responseReceived(HttpHost target, int statusCode, long durationNanos) {
+	}
+
+	/**
+	 * The body of a response was read, or closed before the end
+	 *
+	 * @param target target host
+	 * @param bytes number of bytes read
+	 * @param durationNanos time from opening the body stream to its end
+	 */
+	default void bodyRead(HttpHost target, long bytes, long durationNanos) {
+	}
+
+	/**
+	 * A GET request was answered with a cached response, see {@link ResponseCache}
+	 *
+	 * @param target target host
+	 * @param revalidated whether the server was asked and confirmed the response with a 304, otherwise it was fresh
+	 * and the server was not contacted
+	 */
+	default void responseCacheHit(HttpHost target, boolean revalidated) {
+	}
+
+	/**
+	 * A GET request through the response cache got its response from the server
+	 */
+	default void responseCacheMiss(HttpHost target) {
+	}
+
+	/**
+	 * An idempotent request is attempted again, see {@link ResilienceSettings}
+	 *
+	 * @param target target host
+	 * @param reason why the previous attempt failed: {@code connect} or {@code status-<code>}
+	 */
+	default void requestRetried(HttpHost target, String reason) {
+	}
+
+	/**
+	 * A request got a response after a second attempt was sent because the first one was slow, see {@link ResilienceSettings}
+	 *
+	 * @param target target host
+	 * @param hedgeWon whether the response came from the second attempt
+	 */
+	default void requestHedged(HttpHost target, boolean hedgeWon) {
+	}
+
+	/**
+	 * A request finished, after all its attempts and the handling of its response
+	 *
+	 * @param target target host
+	 * @param durationNanos total time of the request, including the login if one was needed
+	 * @param success whether the request completed without error
+	 */
+	default void requestCompleted(HttpHost target, long durationNanos, boolean success) {
+	}
+}
@@ -0,0 +1,340 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.login.LoginContext;
+import javax.security.auth.login.LoginException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Holds the JAAS {@link Subject} of a client principal so it can be shared between calls and threads.
+ *
+ * The login against the KDC is done lazily on the first call to {@link #getSubject()} and repeated
+ * only when the TGT stored in the Subject is about to expire (its end time minus the refresh window).
+ * When a new login is needed, concurrent callers wait for a single login instead of each doing their own,
+ * and if it fails they all get its failure instead of each trying again against the KDC.
+ *
+ * Service tickets obtained by GSS-API under this Subject are stored in it as well, so they are
+ * reused for as long as the Subject is.
+ *
+ * The login can also be renewed in the background before the TGT expires, see {@link TicketRenewer}.
+ *
+ * With a {@link PersistentCredentialCache}, the tickets are written to disk and the first login takes them
+ * from there while they are valid, so a restarted client does not have to go to the KDC.
+ *
+ * With a {@link KdcHealthTracker}, logins try the fastest healthy KDC of the realm first.
+ */
+public class KerberosCredentialHolder {
+
+	private static final Log LOG = LogFactory.getLog(KerberosCredentialHolder.class);
+
+	/** Default time before the TGT expiry at which a new login is done */
+	public static final long DEFAULT_REFRESH_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	private static final String LOGIN = "login";
+
+	private final String keyTabLocation;
+	private final String userPrincipal;
+	private final Map<String, Object> loginOptions;
+	private final long refreshWindowMillis;
+	private final PersistentCredentialCache credentialCache;
+
+	private final SingleFlight<String, LoginState> logins = new SingleFlight<String, LoginState>();
+
+	private volatile LoginState loginState;
+	private volatile boolean credentialCacheRead;
+	private volatile KdcHealthTracker kdcHealthTracker;
+
+	public KerberosCredentialHolder(String keyTabLocation, String userPrincipal) {
+		this(keyTabLocation, userPrincipal, null, DEFAULT_REFRESH_WINDOW_MILLIS);
+	}
+
+	public KerberosCredentialHolder(String keyTabLocation, String userPrincipal, Map<String, Object> loginOptions, long refreshWindowMillis) {
+		this(keyTabLocation, userPrincipal, loginOptions, refreshWindowMillis, null);
+	}
+
+	/**
+	 * @param credentialCache cache on disk to reuse the tickets of a previous run from and to write them to, can be null
+	 */
+	public KerberosCredentialHolder(String keyTabLocation, String userPrincipal, Map<String, Object> loginOptions, long refreshWindowMillis,
+			PersistentCredentialCache credentialCache) {
+		this.keyTabLocation = keyTabLocation;
+		this.userPrincipal = userPrincipal;
+		this.loginOptions = loginOptions;
+		this.refreshWindowMillis = refreshWindowMillis;
+		this.credentialCache = credentialCache;
+	}
+
+	/**
+	 * Returns the logged in Subject, logging in first if there is no Subject yet or its TGT is close to expiry
+	 *
+	 * @return the Subject holding the Kerberos credentials of the user principal
+	 * @throws LoginException if the login against the KDC fails
+	 */
+	public Subject getSubject() throws LoginException {
+		return getSubject(null);
+	}
+
+	/**
+	 * Same as {@link #getSubject()}, reporting the login to the listener if one is done
+	 */
+	Subject getSubject(CompositeClientListener listener) throws LoginException {
+		LoginState state = loginState;
+		if (state != null && !state.needsRefresh(System.currentTimeMillis())) {
+			return state.subject;
+		}
+
+		return runLogin(() -> {
+			// Another login may have finished while this one was being started
+			LoginState current = loginState;
+			if (current != null && !current.needsRefresh(System.currentTimeMillis())) {
+				return current;
+			}
+			current = login(listener);
+			loginState = current;
+			storeCredentials(current.subject);
+			return current;
+		}).subject;
+	}
+
+	/**
+	 * Logs in again ahead of the expiry of the current TGT. Calls to {@link #getSubject()} keep getting the
+	 * current Subject while the login is done, and the new one once it is ready.
+	 *
+	 * @param listener listeners to report the login to, can be null
+	 * @param prepare called with the new Subject before it replaces the current one, i.e. to get the service
+	 * tickets in use, so requests do not have to
+	 * @throws LoginException if the login against the KDC fails, the current Subject is kept then
+	 */
+	void renew(CompositeClientListener listener, Consumer<Subject> prepare) throws LoginException {
+		runLogin(() -> {
+			LoginState renewed = login(listener);
+			if (prepare != null) {
+				prepare.accept(renewed.subject);
+			}
+			loginState = renewed;
+			storeCredentials(renewed.subject);
+			return renewed;
+		});
+	}
+
+	/**
+	 * Runs the login unless one is already in flight, in which case it waits for it and shares its
+	 * result or its failure
+	 */
+	private LoginState runLogin(Callable<LoginState> login) throws LoginException {
+		try {
+			return logins.execute(LOGIN, login);
+		} catch (LoginException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			LoginException loginException = new LoginException("Interrupted while waiting for the login of " + userPrincipal);
+			loginException.initCause(e);
+			throw loginException;
+		}
+	}
+
+	/**
+	 * The current Subject, without logging in
+	 *
+	 * @return the Subject or null if there was no login yet
+	 */
+	Subject getCurrentSubject() {
+		LoginState state = loginState;
+		return state != null ? state.subject : null;
+	}
+
+	/**
+	 * The TGT of the current Subject, without logging in
+	 *
+	 * @return the TGT or null if there was no login yet or the Subject does not have one
+	 */
+	KerberosTicket getCurrentTgt() {
+		LoginState state = loginState;
+		return state != null ? state.tgt : null;
+	}
+
+	/**
+	 * Discards the current Subject so the next call to {@link #getSubject()} logs in again
+	 */
+	public void invalidate() {
+		loginState = null;
+	}
+
+	public String getUserPrincipal() {
+		return userPrincipal;
+	}
+
+	/**
+	 * Cache on disk the tickets are written to, or null if there is none
+	 */
+	PersistentCredentialCache getCredentialCache() {
+		return credentialCache;
+	}
+
+	/**
+	 * Makes the logins read the last order of the KDCs of the tracker, from the fastest healthy one, and probe the
+	 * KDCs straight away when none can be reached. Only one tracker can be open in the JVM, so all the holders
+	 * of the realm share it.
+	 *
+	 * @param kdcHealthTracker tracker of the KDCs of the realm of the user principal, null to stop using it
+	 */
+	public void setKdcHealthTracker(KdcHealthTracker kdcHealthTracker) {
+		this.kdcHealthTracker = kdcHealthTracker;
+	}
+
+	public KdcHealthTracker getKdcHealthTracker() {
+		return kdcHealthTracker;
+	}
+
+	/**
+	 * Writes the tickets of the Subject to the cache on disk, if there is one
+	 */
+	void storeCredentials(Subject subject) {
+		if (credentialCache != null) {
+			credentialCache.store(subject);
+		}
+	}
+
+	private LoginState login(CompositeClientListener listener) throws LoginException {
+		if (listener == null || !listener.isEnabled()) {
+			return login();
+		}
+
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			LoginState state = login();
+			success = true;
+			return state;
+		} finally {
+			listener.loginCompleted(userPrincipal, System.nanoTime() - start, success);
+		}
+	}
+
+	private LoginState login() throws LoginException {
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Logging in to the KDC, user principal: " + userPrincipal + ", keytab: " + keyTabLocation);
+		}
+
+		// The tickets on disk are only used by the first login, later ones are due to their expiry
+		List<KerberosTicket> cachedTickets = Collections.emptyList();
+		if (credentialCache != null && !credentialCacheRead) {
+			credentialCacheRead = true;
+			cachedTickets = credentialCache.load(userPrincipal, System.currentTimeMillis() + refreshWindowMillis);
+		}
+		boolean useCachedTgt = false;
+		for (KerberosTicket ticket : cachedTickets) {
+			useCachedTgt |= isTgt(ticket);
+		}
+
+		Subject subject;
+		KdcHealthTracker tracker = kdcHealthTracker;
+		if (tracker != null && !useCachedTgt) {
+			// The tracker reorders the KDCs in its configuration, the login module reads the last order
+			Map<String, Object> options = new HashMap<String, Object>();
+			if (loginOptions != null) {
+				options.putAll(loginOptions);
+			}
+			options.put("refreshKrb5Config", "true");
+			ClientLoginConfig loginConfig = new ClientLoginConfig(keyTabLocation, userPrincipal, options);
+			subject = tracker.login(() -> login(loginConfig));
+		} else {
+			subject = login(new ClientLoginConfig(keyTabLocation, userPrincipal, loginOptions, useCachedTgt ? credentialCache.getLocation() : null));
+		}
+
+		// GSS-API finds the service tickets in the Subject and does not ask the KDC for them
+		for (KerberosTicket ticket : cachedTickets) {
+			if (!isTgt(ticket)) {
+				subject.getPrivateCredentials().add(ticket);
+			}
+		}
+
+		if (LOG.isDebugEnabled() && !cachedTickets.isEmpty()) {
+			LOG.debug("Reused " + cachedTickets.size() + " tickets of " + userPrincipal + " from " + credentialCache.getLocation());
+		}
+
+		long now = System.currentTimeMillis();
+		long refreshTime;
+		KerberosTicket tgt = findTgt(subject);
+		if (tgt != null && tgt.getEndTime() != null) {
+			long endTime = tgt.getEndTime().getTime();
+			// Never spend more than half of the ticket lifetime waiting for the refresh window
+			long window = Math.min(refreshWindowMillis, (endTime - now) / 2);
+			refreshTime = endTime - window;
+		} else {
+			// No TGT to read an expiry from, keep the Subject for one refresh window
+			refreshTime = now + refreshWindowMillis;
+		}
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Logged in user principal: " + userPrincipal + ", next login after " + new Date(refreshTime));
+		}
+
+		return new LoginState(subject, tgt, refreshTime);
+	}
+
+	private Subject login(ClientLoginConfig loginConfig) throws LoginException {
+		Set<Principal> princ = new HashSet<Principal>(1);
+		if (userPrincipal != null) {
+			princ.add(new KerberosPrincipal(userPrincipal));
+		}
+		Subject sub = new Subject(false, princ, new HashSet<Object>(), new HashSet<Object>());
+		LoginContext lc = new LoginContext("", sub, null, loginConfig);
+		lc.login();
+		return lc.getSubject();
+	}
+
+	/**
+	 * Finds the ticket granting ticket among the private credentials of the Subject
+	 *
+	 * @param subject logged in Subject
+	 * @return the TGT or null if the Subject does not have one
+	 */
+	static KerberosTicket findTgt(Subject subject) {
+		for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+			if (isTgt(ticket)) {
+				return ticket;
+			}
+		}
+		return null;
+	}
+
+	static boolean isTgt(KerberosTicket ticket) {
+		KerberosPrincipal server = ticket.getServer();
+		return server != null && server.getName().startsWith("krbtgt/");
+	}
+
+	private static class LoginState {
+
+		private final Subject subject;
+		private final KerberosTicket tgt;
+		private final long refreshTime;
+
+		LoginState(Subject subject, KerberosTicket tgt, long refreshTime) {
+			this.subject = subject;
+			this.tgt = tgt;
+			this.refreshTime = refreshTime;
+		}
+
+		boolean needsRefresh(long now) {
+			return now >= refreshTime;
+		}
+	}
+}
@@ -0,0 +1,874 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.Principal;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.security.auth.Subject;
+import javax.security.auth.login.LoginException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Consts;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+
+/**
+ *
+ * Based on Spring's implementation of KerberosRestTemplate, simplified version
+ * that allows making requests (GET, POST, PUT, PATCH, DELETE, HEAD...) using a HttpClient that uses
+ * SPNEGO to communicate with a kerberized server. Request bodies are streamed and the response is
+ * read as a String or streamed to a {@link ResponseHandler}.
+ *
+ * If a keytab file is provided it will be used to log into the Auth Server, otherwise a ticket cache
+ * will be used. The login is done once and the resulting Subject is reused across calls and threads
+ * until its TGT is close to expiry, see {@link KerberosCredentialHolder}.
+ *
+ * Connections are pooled and kept alive, see {@link ConnectionPoolSettings}. Each connection is bound
+ * to the principal that used it. The client must be closed to release them.
+ *
+ * Ensure the hostname/domain of the server (url passed in) is part of the Kerberos realm / Domain controller
+ *
+ * @author davidfernandez
+ *
+ */
+public class KerberosHttpClient implements Closeable {
+
+	private static final Log LOG = LogFactory.getLog(KerberosHttpClient.class);
+
+	private static final Credentials credentials = new NullCredentials();
+
+	static final ResponseHandler<String> STRING_RESPONSE_HANDLER = new StringResponseHandler();
+
+	private CloseableHttpClient httpClient;
+	private PoolingHttpClientConnectionManager connectionManager;
+	private ClientPrincipal principal;
+	private boolean connectionBoundAuthentication;
+	private volatile boolean preemptiveAuthentication;
+	private volatile ResponseCache responseCache;
+	private volatile ResilientRequestExecutor resilientExecutor;
+	private TicketRenewer ticketRenewer;
+	private final CompositeClientListener listener = new CompositeClientListener();
+
+	public KerberosHttpClient(String keytabLocation, String userPrincipal, ServiceNameType serviceNameType) {
+		this(keytabLocation, userPrincipal, null, serviceNameType);
+	}
+
+	public KerberosHttpClient(String keytabLocation, String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType) {
+		this(keytabLocation, userPrincipal, servicePrincipal, serviceNameType, new ConnectionPoolSettings());
+	}
+
+	public KerberosHttpClient(String keytabLocation, String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType, ConnectionPoolSettings poolSettings) {
+		this(new KerberosCredentialHolder(keytabLocation, userPrincipal), servicePrincipal, serviceNameType, poolSettings);
+	}
+
+	/**
+	 * Client logged in with the given holder, which can be shared with other clients (i.e. a {@link KerberosAsyncHttpClient})
+	 * so all of them use the same login and service tickets
+	 */
+	public KerberosHttpClient(KerberosCredentialHolder credentialHolder, String servicePrincipal, ServiceNameType serviceNameType, ConnectionPoolSettings poolSettings) {
+		this(poolSettings);
+		this.principal = createPrincipal(credentialHolder, servicePrincipal, serviceNameType);
+	}
+
+	/**
+	 * Client without a principal of its own, used as the transport shared by the principals of a
+	 * {@link KerberosPrincipalRegistry}. Requests must be made with {@link #execute(ClientPrincipal, HttpUriRequest, ResponseHandler)}.
+	 */
+	KerberosHttpClient(ConnectionPoolSettings poolSettings) {
+		this.connectionBoundAuthentication = poolSettings.isConnectionBoundAuthentication();
+		this.connectionManager = poolSettings.buildConnectionManager();
+		this.httpClient = buildHttpClient(poolSettings);
+	}
+
+	/**
+	 * Builds the default instance of {@link HttpClient} having Kerberos/SPNEGO
+	 * support.
+	 *
+	 * The SPNEGO scheme registry is set in the context of each request, from the principal it is made
+	 * on behalf of (see {@link ClientPrincipal}), so one client can serve several principals.
+	 *
+	 * It puts the flag useCanonicalHostname to false in the SpnegoSchemeFactory
+	 * to make the login to auth server work by doing a 'shallow' inspect of the server hostname
+	 * (without lookups) so this can be used with hosts that use aliases of localhost and still be
+	 * recognized as part of the Kerberos realm
+	 *
+	 * The target authentication strategy records the hosts that required SPNEGO so that,
+	 * when preemptive authentication is enabled, they get the Negotiate header in the first attempt,
+	 * and the connections already authenticated.
+	 *
+	 * Each attempt of a request goes through an executor that reports it to the listeners, if any.
+	 *
+	 * @param poolSettings sizing and eviction of the connection pool
+	 * @return the http client with spnego auth scheme
+	 */
+	private CloseableHttpClient buildHttpClient(ConnectionPoolSettings poolSettings) {
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		poolSettings.configure(builder, connectionManager);
+		builder.setTargetAuthenticationStrategy(new SPNegoAuthenticationStrategy(listener));
+		builder.setRequestExecutor(new InstrumentedRequestExecutor(listener));
+		BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+		credentialsProvider.setCredentials(new AuthScope(null, -1, null), credentials);
+		builder.setDefaultCredentialsProvider(credentialsProvider);
+		CloseableHttpClient builtHttpClient = builder.build();
+		return builtHttpClient;
+	}
+
+	/**
+	 * Enables or disables preemptive authentication. When enabled, requests to hosts that already
+	 * required SPNEGO authentication send the Negotiate header in the first attempt instead of
+	 * waiting for the 401 challenge. If the server still answers with a challenge, the normal
+	 * flow is followed. Disabled by default.
+	 *
+	 * Requests with a non repeatable body are always authenticated preemptively when possible,
+	 * as the body can not be sent again after a challenge.
+	 *
+	 * @param preemptiveAuthentication whether to authenticate preemptively
+	 */
+	public void setPreemptiveAuthentication(boolean preemptiveAuthentication) {
+		this.preemptiveAuthentication = preemptiveAuthentication;
+	}
+
+	public boolean isPreemptiveAuthentication() {
+		return preemptiveAuthentication;
+	}
+
+	/**
+	 * Starts renewing the TGT and the service tickets in use in a background thread, at a fraction of their
+	 * lifetime with some random jitter, so requests do not wait for the KDC when they expire.
+	 * Renewals are reported to the listeners. Disabled by default.
+	 *
+	 * @param settings renewal settings, replacing the current ones if renewal was already enabled
+	 */
+	public void enableTicketRenewal(TicketRenewalSettings settings) {
+		if (principal == null) {
+			throw new IllegalStateException("The client has no principal, renewal is enabled through its registry");
+		}
+		enableTicketRenewal(settings, Collections.singletonList(principal));
+	}
+
+	/**
+	 * Starts renewing the tickets of the given principals, see {@link #enableTicketRenewal(TicketRenewalSettings)}
+	 */
+	synchronized void enableTicketRenewal(TicketRenewalSettings settings, Iterable<ClientPrincipal> principals) {
+		disableTicketRenewal();
+		ticketRenewer = new TicketRenewer(settings, principals, listener);
+	}
+
+	/**
+	 * Stops the background renewal of tickets, they are renewed by the requests that find them expired
+	 */
+	public synchronized void disableTicketRenewal() {
+		if (ticketRenewer != null) {
+			ticketRenewer.shutdown();
+			ticketRenewer = null;
+		}
+	}
+
+	/**
+	 * Makes the logins of the client read the order of the KDCs kept by the tracker, from the fastest healthy
+	 * one, see {@link KdcHealthTracker}. Disabled by default.
+	 *
+	 * The tracker sets the krb5.conf of the whole JVM, so only one can be open at a time: the clients of the realm
+	 * share the same tracker, rather than creating one each.
+	 *
+	 * @param kdcHealthTracker tracker of the KDCs of the realm of the user principal, null to stop using it
+	 */
+	public void setKdcHealthTracker(KdcHealthTracker kdcHealthTracker) {
+		if (principal == null) {
+			throw new IllegalStateException("The client has no principal, the tracker is set through its registry");
+		}
+		principal.getCredentialHolder().setKdcHealthTracker(kdcHealthTracker);
+	}
+
+	/**
+	 * Caches the responses to the GET requests made by this client, per user principal, as described in
+	 * {@link ResponseCache}: fresh responses are answered without going to the server and stale ones are
+	 * revalidated with conditional requests. Requests made through {@link #getHttpClient()} are not cached.
+	 * Disabled by default.
+	 *
+	 * @param settings storage and size of the cache, replacing the current cache if it was already enabled
+	 */
+	public synchronized void enableResponseCache(ResponseCacheSettings settings) {
+		disableResponseCache();
+		responseCache = new ResponseCache(settings);
+	}
+
+	/**
+	 * Stops caching responses and discards the cached ones
+	 */
+	public synchronized void disableResponseCache() {
+		if (responseCache != null) {
+			responseCache.close();
+			responseCache = null;
+		}
+	}
+
+	/**
+	 * Cache of the responses, with its statistics, or null if it is not enabled
+	 */
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	/**
+	 * Generates the SPNEGO tokens of the requests ahead of time in a background thread, so the request threads
+	 * take a ready one instead of generating it, see {@link TokenPool}. Disabled by default.
+	 *
+	 * @param settings number and maximum age of the tokens, replacing the current pool if it was already enabled
+	 * @throws IllegalStateException if the client has no principal
+	 */
+	public void enableTokenPool(TokenPoolSettings settings) {
+		if (principal == null) {
+			throw new IllegalStateException("The client has no principal, requests must be made on behalf of a registered one");
+		}
+		principal.getSchemeFactory().getAuthenticator().enableTokenPool(settings);
+	}
+
+	/**
+	 * Stops generating tokens ahead of time, each request generates its own
+	 */
+	public void disableTokenPool() {
+		if (principal != null) {
+			principal.getSchemeFactory().getAuthenticator().disableTokenPool();
+		}
+	}
+
+	/**
+	 * Pool of tokens, with its hit rate and the tokens discarded unused, or null if it is not enabled
+	 */
+	public TokenPool getTokenPool() {
+		return principal != null ? principal.getSchemeFactory().getAuthenticator().getTokenPool() : null;
+	}
+
+	/**
+	 * Retries the idempotent requests made by this client (GET, HEAD, OPTIONS, TRACE, PUT and DELETE with a repeatable
+	 * body) that can not connect or get a 503, and optionally hedges the slow ones, see {@link ResilienceSettings}.
+	 * Each attempt authenticates with a new SPNEGO token. Requests made through {@link #getHttpClient()} are not
+	 * retried. Disabled by default.
+	 *
+	 * @param settings retry and hedging settings, replacing the current ones if already enabled
+	 */
+	public synchronized void enableResilience(ResilienceSettings settings) {
+		disableResilience();
+		resilientExecutor = new ResilientRequestExecutor(settings, httpClient, listener);
+	}
+
+	/**
+	 * Stops retrying and hedging requests, each one is attempted once
+	 */
+	public synchronized void disableResilience() {
+		if (resilientExecutor != null) {
+			resilientExecutor.shutdown();
+			resilientExecutor = null;
+		}
+	}
+
+	/**
+	 * Retry and hedging settings, or null if they are not enabled
+	 */
+	public ResilienceSettings getResilienceSettings() {
+		ResilientRequestExecutor executor = resilientExecutor;
+		return executor != null ? executor.getSettings() : null;
+	}
+
+	/**
+	 * Registers a listener of the timings and counters of each phase of the requests (login, ticket cache,
+	 * token generation, challenges, responses and body reads). While no listener is registered, no timing is taken.
+	 *
+	 * @param listener listener to add, i.e. a {@link MicrometerClientListener}
+	 */
+	public void addListener(KerberosClientListener listener) {
+		this.listener.add(listener);
+	}
+
+	public void removeListener(KerberosClientListener listener) {
+		this.listener.remove(listener);
+	}
+
+	/**
+	 * Holder of the logged in Subject, it can be passed to a {@link KerberosAsyncHttpClient} so both
+	 * clients share the login and the service tickets
+	 */
+	public KerberosCredentialHolder getCredentialHolder() {
+		return principal != null ? principal.getCredentialHolder() : null;
+	}
+
+	/**
+	 * Underlying HttpClient, for integrations that run the requests themselves (i.e. a Spring request factory,
+	 * see CustomKerberosRestTemplate) with a context from {@link #createContext()}
+	 */
+	public CloseableHttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	/**
+	 * Creates the context of a request run with {@link #getHttpClient()} on behalf of the principal of this client.
+	 * The principal logs in if it has not yet or its TGT is about to expire. Its Subject is passed along in the
+	 * context, so the request does not need to run under it, and its service tickets, preemptive authentication
+	 * and authenticated connections are shared with the requests made by this client.
+	 *
+	 * @return a new context, for a single request
+	 * @throws IllegalStateException if the client has no principal
+	 * @throws RuntimeException if the login fails
+	 */
+	public HttpClientContext createContext() {
+		if (principal == null) {
+			throw new IllegalStateException("The client has no principal, requests must be made on behalf of a registered one");
+		}
+		Subject subject;
+		try {
+			subject = principal.getCredentialHolder().getSubject(listener);
+		} catch (LoginException e) {
+			throw new RuntimeException("Error logging in " + principal.getUserPrincipal(), e);
+		}
+		return createContext(principal, subject);
+	}
+
+	/**
+	 * Creates the state of a principal whose requests can be made with this client, reporting to its listeners
+	 */
+	ClientPrincipal createPrincipal(KerberosCredentialHolder credentialHolder, String servicePrincipal, ServiceNameType serviceNameType) {
+		return new ClientPrincipal(credentialHolder, servicePrincipal, serviceNameType, connectionBoundAuthentication, listener);
+	}
+
+	/**
+	 * Statistics of the whole connection pool
+	 */
+	public PoolStats getPoolStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	/**
+	 * Statistics of the connection pool for each route (target host) used so far
+	 */
+	public Map<HttpRoute, PoolStats> getRoutePoolStats() {
+		Map<HttpRoute, PoolStats> stats = new HashMap<HttpRoute, PoolStats>();
+		for (HttpRoute route : connectionManager.getRoutes()) {
+			stats.put(route, connectionManager.getStats(route));
+		}
+		return stats;
+	}
+
+	/**
+	 * Sets the maximum number of connections to a given route, overriding the default of the pool settings
+	 */
+	public void setMaxPerRoute(HttpRoute route, int max) {
+		connectionManager.setMaxPerRoute(route, max);
+	}
+
+	/**
+	 * Closes the pooled connections and stops the background evictor and ticket renewal
+	 */
+	@Override
+	public void close() throws IOException {
+		disableTicketRenewal();
+		disableResponseCache();
+		disableResilience();
+		disableTokenPool();
+		httpClient.close();
+	}
+
+	/**
+	 * Performs a GET request and reads the response as a String, decoded with the charset of the response
+	 * (UTF-8 if it does not declare one)
+	 *
+	 * @param url url to request
+	 * @return the response body
+	 * @throws RuntimeException if the call fails or the response status is not 2xx
+	 */
+	public String executeGet(final String url) {
+		return execute(url, STRING_RESPONSE_HANDLER);
+	}
+
+	/**
+	 * Performs a GET request and hands the response to the given handler, so the body can be streamed
+	 * instead of being held in memory. The handler is called for any response status.
+	 *
+	 * The response entity is always released once the handler returns, even if it throws, so the
+	 * handler must not keep a reference to the response stream.
+	 *
+	 * @param url url to request
+	 * @param responseHandler handler of the response
+	 * @return the value returned by the handler
+	 * @throws RuntimeException if the call or the handler fails
+	 */
+	public <T> T execute(final String url, final ResponseHandler<? extends T> responseHandler) {
+		return execute(new HttpGet(url), responseHandler);
+	}
+
+	/**
+	 * Performs a request with the given method and body and reads the response as a String, decoded with
+	 * the charset of the response (UTF-8 if it does not declare one)
+	 *
+	 * @param method HTTP method: GET, POST, PUT, PATCH, DELETE, HEAD...
+	 * @param url url to request
+	 * @param body request body or null. See {@link #execute(String, String, HttpEntity, ResponseHandler)}
+	 * @return the response body, empty if the response has none
+	 * @throws RuntimeException if the call fails or the response status is not 2xx
+	 */
+	public String execute(String method, String url, HttpEntity body) {
+		return execute(method, url, body, STRING_RESPONSE_HANDLER);
+	}
+
+	/**
+	 * Performs a request with the given method and body and hands the response to the given handler.
+	 *
+	 * The body is streamed to the server, never buffered. If the SPNEGO challenge forces the request
+	 * to be sent again, a repeatable body ({@link FileEntity}, {@link ByteBufferEntity}, {@link ByteArrayEntity}...)
+	 * is sent again. A non repeatable one ({@link InputStreamEntity}) is sent with {@code Expect: 100-continue},
+	 * so the server can answer the challenge before any byte of the body is written, and is authenticated
+	 * preemptively if the host is already known to require SPNEGO.
+	 *
+	 * @param method HTTP method: GET, POST, PUT, PATCH, DELETE, HEAD...
+	 * @param url url to request
+	 * @param body request body or null
+	 * @param responseHandler handler of the response
+	 * @return the value returned by the handler
+	 * @throws RuntimeException if the call or the handler fails
+	 */
+	public <T> T execute(String method, String url, HttpEntity body, ResponseHandler<? extends T> responseHandler) {
+		HttpUriRequest request = RequestBuilder.create(method).setUri(url).setEntity(body).build();
+		return execute(request, responseHandler);
+	}
+
+	/**
+	 * Performs the given request and hands the response to the given handler, see
+	 * {@link #execute(String, String, HttpEntity, ResponseHandler)}
+	 *
+	 * @param request request to perform
+	 * @param responseHandler handler of the response
+	 * @return the value returned by the handler
+	 * @throws RuntimeException if the call or the handler fails
+	 */
+	public <T> T execute(final HttpUriRequest request, final ResponseHandler<? extends T> responseHandler) {
+		if (principal == null) {
+			throw new IllegalStateException("The client has no principal, requests must be made on behalf of a registered one");
+		}
+		return execute(principal, request, responseHandler);
+	}
+
+	/**
+	 * Performs GET requests to the given urls and reads the responses as Strings, see
+	 * {@link #executeAll(Collection, ResponseHandler, int, long, ExecutorService)}
+	 *
+	 * @param urls urls to request
+	 * @param parallelism maximum number of requests in flight at the same time
+	 * @param timeoutMillis time for the whole batch, a value <= 0 means no deadline
+	 * @return the outcome of each request, in the order of the urls
+	 */
+	public BatchResult<String> executeAllGet(Collection<String> urls, int parallelism, long timeoutMillis) {
+		List<HttpUriRequest> requests = new ArrayList<HttpUriRequest>(urls.size());
+		for (String url : urls) {
+			requests.add(new HttpGet(url));
+		}
+		return executeAll(requests, STRING_RESPONSE_HANDLER, parallelism, timeoutMillis);
+	}
+
+	/**
+	 * Performs the given requests on threads of its own, at most parallelism at a time, see
+	 * {@link #executeAll(Collection, ResponseHandler, int, long, ExecutorService)}
+	 */
+	public <T> BatchResult<T> executeAll(Collection<? extends HttpUriRequest> requests, ResponseHandler<? extends T> responseHandler,
+			int parallelism, long timeoutMillis) {
+		int threads = Math.max(Math.min(parallelism, requests.size()), 1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "kerberos-batch");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			return executeAll(requests, responseHandler, parallelism, timeoutMillis, executor);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Performs a batch of requests, at most parallelism at a time, and returns the outcome of each one.
+	 *
+	 * The principal logs in at most once for the whole batch and all the requests run under the same Subject,
+	 * so requests to the same host share its service ticket, and on pooled connections. The connection pool
+	 * limits the requests to the same host in flight (see {@link ConnectionPoolSettings#setMaxPerRoute(int)}),
+	 * so it should allow as many as the parallelism.
+	 *
+	 * The deadline applies to the whole batch. When it passes, the requests in flight are aborted and the
+	 * rest are not started, and the outcomes of the finished ones are returned. A failed request does not stop
+	 * the others: its failure is part of its outcome. If the login fails, all the requests fail with it.
+	 *
+	 * @param requests requests to perform
+	 * @param responseHandler handler of each response
+	 * @param parallelism maximum number of requests in flight at the same time
+	 * @param timeoutMillis time for the whole batch, a value <= 0 means no deadline
+	 * @param executor executor to run the requests on, it must have at least parallelism threads available.
+	 * It is not shut down. On Java 21 or later, {@code Executors.newVirtualThreadPerTaskExecutor()} runs each
+	 * request on a virtual thread
+	 * @return the outcome of each request, in the order of the requests
+	 * @throws IllegalStateException if the client has no principal
+	 */
+	public <T> BatchResult<T> executeAll(Collection<? extends HttpUriRequest> requests, final ResponseHandler<? extends T> responseHandler,
+			int parallelism, long timeoutMillis, ExecutorService executor) {
+		if (principal == null) {
+			throw new IllegalStateException("The client has no principal, requests must be made on behalf of a registered one");
+		}
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("The parallelism must be positive: " + parallelism);
+		}
+
+		final List<HttpUriRequest> batch = new ArrayList<HttpUriRequest>(requests);
+		final int size = batch.size();
+		// Compared as a difference of nanoTime values, which may be negative, so there is no sentinel for no deadline
+		final boolean hasDeadline = timeoutMillis > 0;
+		final long deadline = hasDeadline ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+		final AtomicReferenceArray<BatchResult.Outcome<T>> outcomes = new AtomicReferenceArray<BatchResult.Outcome<T>>(size);
+
+		final Subject subject;
+		try {
+			subject = principal.getCredentialHolder().getSubject(listener);
+		} catch (Exception e) {
+			LOG.error("Error logging in " + principal.getUserPrincipal() + " for a batch of " + size + " requests", e);
+			for (int i = 0; i < size; i++) {
+				outcomes.set(i, new BatchResult.Outcome<T>(batch.get(i), BatchResult.Status.FAILED, null, e));
+			}
+			return toBatchResult(batch, outcomes, false);
+		}
+
+		// Each worker takes the next request until there are none left or the batch is cancelled
+		final AtomicInteger nextRequest = new AtomicInteger();
+		final AtomicIntegerArray started = new AtomicIntegerArray(size);
+		final int workers = Math.min(parallelism, size);
+		final CountDownLatch finished = new CountDownLatch(workers);
+		final AtomicBoolean cancelled = new AtomicBoolean();
+		Runnable worker = () -> {
+			try {
+				int i;
+				while (!cancelled.get() && (i = nextRequest.getAndIncrement()) < size) {
+					if (hasDeadline && System.nanoTime() - deadline >= 0) {
+						return;
+					}
+					// Marked before checking the cancellation, so a request the batch did not see as started is not run
+					started.set(i, 1);
+					if (cancelled.get()) {
+						return;
+					}
+					HttpUriRequest request = batch.get(i);
+					BatchResult.Outcome<T> outcome;
+					try {
+						T result = execute(principal, subject, request, responseHandler);
+						outcome = new BatchResult.Outcome<T>(request, BatchResult.Status.SUCCEEDED, result, null);
+					} catch (RuntimeException e) {
+						outcome = new BatchResult.Outcome<T>(request, BatchResult.Status.FAILED, null, e);
+					}
+					// Left as timed out if the deadline passed meanwhile
+					outcomes.compareAndSet(i, null, outcome);
+				}
+			} finally {
+				finished.countDown();
+			}
+		};
+
+		int submitted = 0;
+		try {
+			for (; submitted < workers; submitted++) {
+				executor.execute(worker);
+			}
+		} catch (RejectedExecutionException e) {
+			LOG.warn("The executor only accepted " + submitted + " of " + workers + " batch workers", e);
+			if (submitted == 0) {
+				throw e;
+			}
+			for (int i = submitted; i < workers; i++) {
+				finished.countDown();
+			}
+		}
+
+		boolean completed;
+		try {
+			if (!hasDeadline) {
+				finished.await();
+				completed = true;
+			} else {
+				completed = finished.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			completed = false;
+		}
+
+		if (!completed) {
+			cancelled.set(true);
+			for (int i = 0; i < size; i++) {
+				if (started.get(i) == 1 && outcomes.compareAndSet(i, null, new BatchResult.Outcome<T>(batch.get(i), BatchResult.Status.TIMED_OUT, null, null))) {
+					batch.get(i).abort();
+				}
+			}
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Batch of " + size + " requests not completed within " + timeoutMillis + " ms");
+			}
+		}
+		return toBatchResult(batch, outcomes, !completed);
+	}
+
+	/**
+	 * Fills the outcome of the requests that were not started
+	 */
+	private static <T> BatchResult<T> toBatchResult(List<HttpUriRequest> batch, AtomicReferenceArray<BatchResult.Outcome<T>> outcomes,
+			boolean deadlineExceeded) {
+		List<BatchResult.Outcome<T>> result = new ArrayList<BatchResult.Outcome<T>>(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			BatchResult.Outcome<T> outcome = outcomes.get(i);
+			result.add(outcome != null ? outcome : new BatchResult.Outcome<T>(batch.get(i), BatchResult.Status.NOT_STARTED, null, null));
+		}
+		return new BatchResult<T>(result, deadlineExceeded);
+	}
+
+	/**
+	 * Performs the given request on behalf of a principal, logging it in if needed, and hands the
+	 * response to the given handler
+	 *
+	 * @param principal principal to authenticate the request as
+	 * @param request request to perform
+	 * @param responseHandler handler of the response
+	 * @return the value returned by the handler
+	 * @throws RuntimeException if the call or the handler fails
+	 */
+	<T> T execute(final ClientPrincipal principal, final HttpUriRequest request, final ResponseHandler<? extends T> responseHandler) {
+		return execute(principal, null, request, responseHandler);
+	}
+
+	/**
+	 * Performs the given request on behalf of a principal under the given Subject, or the one of its
+	 * credential holder if null, see {@link #execute(ClientPrincipal, HttpUriRequest, ResponseHandler)}
+	 */
+	private <T> T execute(final ClientPrincipal principal, Subject subject, final HttpUriRequest request, final ResponseHandler<? extends T> responseHandler) {
+
+		final boolean instrumented = listener.isEnabled();
+		final long start = instrumented ? System.nanoTime() : 0;
+		boolean success = false;
+		try {
+			ResponseCache cache = responseCache;
+			T result = cache != null
+					? cache.execute(principal.getUserPrincipal(), request, responseHandler, listener, handler -> executeAs(principal, subject, request, handler))
+					: executeAs(principal, subject, request, responseHandler);
+			success = true;
+			return result;
+		} catch (Exception e) {
+			throw new RuntimeException("Error running call", e);
+		} finally {
+			if (instrumented) {
+				listener.requestCompleted(URIUtils.extractHost(request.getURI()), System.nanoTime() - start, success);
+			}
+		}
+	}
+
+	/**
+	 * Performs the request under the given Subject, or the one of the credential holder of the principal if null
+	 */
+	private <T> T executeAs(final ClientPrincipal principal, Subject subject, final HttpUriRequest request,
+			final ResponseHandler<? extends T> responseHandler) throws LoginException {
+		Subject serviceSubject = subject != null ? subject : principal.getCredentialHolder().getSubject(listener);
+		return Subject.doAs(serviceSubject, new PrivilegedAction<T>() {
+			@SuppressWarnings("synthetic-access")
+			@Override
+			public T run() {
+				return executeRequest(principal, serviceSubject, request, responseHandler);
+			}
+		});
+	}
+
+	private <T> T executeRequest(ClientPrincipal principal, Subject subject, HttpUriRequest request, ResponseHandler<? extends T> responseHandler) {
+
+		try {
+
+			boolean nonRepeatableBody = hasNonRepeatableBody(request);
+			ResilientRequestExecutor resilience = resilientExecutor;
+			if (resilience != null && !nonRepeatableBody && ResilientRequestExecutor.isIdempotent(request)) {
+				// Attempts may run on other threads, so their contexts carry the Subject
+				return resilience.execute(request, subject, () -> createContext(principal, subject), responseHandler);
+			}
+
+			HttpClientContext context = createContext(principal, AuthenticatedConnections.currentPrincipal(), nonRepeatableBody);
+			if (!nonRepeatableBody) {
+				// The client consumes the entity after the handler, releasing the connection back to the pool
+				return httpClient.execute(request, responseHandler, context);
+			}
+
+			// Let the server answer the challenge before the body is sent, it can not be sent twice
+			RequestConfig callerConfig = enableExpectContinue(request, context);
+			try {
+				return httpClient.execute(request, responseHandler, context);
+			} finally {
+				// The request is the caller's, it may be sent again later
+				restoreConfig(request, callerConfig);
+			}
+		} catch (Exception e) {
+			LOG.error("Error executing call to " + request.getURI(), e);
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Creates the context of a request that can run outside of the Subject, which is passed along in the context
+	 */
+	private HttpClientContext createContext(ClientPrincipal principal, Subject subject) {
+		HttpClientContext context = createContext(principal, AuthenticatedConnections.principalOf(subject), false);
+		context.setAttribute(CustomSPNegoScheme.SUBJECT_ATTRIBUTE, subject);
+		return context;
+	}
+
+	private HttpClientContext createContext(ClientPrincipal principal, String userToken, boolean nonRepeatableBody) {
+		HttpClientContext context = HttpClientContext.create();
+		context.setAuthSchemeRegistry(principal.getAuthSchemeRegistry());
+		// Connections are bound to the principal, so it gets back the ones it already authenticated
+		context.setUserToken(userToken);
+		// Hosts requiring SPNEGO are always learned, the header is only sent preemptively if enabled
+		context.setAuthCache(principal.getPreemptiveAuthCache().forRequest(preemptiveAuthentication || nonRepeatableBody));
+		return context;
+	}
+
+	/**
+	 * Sends the request with {@code Expect: 100-continue}. The client replaces the config of the context with the
+	 * one of the request, if it has its own, so the flag is set on both.
+	 *
+	 * @return the config the request had, to put back with {@link #restoreConfig(HttpRequest, RequestConfig)}
+	 */
+	static RequestConfig enableExpectContinue(HttpRequest request, HttpClientContext context) {
+		context.setRequestConfig(RequestConfig.copy(RequestConfig.DEFAULT).setExpectContinueEnabled(true).build());
+		if (!(request instanceof HttpRequestBase)) {
+			return null;
+		}
+		HttpRequestBase requestBase = (HttpRequestBase) request;
+		RequestConfig requestConfig = requestBase.getConfig();
+		requestBase.setConfig(RequestConfig.copy(requestConfig != null ? requestConfig : RequestConfig.DEFAULT)
+				.setExpectContinueEnabled(true).build());
+		return requestConfig;
+	}
+
+	/**
+	 * Puts back the config the request had before {@link #enableExpectContinue(HttpRequest, HttpClientContext)}
+	 */
+	static void restoreConfig(HttpRequest request, RequestConfig config) {
+		if (request instanceof HttpRequestBase) {
+			((HttpRequestBase) request).setConfig(config);
+		}
+	}
+
+	private static boolean hasNonRepeatableBody(HttpRequest request) {
+		if (request instanceof HttpEntityEnclosingRequest) {
+			HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+			return entity != null && !entity.isRepeatable();
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the body of 2xx responses as a String. Other statuses are reported with a {@link HttpResponseException},
+	 * which lets the client consume the entity and keep the connection.
+	 */
+	static class StringResponseHandler implements ResponseHandler<String> {
+
+		@Override
+		public String handleResponse(HttpResponse response) throws IOException {
+			StatusLine statusLine = response.getStatusLine();
+			if (statusLine.getStatusCode() < HttpStatus.SC_OK || statusLine.getStatusCode() >= HttpStatus.SC_MULTIPLE_CHOICES) {
+				String msg = "Error in request, status is " + statusLine.getStatusCode() + ", reason " + statusLine.getReasonPhrase();
+				LOG.error(msg);
+				throw new HttpResponseException(statusLine.getStatusCode(), msg);
+			}
+
+			HttpEntity entity = response.getEntity();
+			return entity != null ? EntityUtils.toString(entity, Consts.UTF_8) : "";
+		}
+	}
+
+	static class NullCredentials implements Credentials {
+
+		@Override
+		public Principal getUserPrincipal() {
+			return null;
+		}
+
+		@Override
+		public String getPassword() {
+			return null;
+		}
+
+	}
+}
+
+//Pure Java 8
+//------------
+//public String executeJ8(final String url, PrivilegedAction<String> httpRequestAction) {
+//
+//	try {
+//
+//		ClientLoginConfig loginConfig = new ClientLoginConfig(keyTabLocation, userPrincipal, loginOptions);
+//		Set<Principal> princ = new HashSet<Principal>(1);
+//		princ.add(new KerberosPrincipal(userPrincipal));
+//		Subject sub = new Subject(false, princ, new HashSet<Object>(), new HashSet<Object>());
+//		LoginContext lc = new LoginContext("", sub, null, loginConfig);
+//		lc.login();
+//		Subject serviceSubject = lc.getSubject();
+//		return Subject.doAs(serviceSubject, httpRequestAction);
+//
+//	} catch (Exception e) {
+//		throw new RuntimeException("Error running call", e);
+//	}
+//}
+//
+//private void callerJ8(String url) {
+//	this.executeJ8(url, () -> { return executeRequest(url); });
+//}
+//	public interface StateChangeListener<T> {
+//	    public T onStateChange();
+//	}
+//
+//	private void addState(StateChangeListener<String> lst) {
+//		System.out.println("yes");
+//	}
+//
+//	private void test() {
+//		this.addState(() -> { return "Yes"; });
+//	}
@@ -0,0 +1,276 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Makes requests on behalf of many user principals through a single {@link KerberosHttpClient}, so they
+ * all share one connection pool instead of each principal having its own client.
+ *
+ * Principals are registered with their keytab and service naming. The state of a principal (its Subject,
+ * TGT and service tickets, see {@link ClientPrincipal}) is created on its first request and kept while it
+ * is in use. To keep memory bounded, principals idle for longer than the idle timeout are evicted by a
+ * background thread, and the least recently used one is evicted when there are more active principals
+ * than the maximum. An evicted principal stays registered, it just logs in again on its next request.
+ *
+ * Looking up an active principal does not take any lock. Connections are bound to the principal that
+ * authenticated them, so they are never reused by another principal.
+ */
+public class KerberosPrincipalRegistry implements Closeable {
+
+	private static final Log LOG = LogFactory.getLog(KerberosPrincipalRegistry.class);
+
+	/** Default maximum number of principals whose state is kept at the same time */
+	public static final int DEFAULT_MAX_ACTIVE_PRINCIPALS = 1000;
+
+	/** Default time a principal can go without requests before its state is evicted */
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+	private final KerberosHttpClient httpClient;
+	private final int maxActivePrincipals;
+	private final long idleTimeoutMillis;
+	private final ConcurrentMap<String, Registration> registrations = new ConcurrentHashMap<String, Registration>();
+	private final ConcurrentMap<String, ClientPrincipal> activePrincipals = new ConcurrentHashMap<String, ClientPrincipal>();
+	private final ScheduledExecutorService evictor;
+
+	private volatile KdcHealthTracker kdcHealthTracker;
+
+	public KerberosPrincipalRegistry() {
+		this(new ConnectionPoolSettings(), DEFAULT_MAX_ACTIVE_PRINCIPALS, DEFAULT_IDLE_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param poolSettings settings of the connection pool shared by all the principals
+	 * @param maxActivePrincipals maximum number of principals whose state is kept
+	 * @param idleTimeoutMillis time a principal can go without requests before being evicted, a value <= 0 means
+	 * principals are only evicted when there are too many
+	 */
+	public KerberosPrincipalRegistry(ConnectionPoolSettings poolSettings, int maxActivePrincipals, long idleTimeoutMillis) {
+		if (maxActivePrincipals <= 0) {
+			throw new IllegalArgumentException("The maximum number of active principals must be positive: " + maxActivePrincipals);
+		}
+		this.maxActivePrincipals = maxActivePrincipals;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.httpClient = new KerberosHttpClient(poolSettings);
+		this.evictor = idleTimeoutMillis > 0 ? startEvictor() : null;
+	}
+
+	private ScheduledExecutorService startEvictor() {
+		long period = Math.max(idleTimeoutMillis / 2, 1000);
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "kerberos-principal-evictor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::evictIdlePrincipals, period, period, TimeUnit.MILLISECONDS);
+		return scheduler;
+	}
+
+	/**
+	 * Registers a principal, replacing its previous registration if there was one
+	 *
+	 * @param keytabLocation keytab of the principal, or null to use the ticket cache
+	 * @param userPrincipal principal to make the requests as
+	 * @param servicePrincipal principal of the service, for {@link ServiceNameType#USER_BASED} names
+	 * @param serviceNameType how the name of the service is built
+	 */
+	public void register(String keytabLocation, String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType) {
+		registrations.put(userPrincipal, new Registration(keytabLocation, servicePrincipal, serviceNameType));
+		// Drop the state built from the previous registration, if any
+		activePrincipals.remove(userPrincipal);
+	}
+
+	/**
+	 * Removes a principal and its state, with its cached responses
+	 */
+	public void unregister(String userPrincipal) {
+		registrations.remove(userPrincipal);
+		activePrincipals.remove(userPrincipal);
+		ResponseCache responseCache = httpClient.getResponseCache();
+		if (responseCache != null) {
+			responseCache.invalidate(userPrincipal);
+		}
+	}
+
+	public boolean isRegistered(String userPrincipal) {
+		return registrations.containsKey(userPrincipal);
+	}
+
+	/**
+	 * Performs a GET request on behalf of a principal and reads the response as a String,
+	 * see {@link KerberosHttpClient#executeGet(String)}
+	 *
+	 * @param userPrincipal registered principal to make the request as
+	 * @param url url to request
+	 * @return the response body
+	 * @throws IllegalArgumentException if the principal is not registered
+	 * @throws RuntimeException if the call fails or the response status is not 2xx
+	 */
+	public String executeGet(String userPrincipal, String url) {
+		return execute(userPrincipal, new HttpGet(url), KerberosHttpClient.STRING_RESPONSE_HANDLER);
+	}
+
+	/**
+	 * Performs the given request on behalf of a principal and hands the response to the given handler,
+	 * see {@link KerberosHttpClient#execute(HttpUriRequest, ResponseHandler)}
+	 *
+	 * @param userPrincipal registered principal to make the request as
+	 * @param request request to perform
+	 * @param responseHandler handler of the response
+	 * @return the value returned by the handler
+	 * @throws IllegalArgumentException if the principal is not registered
+	 * @throws RuntimeException if the call or the handler fails
+	 */
+	public <T> T execute(String userPrincipal, HttpUriRequest request, ResponseHandler<? extends T> responseHandler) {
+		return httpClient.execute(getPrincipal(userPrincipal), request, responseHandler);
+	}
+
+	/**
+	 * Returns the state of a registered principal, creating it if it is not active
+	 *
+	 * @throws IllegalArgumentException if the principal is not registered
+	 */
+	public ClientPrincipal getPrincipal(String userPrincipal) {
+		ClientPrincipal principal = activePrincipals.get(userPrincipal);
+		if (principal == null) {
+			principal = activate(userPrincipal);
+		}
+		principal.touch();
+		return principal;
+	}
+
+	private ClientPrincipal activate(String userPrincipal) {
+		final Registration registration = registrations.get(userPrincipal);
+		if (registration == null) {
+			throw new IllegalArgumentException("Principal not registered: " + userPrincipal);
+		}
+
+		ClientPrincipal principal = activePrincipals.computeIfAbsent(userPrincipal, name -> {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Activating principal " + name);
+			}
+			KerberosCredentialHolder credentialHolder = new KerberosCredentialHolder(registration.keytabLocation, name);
+			credentialHolder.setKdcHealthTracker(kdcHealthTracker);
+			return httpClient.createPrincipal(credentialHolder, registration.servicePrincipal, registration.serviceNameType);
+		});
+
+		if (activePrincipals.size() > maxActivePrincipals) {
+			evictLeastRecentlyUsed(principal);
+		}
+		return principal;
+	}
+
+	/**
+	 * Evicts the principals that were used longest ago until the maximum is honored again
+	 *
+	 * @param keep principal that is about to be used, never evicted
+	 */
+	private void evictLeastRecentlyUsed(ClientPrincipal keep) {
+		while (activePrincipals.size() > maxActivePrincipals) {
+			Map.Entry<String, ClientPrincipal> eldest = null;
+			for (Map.Entry<String, ClientPrincipal> entry : activePrincipals.entrySet()) {
+				if (entry.getValue() != keep
+						&& (eldest == null || entry.getValue().getLastAccessTime() < eldest.getValue().getLastAccessTime())) {
+					eldest = entry;
+				}
+			}
+			if (eldest == null) {
+				return;
+			}
+			if (activePrincipals.remove(eldest.getKey(), eldest.getValue()) && LOG.isDebugEnabled()) {
+				LOG.debug("Evicted least recently used principal " + eldest.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Evicts the principals without requests during the idle timeout
+	 */
+	void evictIdlePrincipals() {
+		long threshold = System.currentTimeMillis() - idleTimeoutMillis;
+		for (Map.Entry<String, ClientPrincipal> entry : activePrincipals.entrySet()) {
+			if (entry.getValue().getLastAccessTime() < threshold
+					&& activePrincipals.remove(entry.getKey(), entry.getValue()) && LOG.isDebugEnabled()) {
+				LOG.debug("Evicted idle principal " + entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Starts renewing the tickets of the active principals in a background thread,
+	 * see {@link KerberosHttpClient#enableTicketRenewal(TicketRenewalSettings)}
+	 */
+	public void enableTicketRenewal(TicketRenewalSettings settings) {
+		httpClient.enableTicketRenewal(settings, activePrincipals.values());
+	}
+
+	public void disableTicketRenewal() {
+		httpClient.disableTicketRenewal();
+	}
+
+	/**
+	 * Makes the logins of all the principals read the order of the KDCs kept by the tracker,
+	 * see {@link KerberosCredentialHolder#setKdcHealthTracker(KdcHealthTracker)}. Only one tracker can be open in
+	 * the JVM, the registry shares it with the other clients of the realm.
+	 *
+	 * @param kdcHealthTracker tracker of the KDCs of the realm of the principals, null to stop using it
+	 */
+	public void setKdcHealthTracker(KdcHealthTracker kdcHealthTracker) {
+		this.kdcHealthTracker = kdcHealthTracker;
+		for (ClientPrincipal principal : activePrincipals.values()) {
+			principal.getCredentialHolder().setKdcHealthTracker(kdcHealthTracker);
+		}
+	}
+
+	/**
+	 * Number of principals whose state is currently kept
+	 */
+	public int getActivePrincipalCount() {
+		return activePrincipals.size();
+	}
+
+	/**
+	 * Client shared by all the principals, to register listeners, enable preemptive authentication
+	 * or read the statistics of the connection pool
+	 */
+	public KerberosHttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	/**
+	 * Stops the background evictor and ticket renewal and closes the pooled connections
+	 */
+	@Override
+	public void close() throws IOException {
+		if (evictor != null) {
+			evictor.shutdownNow();
+		}
+		activePrincipals.clear();
+		httpClient.close();
+	}
+
+	private static class Registration {
+
+		private final String keytabLocation;
+		private final String servicePrincipal;
+		private final ServiceNameType serviceNameType;
+
+		Registration(String keytabLocation, String servicePrincipal, ServiceNameType serviceNameType) {
+			this.keytabLocation = keytabLocation;
+			this.servicePrincipal = servicePrincipal;
+			this.serviceNameType = serviceNameType;
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * HTTP library a {@link KerberosTransportClient} sends its requests with. Transports only move requests and
+ * responses: the SPNEGO tokens are generated by the client with its {@link SpnegoAuthenticator} and sent as
+ * one more header, so the same login and service tickets work over any of them.
+ *
+ * Implementations are {@link HttpClientTransport}, HTTP/1.1 on Apache HttpClient, and {@link JdkHttpTransport},
+ * HTTP/2 on the HttpClient of the JDK.
+ */
+public interface KerberosTransport extends Closeable {
+
+	/**
+	 * Sends the request as is and returns the response, whatever its status
+	 *
+	 * @param request request to send
+	 * @return the response, which must be closed to release its connection or stream
+	 * @throws IOException if the request can not be sent or the response head can not be read
+	 */
+	TransportResponse execute(TransportRequest request) throws IOException;
+}
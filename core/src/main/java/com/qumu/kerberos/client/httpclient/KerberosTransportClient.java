@@ -0,0 +1,230 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.security.auth.Subject;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Consts;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Client making SPNEGO authenticated calls over any {@link KerberosTransport}, i.e. HTTP/2 with a
+ * {@link JdkHttpTransport}. The tokens are generated by a {@link SpnegoAuthenticator}, with the same
+ * {@link ServiceNameType} naming and service ticket cache as {@link KerberosHttpClient}, and sent as the
+ * Authorization header of each request.
+ *
+ * Authentication is per request, not per connection: HTTP/2 does not allow authenticating a connection,
+ * as its streams are shared by all the requests. A request is first sent without a token and, when the
+ * server answers with a Negotiate challenge, sent again with one. With preemptive authentication, requests
+ * to servers that already challenged carry the token from the start, saving that round trip.
+ *
+ * The {@link KerberosCredentialHolder} can be shared with the other clients, so all of them use the same
+ * login and service tickets.
+ */
+public class KerberosTransportClient implements Closeable {
+
+	private static final Log LOG = LogFactory.getLog(KerberosTransportClient.class);
+
+	private final KerberosCredentialHolder credentialHolder;
+	private final SpnegoAuthenticator authenticator;
+	private final KerberosTransport transport;
+	private final Set<String> negotiateServers = ConcurrentHashMap.newKeySet();
+	private volatile boolean preemptiveAuthentication;
+	private final CompositeClientListener listener = new CompositeClientListener();
+
+	public KerberosTransportClient(String keytabLocation, String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType,
+			KerberosTransport transport) {
+		this(new KerberosCredentialHolder(keytabLocation, userPrincipal), servicePrincipal, serviceNameType, transport);
+	}
+
+	/**
+	 * Client logged in with the given holder, which can be shared with other clients
+	 *
+	 * @param transport transport the requests are sent with, closed with the client
+	 */
+	public KerberosTransportClient(KerberosCredentialHolder credentialHolder, String servicePrincipal, ServiceNameType serviceNameType,
+			KerberosTransport transport) {
+		this.credentialHolder = credentialHolder;
+		this.transport = transport;
+		this.authenticator = new SpnegoAuthenticator(credentialHolder.getUserPrincipal(), servicePrincipal, serviceNameType);
+		this.authenticator.setListener(listener);
+		this.authenticator.getTicketCache().setCredentialCache(credentialHolder.getCredentialCache());
+	}
+
+	/**
+	 * Enables or disables preemptive authentication: requests to servers that already answered with a Negotiate
+	 * challenge send the token in the first attempt. Disabled by default.
+	 */
+	public void setPreemptiveAuthentication(boolean preemptiveAuthentication) {
+		this.preemptiveAuthentication = preemptiveAuthentication;
+	}
+
+	public boolean isPreemptiveAuthentication() {
+		return preemptiveAuthentication;
+	}
+
+	/**
+	 * Registers a listener of the timings and counters of the requests, see {@link KerberosHttpClient#addListener(KerberosClientListener)}.
+	 * The body reads are not reported, they are up to the callers.
+	 */
+	public void addListener(KerberosClientListener listener) {
+		this.listener.add(listener);
+	}
+
+	public void removeListener(KerberosClientListener listener) {
+		this.listener.remove(listener);
+	}
+
+	public KerberosCredentialHolder getCredentialHolder() {
+		return credentialHolder;
+	}
+
+	/**
+	 * Generator of the tokens of the requests, its {@link SpnegoAuthenticator#enableTokenPool(TokenPoolSettings)}
+	 * generates them ahead of time
+	 */
+	public SpnegoAuthenticator getAuthenticator() {
+		return authenticator;
+	}
+
+	public KerberosTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Performs a GET request and reads the response as a String, decoded with the charset of the response
+	 * (UTF-8 if it does not declare one)
+	 *
+	 * @param url url to request
+	 * @return the response body
+	 * @throws RuntimeException if the call fails or the response status is not 2xx
+	 */
+	public String executeGet(String url) {
+		try (TransportResponse response = execute(new TransportRequest("GET", url))) {
+			int statusCode = response.getStatusCode();
+			if (statusCode < HttpStatus.SC_OK || statusCode >= HttpStatus.SC_MULTIPLE_CHOICES) {
+				String msg = "Error in request, status is " + statusCode;
+				LOG.error(msg);
+				throw new HttpResponseException(statusCode, msg);
+			}
+			return new String(read(response.getBody()), charset(response));
+		} catch (IOException e) {
+			throw new RuntimeException("Error running call", e);
+		}
+	}
+
+	/**
+	 * Performs the request on behalf of the user principal, logging it in if needed. The Authorization header
+	 * is set on the request while it is sent, and removed afterwards. A request that already has one is sent
+	 * with it, without a token.
+	 *
+	 * @param request request to perform
+	 * @return the response, whatever its status, which must be closed
+	 * @throws RuntimeException if the login, the token generation or the call fail
+	 */
+	public TransportResponse execute(TransportRequest request) {
+		URI uri = request.getUri();
+		HttpHost target = new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme());
+		String authServer = uri.getHost();
+		final boolean instrumented = listener.isEnabled();
+		final long start = instrumented ? System.nanoTime() : 0;
+		boolean success = false;
+		// An Authorization header set by the caller is sent as is, and left on the request
+		boolean authorizationAdded = false;
+		try {
+			Subject subject = credentialHolder.getSubject(listener);
+			boolean callerAuthorization = request.getHeaders().containsKey(HttpHeaders.AUTHORIZATION);
+			if (preemptiveAuthentication && !callerAuthorization && negotiateServers.contains(authServer)) {
+				request.setHeader(HttpHeaders.AUTHORIZATION, authenticator.generateAuthorization(authServer, subject));
+				authorizationAdded = true;
+			}
+			TransportResponse response = send(target, request);
+			if (response.getStatusCode() == HttpStatus.SC_UNAUTHORIZED && isNegotiateChallenge(response)
+					&& !callerAuthorization && !authorizationAdded) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Negotiate challenge from " + target + ", sending the request again with a token");
+				}
+				if (instrumented) {
+					listener.challengeReceived(target);
+				}
+				negotiateServers.add(authServer);
+				response.close();
+				request.setHeader(HttpHeaders.AUTHORIZATION, authenticator.generateAuthorization(authServer, subject));
+				authorizationAdded = true;
+				response = send(target, request);
+			}
+			success = true;
+			return response;
+		} catch (Exception e) {
+			LOG.error("Error executing call to " + uri, e);
+			throw new RuntimeException("Error running call", e);
+		} finally {
+			if (authorizationAdded) {
+				request.setHeader(HttpHeaders.AUTHORIZATION, null);
+			}
+			if (instrumented) {
+				listener.requestCompleted(target, System.nanoTime() - start, success);
+			}
+		}
+	}
+
+	private TransportResponse send(HttpHost target, TransportRequest request) throws IOException {
+		final boolean instrumented = listener.isEnabled();
+		final long start = instrumented ? System.nanoTime() : 0;
+		TransportResponse response = transport.execute(request);
+		if (instrumented) {
+			listener.responseReceived(target, response.getStatusCode(), System.nanoTime() - start);
+		}
+		return response;
+	}
+
+	private static boolean isNegotiateChallenge(TransportResponse response) {
+		for (String challenge : response.getHeaders(HttpHeaders.WWW_AUTHENTICATE)) {
+			if (challenge.regionMatches(true, 0, SpnegoAuthenticator.NEGOTIATE, 0, SpnegoAuthenticator.NEGOTIATE.length())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Charset charset(TransportResponse response) {
+		String contentType = response.getFirstHeader(HttpHeaders.CONTENT_TYPE);
+		try {
+			Charset charset = contentType != null ? ContentType.parse(contentType).getCharset() : null;
+			return charset != null ? charset : Consts.UTF_8;
+		} catch (RuntimeException e) {
+			return Consts.UTF_8;
+		}
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int read; (read = in.read(buffer)) != -1;) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Stops the token pool of the authenticator, if enabled, and closes the transport
+	 */
+	@Override
+	public void close() throws IOException {
+		authenticator.disableTokenPool();
+		transport.close();
+	}
+}
@@ -0,0 +1,152 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Records the events of the Kerberos clients as Micrometer meters:
+ *
+ * - {@code kerberos.login}: timer of the logins against the KDC, tagged with the outcome
+ * - {@code kerberos.ticket.renewal}: timer of the background renewals, tagged with the ticket (tgt or service) and outcome
+ * - {@code kerberos.ticket.cache}: counter of the service ticket cache lookups, tagged with the result (hit or miss)
+ * - {@code kerberos.token}: timer of the SPNEGO token generations, tagged with the ticket cache result and outcome
+ * - {@code kerberos.token.pool}: counter of the tokens asked to the token pool, tagged with the result (hit or miss)
+ * - {@code kerberos.token.pool.expired}: counter of the tokens of the pool discarded without being used
+ * - {@code kerberos.challenges}: counter of the 401 challenges received, tagged with the host
+ * - {@code kerberos.http.responses}: timer until the response head of each attempt, tagged with host and status
+ * - {@code kerberos.http.body.bytes} and {@code kerberos.http.body}: size and read time of the response bodies
+ * - {@code kerberos.http.cache}: counter of the GET requests through the response cache, tagged with host and result
+ * (hit, revalidated or miss)
+ * - {@code kerberos.http.retries}: counter of the retried attempts, tagged with host and reason (connect or status-503)
+ * - {@code kerberos.http.hedges}: counter of the hedged requests, tagged with host and winner (first or hedge)
+ * - {@code kerberos.http.requests}: timer of the whole requests, tagged with host and outcome
+ *
+ * Micrometer is an optional dependency, it must be in the classpath to use this listener.
+ */
+public class MicrometerClientListener implements KerberosClientListener {
+
+	private static final String OUTCOME = "outcome";
+	private static final String HOST = "host";
+
+	private final MeterRegistry registry;
+
+	public MicrometerClientListener(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	public void loginCompleted(String principal, long durationNanos, boolean success) {
+		Timer.builder("kerberos.login")
+				.tag(OUTCOME, outcome(success))
+				.register(registry)
+				.record(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void ticketRenewed(String principal, String service, long durationNanos, boolean success) {
+		Timer.builder("kerberos.ticket.renewal")
+				.tag("ticket", service == null ? "tgt" : "service")
+				.tag(OUTCOME, outcome(success))
+				.register(registry)
+				.record(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void ticketCacheHit(String authServer) {
+		Counter.builder("kerberos.ticket.cache").tag("result", "hit").register(registry).increment();
+	}
+
+	@Override
+	public void ticketCacheMiss(String authServer) {
+		Counter.builder("kerberos.ticket.cache").tag("result", "miss").register(registry).increment();
+	}
+
+	@Override
+	public void tokenGenerated(String authServer, long durationNanos, boolean ticketCacheHit, boolean success) {
+		Timer.builder("kerberos.token")
+				.tag("ticket", ticketCacheHit ? "cached" : "requested")
+				.tag(OUTCOME, outcome(success))
+				.register(registry)
+				.record(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void tokenPoolTaken(String authServer, boolean hit) {
+		Counter.builder("kerberos.token.pool").tag("result", hit ? "hit" : "miss").register(registry).increment();
+	}
+
+	@Override
+	public void tokensExpired(String authServer, int count) {
+		Counter.builder("kerberos.token.pool.expired").register(registry).increment(count);
+	}
+
+	@Override
+	public void challengeReceived(HttpHost target) {
+		Counter.builder("kerberos.challenges").tag(HOST, host(target)).register(registry).increment();
+	}
+
+	@Override
+	public void responseReceived(HttpHost target, int statusCode, long durationNanos) {
+		Timer.builder("kerberos.http.responses")
+				.tag(HOST, host(target))
+				.tag("status", String.valueOf(statusCode))
+				.register(registry)
+				.record(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void bodyRead(HttpHost target, long bytes, long durationNanos) {
+		DistributionSummary.builder("kerberos.http.body.bytes")
+				.baseUnit("bytes")
+				.tag(HOST, host(target))
+				.register(registry)
+				.record(bytes);
+		Timer.builder("kerberos.http.body")
+				.tag(HOST, host(target))
+				.register(registry)
+				.record(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void responseCacheHit(HttpHost target, boolean revalidated) {
+		Counter.builder("kerberos.http.cache").tag(HOST, host(target)).tag("result", revalidated ? "revalidated" : "hit").register(registry).increment();
+	}
+
+	@Override
+	public void responseCacheMiss(HttpHost target) {
+		Counter.builder("kerberos.http.cache").tag(HOST, host(target)).tag("result", "miss").register(registry).increment();
+	}
+
+	@Override
+	public void requestRetried(HttpHost target, String reason) {
+		Counter.builder("kerberos.http.retries").tag(HOST, host(target)).tag("reason", reason).register(registry).increment();
+	}
+
+	@Override
+	public void requestHedged(HttpHost target, boolean hedgeWon) {
+		Counter.builder("kerberos.http.hedges").tag(HOST, host(target)).tag("winner", hedgeWon ? "hedge" : "first").register(registry).increment();
+	}
+
+	@Override
+	public void requestCompleted(HttpHost target, long durationNanos, boolean success) {
+		Timer.builder("kerberos.http.requests")
+				.tag(HOST, host(target))
+				.tag(OUTCOME, outcome(success))
+				.register(registry)
+				.record(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private static String outcome(boolean success) {
+		return success ? "success" : "failure";
+	}
+
+	private static String host(HttpHost target) {
+		return target != null ? target.toHostString() : "unknown";
+	}
+}
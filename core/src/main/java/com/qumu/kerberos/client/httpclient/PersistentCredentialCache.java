@@ -0,0 +1,358 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Credential cache on disk in the MIT ccache format (version 4, the one of {@code klist} and {@code kinit}),
+ * so a restarted client can reuse the TGT and service tickets obtained before instead of asking the KDC again.
+ *
+ * The TGT is written after every login and the service tickets when they are obtained or renewed. The file is
+ * written to a temporary file that only the owner can read and write, which then replaces the cache file in a
+ * single move, so a reader never finds a half written cache.
+ *
+ * On the first login of a {@link KerberosCredentialHolder} the cache is read: if it has a TGT of the principal
+ * valid for longer than the refresh window, the login takes it from the cache (see {@link ClientLoginConfig})
+ * instead of going to the KDC, and the service tickets still valid are put in the Subject, where GSS-API finds
+ * them before asking for new ones.
+ *
+ * Each principal needs a cache file of its own.
+ */
+public class PersistentCredentialCache {
+
+	private static final Log LOG = LogFactory.getLog(PersistentCredentialCache.class);
+
+	private static final int VERSION = 0x0504;
+	private static final String CONFIG_REALM = "X-CACHECONF:";
+	private static final int ADDRESS_IPV4 = 2;
+	private static final int ADDRESS_IPV6 = 24;
+	private static final int FLAG_COUNT = 32;
+
+	private final Path location;
+
+	// Tickets written last time, to skip writing the same ones again
+	private Set<KerberosTicket> stored = Collections.emptySet();
+
+	/**
+	 * @param location path of the cache file, its directory is created if it does not exist
+	 */
+	public PersistentCredentialCache(String location) {
+		this.location = Paths.get(location).toAbsolutePath();
+	}
+
+	public String getLocation() {
+		return location.toString();
+	}
+
+	/**
+	 * Reads the tickets of a principal from the cache
+	 *
+	 * @param userPrincipal principal the tickets were issued to, or null for the default principal of the cache
+	 * @param validUntil time the tickets must be valid until, in milliseconds since the epoch
+	 * @return the tickets valid until then, empty if there is no cache or it can not be read
+	 */
+	List<KerberosTicket> load(String userPrincipal, long validUntil) {
+		List<KerberosTicket> tickets = new ArrayList<KerberosTicket>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(location)))) {
+			KerberosPrincipal defaultPrincipal = readCache(in, tickets);
+			String client = userPrincipal != null ? new KerberosPrincipal(userPrincipal).getName() : defaultPrincipal.getName();
+
+			List<KerberosTicket> valid = new ArrayList<KerberosTicket>();
+			for (KerberosTicket ticket : tickets) {
+				if (client.equals(ticket.getClient().getName()) && ticket.getEndTime().getTime() > validUntil) {
+					valid.add(ticket);
+				}
+			}
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Read " + valid.size() + " valid tickets of " + client + " out of " + tickets.size() + " from " + location);
+			}
+			return valid;
+		} catch (NoSuchFileException e) {
+			return Collections.emptyList();
+		} catch (IOException | RuntimeException e) {
+			LOG.warn("Error reading the credential cache " + location + ", logging in to the KDC", e);
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Writes the current tickets of the Subject to the cache, replacing its content. Nothing is written if the
+	 * tickets did not change since the last write.
+	 *
+	 * Errors are logged and not thrown, the cache is only an optimization.
+	 */
+	synchronized void store(Subject subject) {
+		long now = System.currentTimeMillis();
+		Set<KerberosTicket> tickets = Collections.newSetFromMap(new IdentityHashMap<KerberosTicket, Boolean>());
+		KerberosTicket tgt = null;
+		synchronized (subject.getPrivateCredentials()) {
+			for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+				if (!ticket.isDestroyed() && ticket.getEndTime() != null && ticket.getEndTime().getTime() > now) {
+					tickets.add(ticket);
+					if (tgt == null && KerberosCredentialHolder.isTgt(ticket)) {
+						tgt = ticket;
+					}
+				}
+			}
+		}
+		if (tickets.isEmpty() || tickets.equals(stored)) {
+			return;
+		}
+
+		Set<KerberosPrincipal> principals = subject.getPrincipals(KerberosPrincipal.class);
+		KerberosPrincipal defaultPrincipal = !principals.isEmpty() ? principals.iterator().next()
+				: (tgt != null ? tgt : tickets.iterator().next()).getClient();
+		try {
+			write(defaultPrincipal, tgt, tickets);
+			stored = tickets;
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Wrote " + tickets.size() + " tickets of " + defaultPrincipal + " to " + location);
+			}
+		} catch (IOException | RuntimeException e) {
+			LOG.warn("Error writing the credential cache " + location, e);
+		}
+	}
+
+	/**
+	 * Writes the cache to a temporary file readable only by its owner, then moves it in place of the cache
+	 */
+	private void write(KerberosPrincipal defaultPrincipal, KerberosTicket tgt, Set<KerberosTicket> tickets) throws IOException {
+		Path directory = location.getParent();
+		boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+		if (directory != null && !Files.isDirectory(directory)) {
+			if (posix) {
+				Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+			} else {
+				Files.createDirectories(directory);
+			}
+		}
+
+		FileAttribute<?>[] attributes = posix
+				? new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")) }
+				: new FileAttribute<?>[0];
+		Path temporary = Files.createTempFile(directory, location.getFileName().toString(), ".tmp", attributes);
+		try {
+			try (OutputStream file = Files.newOutputStream(temporary);
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+				out.writeShort(VERSION);
+				// No header tags
+				out.writeShort(0);
+				writePrincipal(out, defaultPrincipal);
+				// The TGT first, as kinit does
+				if (tgt != null) {
+					writeTicket(out, tgt);
+				}
+				for (KerberosTicket ticket : tickets) {
+					if (ticket != tgt) {
+						writeTicket(out, ticket);
+					}
+				}
+			}
+			try {
+				Files.move(temporary, location, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, location, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	private static void writePrincipal(DataOutputStream out, KerberosPrincipal principal) throws IOException {
+		String name = principal.getName();
+		int at = name.lastIndexOf('@');
+		String[] components = (at >= 0 ? name.substring(0, at) : name).split("/");
+		out.writeInt(principal.getNameType());
+		out.writeInt(components.length);
+		writeData(out, principal.getRealm().getBytes(StandardCharsets.UTF_8));
+		for (String component : components) {
+			writeData(out, component.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static void writeTicket(DataOutputStream out, KerberosTicket ticket) throws IOException {
+		writePrincipal(out, ticket.getClient());
+		writePrincipal(out, ticket.getServer());
+		out.writeShort(ticket.getSessionKeyType());
+		writeData(out, ticket.getSessionKey().getEncoded());
+		Date startTime = ticket.getStartTime();
+		out.writeInt(seconds(ticket.getAuthTime() != null ? ticket.getAuthTime() : startTime));
+		out.writeInt(seconds(startTime));
+		out.writeInt(seconds(ticket.getEndTime()));
+		out.writeInt(seconds(ticket.getRenewTill()));
+		// Not a user to user ticket
+		out.writeByte(0);
+		out.writeInt(flags(ticket.getFlags()));
+
+		InetAddress[] addresses = ticket.getClientAddresses();
+		out.writeInt(addresses != null ? addresses.length : 0);
+		if (addresses != null) {
+			for (InetAddress address : addresses) {
+				out.writeShort(address instanceof Inet6Address ? ADDRESS_IPV6 : ADDRESS_IPV4);
+				writeData(out, address.getAddress());
+			}
+		}
+		// No authorization data
+		out.writeInt(0);
+		writeData(out, ticket.getEncoded());
+		// No second ticket
+		writeData(out, new byte[0]);
+	}
+
+	private static void writeData(DataOutputStream out, byte[] data) throws IOException {
+		out.writeInt(data.length);
+		out.write(data);
+	}
+
+	private static int seconds(Date date) {
+		return date != null ? (int) (date.getTime() / 1000) : 0;
+	}
+
+	/**
+	 * Flags as a bit field, the first flag in the most significant bit
+	 */
+	private static int flags(boolean[] flags) {
+		int bits = 0;
+		for (int i = 0; flags != null && i < flags.length && i < FLAG_COUNT; i++) {
+			if (flags[i]) {
+				bits |= 1 << (FLAG_COUNT - 1 - i);
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Reads all the tickets of the cache, skipping the configuration entries
+	 *
+	 * @return the default principal of the cache
+	 */
+	private static KerberosPrincipal readCache(DataInputStream in, List<KerberosTicket> tickets) throws IOException {
+		int version = in.readUnsignedShort();
+		if (version != VERSION) {
+			throw new IOException("Unsupported credential cache version: " + Integer.toHexString(version));
+		}
+		// Header tags, i.e. the time offset of the KDC
+		in.readFully(new byte[in.readUnsignedShort()]);
+		KerberosPrincipal defaultPrincipal = readPrincipal(in);
+
+		while (true) {
+			KerberosPrincipal client;
+			try {
+				client = readPrincipal(in);
+			} catch (EOFException e) {
+				return defaultPrincipal;
+			}
+			KerberosPrincipal server = readPrincipal(in);
+			int keyType = in.readUnsignedShort();
+			byte[] sessionKey = readData(in);
+			Date authTime = date(in.readInt());
+			Date startTime = date(in.readInt());
+			Date endTime = date(in.readInt());
+			Date renewTill = date(in.readInt());
+			boolean userToUser = in.readByte() != 0;
+			boolean[] flags = flags(in.readInt());
+
+			int addressCount = in.readInt();
+			List<InetAddress> addresses = new ArrayList<InetAddress>();
+			for (int i = 0; i < addressCount; i++) {
+				int type = in.readUnsignedShort();
+				byte[] address = readData(in);
+				if (type == ADDRESS_IPV4 || type == ADDRESS_IPV6) {
+					addresses.add(InetAddress.getByAddress(address));
+				}
+			}
+			int authDataCount = in.readInt();
+			for (int i = 0; i < authDataCount; i++) {
+				in.readUnsignedShort();
+				readData(in);
+			}
+			byte[] ticket = readData(in);
+			readData(in);
+
+			if (server == null || endTime == null || userToUser || ticket.length == 0) {
+				// Configuration entries and tickets that can not be used on their own
+				continue;
+			}
+			tickets.add(new KerberosTicket(ticket, client, server, sessionKey, keyType, flags,
+					authTime != null ? authTime : (startTime != null ? startTime : endTime), startTime, endTime, renewTill,
+					addresses.isEmpty() ? null : addresses.toArray(new InetAddress[addresses.size()])));
+		}
+	}
+
+	/**
+	 * @return the principal, or null if it is a configuration entry of the cache
+	 */
+	private static KerberosPrincipal readPrincipal(DataInputStream in) throws IOException {
+		int nameType = in.readInt();
+		int componentCount = in.readInt();
+		String realm = new String(readData(in), StandardCharsets.UTF_8);
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i < componentCount; i++) {
+			if (i > 0) {
+				name.append('/');
+			}
+			name.append(new String(readData(in), StandardCharsets.UTF_8));
+		}
+		if (CONFIG_REALM.equals(realm)) {
+			return null;
+		}
+		return new KerberosPrincipal(name + "@" + realm, nameType);
+	}
+
+	private static byte[] readData(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > 1024 * 1024) {
+			throw new IOException("Invalid length in the credential cache: " + length);
+		}
+		byte[] data = new byte[length];
+		in.readFully(data);
+		return data;
+	}
+
+	private static Date date(int seconds) {
+		return seconds != 0 ? new Date((seconds & 0xffffffffL) * 1000) : null;
+	}
+
+	private static boolean[] flags(int bits) {
+		boolean[] flags = new boolean[FLAG_COUNT];
+		for (int i = 0; i < FLAG_COUNT; i++) {
+			flags[i] = (bits & (1 << (FLAG_COUNT - 1 - i))) != 0;
+		}
+		return flags;
+	}
+
+	@Override
+	public String toString() {
+		return "PersistentCredentialCache [location=" + location + "]";
+	}
+}
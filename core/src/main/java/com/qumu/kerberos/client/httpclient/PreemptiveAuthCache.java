@@ -0,0 +1,119 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScheme;
+import org.apache.http.client.AuthCache;
+import org.apache.http.client.config.AuthSchemes;
+import org.apache.http.conn.SchemePortResolver;
+import org.apache.http.conn.UnsupportedSchemeException;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+
+/**
+ * {@link AuthCache} used to send the Negotiate header in the first attempt of a request
+ * to hosts already known to require SPNEGO, saving the round trip of the 401 challenge.
+ *
+ * Unlike the default cache it does not keep the auth scheme that succeeded (a SPNEGO token
+ * can not be replayed) but only the hosts that asked for it. For every request to one of those
+ * hosts it hands out a new {@link PreemptiveSPNegoScheme} that mints a fresh token. Hosts are
+ * learned through {@link SPNegoAuthenticationStrategy} and forgotten when authentication fails,
+ * until the normal challenge flow succeeds again.
+ *
+ * The cache is thread safe and meant to be shared by the contexts of all the requests of a client.
+ * A view that only learns hosts, without authenticating preemptively, can be obtained with
+ * {@link #forRequest(boolean)} for requests that should follow the normal flow.
+ */
+public class PreemptiveAuthCache implements AuthCache {
+
+	private static final Log LOG = LogFactory.getLog(PreemptiveAuthCache.class);
+
+	private final CustomSPNegoSchemeFactory schemeFactory;
+	private final boolean connectionBoundAuthentication;
+	private final SchemePortResolver schemePortResolver = DefaultSchemePortResolver.INSTANCE;
+	private final Set<HttpHost> negotiateHosts;
+	private final boolean preemptive;
+
+	public PreemptiveAuthCache(CustomSPNegoSchemeFactory schemeFactory) {
+		this(schemeFactory, false);
+	}
+
+	/**
+	 * @param schemeFactory factory of the SPNEGO schemes
+	 * @param connectionBoundAuthentication whether the server keeps connections authenticated, in which case
+	 * no token is sent over a connection already authenticated for the principal
+	 */
+	public PreemptiveAuthCache(CustomSPNegoSchemeFactory schemeFactory, boolean connectionBoundAuthentication) {
+		this(schemeFactory, connectionBoundAuthentication, Collections.newSetFromMap(new ConcurrentHashMap<HttpHost, Boolean>()), true);
+	}
+
+	private PreemptiveAuthCache(CustomSPNegoSchemeFactory schemeFactory, boolean connectionBoundAuthentication, Set<HttpHost> negotiateHosts, boolean preemptive) {
+		this.schemeFactory = schemeFactory;
+		this.connectionBoundAuthentication = connectionBoundAuthentication;
+		this.negotiateHosts = negotiateHosts;
+		this.preemptive = preemptive;
+	}
+
+	/**
+	 * Returns a cache sharing the known hosts of this one that authenticates preemptively or not
+	 *
+	 * @param preemptive whether the requests using the returned cache are authenticated preemptively
+	 * @return this cache or a view of it
+	 */
+	public PreemptiveAuthCache forRequest(boolean preemptive) {
+		if (preemptive == this.preemptive) {
+			return this;
+		}
+		return new PreemptiveAuthCache(schemeFactory, connectionBoundAuthentication, negotiateHosts, preemptive);
+	}
+
+	@Override
+	public void put(HttpHost host, AuthScheme authScheme) {
+		if (authScheme != null && AuthSchemes.SPNEGO.equalsIgnoreCase(authScheme.getSchemeName())) {
+			if (negotiateHosts.add(getKey(host)) && LOG.isDebugEnabled()) {
+				LOG.debug("Host " + host + " requires SPNEGO, next requests can be authenticated preemptively");
+			}
+		}
+	}
+
+	@Override
+	public AuthScheme get(HttpHost host) {
+		if (!preemptive || !negotiateHosts.contains(getKey(host))) {
+			return null;
+		}
+		return schemeFactory.createPreemptive(connectionBoundAuthentication);
+	}
+
+	@Override
+	public void remove(HttpHost host) {
+		if (negotiateHosts.remove(getKey(host)) && LOG.isDebugEnabled()) {
+			LOG.debug("SPNEGO authentication failed for " + host + ", disabling preemptive authentication for it");
+		}
+	}
+
+	@Override
+	public void clear() {
+		negotiateHosts.clear();
+	}
+
+	public boolean isKnownHost(HttpHost host) {
+		return negotiateHosts.contains(getKey(host));
+	}
+
+	private HttpHost getKey(HttpHost host) {
+		if (host.getPort() <= 0) {
+			final int port;
+			try {
+				port = schemePortResolver.resolve(host);
+			} catch (final UnsupportedSchemeException ignore) {
+				return host;
+			}
+			return new HttpHost(host.getHostName(), port, host.getSchemeName());
+		}
+		return host;
+	}
+}
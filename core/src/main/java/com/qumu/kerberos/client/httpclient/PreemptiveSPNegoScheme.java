@@ -0,0 +1,54 @@
+package com.qumu.kerberos.client.httpclient;
+
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.auth.AUTH;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.MalformedChallengeException;
+import org.apache.http.client.config.AuthSchemes;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * SPNEGO scheme used for preemptive authentication. It starts as if an empty Negotiate challenge
+ * had been received, so a token is generated and sent with the first attempt of the request.
+ *
+ * It is not connection based: the token only authenticates the request it is sent with. If the
+ * server still answers with a 401 challenge, HttpClient discards this scheme and follows the
+ * normal challenge flow with a new {@link CustomSPNegoScheme}.
+ *
+ * When the server keeps connections authenticated, no token is sent over a connection already
+ * authenticated for the current principal.
+ */
+class PreemptiveSPNegoScheme extends CustomSPNegoScheme {
+
+	private static final Header EMPTY_CHALLENGE = new BasicHeader(AUTH.WWW_AUTH, AuthSchemes.SPNEGO);
+
+	private final boolean skipAuthenticatedConnections;
+
+	PreemptiveSPNegoScheme(SpnegoAuthenticator authenticator, boolean skipAuthenticatedConnections, final boolean stripPort,
+			final boolean useCanonicalHostname) {
+		super(authenticator, stripPort, useCanonicalHostname);
+		this.skipAuthenticatedConnections = skipAuthenticatedConnections;
+		try {
+			processChallenge(EMPTY_CHALLENGE);
+		} catch (MalformedChallengeException e) {
+			throw new IllegalStateException("Could not initialise preemptive SPNEGO scheme", e);
+		}
+	}
+
+	@Override
+	public boolean isConnectionBased() {
+		return false;
+	}
+
+	@Override
+	public Header authenticate(Credentials credentials, HttpRequest request, HttpContext context) throws AuthenticationException {
+		if (skipAuthenticatedConnections && AuthenticatedConnections.isAuthenticated(context, AuthenticatedConnections.currentPrincipal())) {
+			// No header, the connection is already authenticated
+			return null;
+		}
+		return super.authenticate(credentials, request, context);
+	}
+}
@@ -0,0 +1,115 @@
+package com.qumu.kerberos.client.httpclient;
+
+/**
+ * Settings of the retries and hedging of idempotent requests, see {@link KerberosHttpClient#enableResilience(ResilienceSettings)}.
+ *
+ * A request whose connection can not be established, or that is answered with a 503, is retried after an
+ * exponential backoff with random jitter, or the {@code Retry-After} of the 503 if it is longer, until it has
+ * been attempted {@link #getMaxAttempts()} times. With hedging, when the response of an attempt takes longer
+ * than the given percentile of the recent response times of its host, a second attempt is sent and the first
+ * response wins.
+ */
+public class ResilienceSettings {
+
+	/** Default maximum number of attempts of a request, including the first one and the hedged one */
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	/** Default backoff before the first retry */
+	public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 100;
+
+	/** Default maximum backoff between retries */
+	public static final long DEFAULT_MAX_BACKOFF_MILLIS = 2000;
+
+	/** Default percentile of the response times of a host after which a request to it is hedged */
+	public static final double DEFAULT_HEDGING_PERCENTILE = 0.95;
+
+	/** Default minimum time before a request is hedged */
+	public static final long DEFAULT_MIN_HEDGING_DELAY_MILLIS = 10;
+
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+	private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+	private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+	private boolean hedging;
+	private double hedgingPercentile = DEFAULT_HEDGING_PERCENTILE;
+	private long minHedgingDelayMillis = DEFAULT_MIN_HEDGING_DELAY_MILLIS;
+
+	/**
+	 * Maximum number of attempts of a request, including the first one and the hedged one. 1 disables the retries.
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public void setMaxAttempts(int maxAttempts) {
+		if (maxAttempts <= 0) {
+			throw new IllegalArgumentException("The maximum number of attempts must be positive: " + maxAttempts);
+		}
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * Backoff before the first retry, it doubles for each of the next ones
+	 */
+	public long getInitialBackoffMillis() {
+		return initialBackoffMillis;
+	}
+
+	public void setInitialBackoffMillis(long initialBackoffMillis) {
+		this.initialBackoffMillis = initialBackoffMillis;
+	}
+
+	/**
+	 * Maximum backoff between retries, also the maximum {@code Retry-After} of a 503 that is waited for
+	 */
+	public long getMaxBackoffMillis() {
+		return maxBackoffMillis;
+	}
+
+	public void setMaxBackoffMillis(long maxBackoffMillis) {
+		this.maxBackoffMillis = maxBackoffMillis;
+	}
+
+	/**
+	 * Whether a second attempt is sent when the response of the first one is slow. Disabled by default.
+	 */
+	public boolean isHedging() {
+		return hedging;
+	}
+
+	public void setHedging(boolean hedging) {
+		this.hedging = hedging;
+	}
+
+	/**
+	 * Percentile, between 0 and 1, of the recent response times of a host after which a request to it is hedged.
+	 * Hosts are not hedged until some of their response times are known.
+	 */
+	public double getHedgingPercentile() {
+		return hedgingPercentile;
+	}
+
+	public void setHedgingPercentile(double hedgingPercentile) {
+		if (hedgingPercentile <= 0 || hedgingPercentile >= 1) {
+			throw new IllegalArgumentException("The hedging percentile must be between 0 and 1: " + hedgingPercentile);
+		}
+		this.hedgingPercentile = hedgingPercentile;
+	}
+
+	/**
+	 * Minimum time before a request is hedged, so fast hosts do not get every request twice
+	 */
+	public long getMinHedgingDelayMillis() {
+		return minHedgingDelayMillis;
+	}
+
+	public void setMinHedgingDelayMillis(long minHedgingDelayMillis) {
+		this.minHedgingDelayMillis = minHedgingDelayMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "ResilienceSettings [maxAttempts=" + maxAttempts + ", initialBackoffMillis=" + initialBackoffMillis
+				+ ", maxBackoffMillis=" + maxBackoffMillis + ", hedging=" + hedging + ", hedgingPercentile=" + hedgingPercentile
+				+ ", minHedgingDelayMillis=" + minHedgingDelayMillis + "]";
+	}
+}
@@ -0,0 +1,579 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.security.auth.Subject;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.execchain.RequestAbortedException;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Performs idempotent requests with the retries and hedging of a {@link ResilienceSettings}.
+ *
+ * Each attempt is a copy of the request with a context of its own, so it gets a new SPNEGO authenticator
+ * and token: the server rejects a token sent twice as a replay. Attempts run under the Subject of the principal
+ * on the calling thread, only the hedge runs on a daemon thread, started by a timer when the attempt of the
+ * calling thread is slow. A usable response of the hedge aborts that attempt. The first usable response is
+ * handed to the handler, the other attempts are aborted and their connections released.
+ *
+ * The hedging delay of a host is the configured percentile of the response times of its last requests, from the
+ * start of the attempt to the first usable response, hedge or not, recomputed every few responses. The attempts
+ * that lose to a hedge are not measured on their own, so the slow responses are not left out of the percentile.
+ */
+class ResilientRequestExecutor {
+
+	private static final Log LOG = LogFactory.getLog(ResilientRequestExecutor.class);
+
+	private static final Set<String> IDEMPOTENT_METHODS = Collections.unmodifiableSet(
+			new HashSet<String>(Arrays.asList("GET", "HEAD", "OPTIONS", "TRACE", "PUT", "DELETE")));
+
+	private static final int MAX_BACKOFF_SHIFT = 20;
+
+	/** Response times kept per host for its hedging delay */
+	private static final int RESPONSE_TIME_SAMPLES = 512;
+
+	/** Response times of a host needed before its requests are hedged */
+	private static final int MIN_RESPONSE_TIME_SAMPLES = 20;
+
+	/** Response times recorded between computations of the hedging delay of a host */
+	private static final int RESPONSE_TIME_RECOMPUTE_INTERVAL = 64;
+
+	/** Hedges running at once, a request that would need one more is not hedged */
+	private static final int MAX_HEDGING_THREADS = 64;
+
+	private final ResilienceSettings settings;
+	private final CloseableHttpClient httpClient;
+	private final CompositeClientListener listener;
+	private final ScheduledThreadPoolExecutor hedgingTimer;
+	private final ThreadPoolExecutor hedgingExecutor;
+	private final ConcurrentMap<HttpHost, ResponseTimes> responseTimes = new ConcurrentHashMap<HttpHost, ResponseTimes>();
+
+	ResilientRequestExecutor(ResilienceSettings settings, CloseableHttpClient httpClient, CompositeClientListener listener) {
+		this.settings = settings;
+		this.httpClient = httpClient;
+		this.listener = listener;
+		if (settings.isHedging()) {
+			hedgingTimer = new ScheduledThreadPoolExecutor(1, runnable -> {
+				Thread thread = new Thread(runnable, "kerberos-hedging-timer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			// Most requests answer before their hedge is due
+			hedgingTimer.setRemoveOnCancelPolicy(true);
+			hedgingExecutor = new ThreadPoolExecutor(0, MAX_HEDGING_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), runnable -> {
+				Thread thread = new Thread(runnable, "kerberos-hedged-request");
+				thread.setDaemon(true);
+				return thread;
+			});
+		} else {
+			hedgingTimer = null;
+			hedgingExecutor = null;
+		}
+	}
+
+	ResilienceSettings getSettings() {
+		return settings;
+	}
+
+	/**
+	 * Whether the request can be sent more than once, its method is idempotent. The caller checks its body is repeatable.
+	 */
+	static boolean isIdempotent(HttpRequest request) {
+		return IDEMPOTENT_METHODS.contains(request.getRequestLine().getMethod().toUpperCase());
+	}
+
+	/**
+	 * Stops the hedging threads once their attempts finish, later requests are not hedged
+	 */
+	void shutdown() {
+		if (hedgingExecutor != null) {
+			hedgingTimer.shutdownNow();
+			hedgingExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * Performs the request, attempting it again when it can not connect or the server is unavailable,
+	 * and hands the response of the winning attempt to the handler. Aborting the request aborts its attempts.
+	 *
+	 * @param request idempotent request with a repeatable body, it is not sent itself but copied for each attempt
+	 * @param subject Subject of the principal the attempts run under
+	 * @param contexts creates the context of each attempt
+	 * @param responseHandler handler of the response
+	 * @return the value returned by the handler
+	 * @throws IOException the failure of the last attempt, if none got a response
+	 */
+	<T> T execute(HttpUriRequest request, Subject subject, Supplier<HttpClientContext> contexts, ResponseHandler<? extends T> responseHandler)
+			throws IOException {
+		HttpHost target = URIUtils.extractHost(request.getURI());
+		Execution execution = new Execution(target, request, subject);
+		if (request instanceof HttpExecutionAware) {
+			((HttpExecutionAware) request).setCancellable(execution);
+		}
+
+		long hedgingDelay = settings.getMaxAttempts() > 1 ? hedgingDelayNanos(target) : -1;
+		Attempt winner = null;
+		try {
+			Attempt attempt = execution.run(contexts, hedgingDelay);
+			while (true) {
+				Attempt done = execution.completions.take();
+				if (done == execution.cancelled) {
+					throw new RequestAbortedException("Request aborted");
+				}
+				boolean outstanding = execution.taken();
+
+				String retryReason = retryReason(done);
+				if (done.failure == null && retryReason == null) {
+					winner = done;
+					break;
+				}
+				if (outstanding) {
+					// The hedge can still succeed
+					done.discard();
+					continue;
+				}
+				if (retryReason == null || execution.getStarted() >= settings.getMaxAttempts()) {
+					if (done.failure == null) {
+						// The last retryable response is the response of the request
+						winner = done;
+						break;
+					}
+					throw rethrow(done.failure);
+				}
+
+				long backoff = backoffMillis(execution.getStarted(), done.response);
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Attempt " + done.number + " of " + request.getURI() + " failed (" + retryReason + "), retrying in " + backoff + " ms");
+				}
+				listener.requestRetried(target, retryReason);
+				done.release();
+				if (execution.completions.poll(backoff, TimeUnit.MILLISECONDS) != null) {
+					throw new RequestAbortedException("Request aborted");
+				}
+				attempt = execution.run(contexts, hedgingDelay);
+			}
+			if (hedgingExecutor != null) {
+				// Until the first usable response, even if it came from the hedge
+				recordResponseTime(target, winner.end - attempt.start);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RequestAbortedException("Request interrupted", e);
+		} finally {
+			execution.finish(winner);
+		}
+
+		if (execution.isHedged()) {
+			listener.requestHedged(target, winner.hedge);
+		}
+		return handle(winner.response, responseHandler);
+	}
+
+	/**
+	 * Hands the response to the handler and releases its connection, like {@link CloseableHttpClient#execute(HttpUriRequest, ResponseHandler)}
+	 */
+	private static <T> T handle(CloseableHttpResponse response, ResponseHandler<? extends T> responseHandler) throws IOException {
+		try {
+			T result = responseHandler.handleResponse(response);
+			EntityUtils.consume(response.getEntity());
+			return result;
+		} catch (ClientProtocolException e) {
+			// Keep the connection if the body can be read to the end
+			try {
+				EntityUtils.consume(response.getEntity());
+			} catch (Exception e2) {
+				LOG.warn("Error consuming content after an exception", e2);
+			}
+			throw e;
+		} finally {
+			response.close();
+		}
+	}
+
+	/**
+	 * Why the attempt should be repeated, or null if its response is usable or its failure final
+	 */
+	private static String retryReason(Attempt attempt) {
+		if (attempt.failure != null) {
+			return attempt.failure instanceof ConnectException || attempt.failure instanceof ConnectTimeoutException ? "connect" : null;
+		}
+		int statusCode = attempt.response.getStatusLine().getStatusCode();
+		return statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE ? "status-" + statusCode : null;
+	}
+
+	private static IOException rethrow(Exception failure) {
+		if (failure instanceof IOException) {
+			return (IOException) failure;
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		return new IOException(failure);
+	}
+
+	/**
+	 * Jittered exponential backoff after the given number of attempts, or the Retry-After of the response if longer,
+	 * up to the maximum backoff
+	 */
+	private long backoffMillis(int attempts, HttpResponse response) {
+		long backoff = settings.getInitialBackoffMillis() << Math.min(attempts - 1, MAX_BACKOFF_SHIFT);
+		backoff = Math.max(Math.min(backoff, settings.getMaxBackoffMillis()), 0);
+		// Half of the backoff is random, so retries of clients that failed together spread out
+		backoff = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+		return Math.min(Math.max(backoff, retryAfterMillis(response)), settings.getMaxBackoffMillis());
+	}
+
+	private static long retryAfterMillis(HttpResponse response) {
+		Header header = response != null ? response.getFirstHeader("Retry-After") : null;
+		if (header == null) {
+			return 0;
+		}
+		String value = header.getValue().trim();
+		try {
+			return TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+		} catch (NumberFormatException e) {
+			Date date = DateUtils.parseDate(value);
+			return date != null ? date.getTime() - System.currentTimeMillis() : 0;
+		}
+	}
+
+	/**
+	 * Time after which a request to the host is hedged, or -1 if hedging is disabled or its response times are not known yet
+	 */
+	long hedgingDelayNanos(HttpHost target) {
+		if (hedgingExecutor == null) {
+			return -1;
+		}
+		ResponseTimes times = responseTimes.get(target);
+		long percentile = times != null ? times.percentile(settings.getHedgingPercentile()) : -1;
+		return percentile >= 0 ? Math.max(percentile, TimeUnit.MILLISECONDS.toNanos(settings.getMinHedgingDelayMillis())) : -1;
+	}
+
+	private void recordResponseTime(HttpHost target, long durationNanos) {
+		ResponseTimes times = responseTimes.get(target);
+		if (times == null) {
+			ResponseTimes newTimes = new ResponseTimes();
+			times = responseTimes.putIfAbsent(target, newTimes);
+			if (times == null) {
+				times = newTimes;
+			}
+		}
+		times.record(durationNanos);
+	}
+
+	/**
+	 * The attempts of a request. The completed attempts are queued for the calling thread, until a winner is
+	 * decided, then the ones that complete later are discarded.
+	 */
+	private class Execution implements Cancellable {
+
+		private final HttpHost target;
+		private final HttpUriRequest request;
+		private final Subject subject;
+		private final BlockingQueue<Attempt> completions = new LinkedBlockingQueue<Attempt>();
+		/** Queued when the request is aborted, to wake up the calling thread */
+		private final Attempt cancelled = new Attempt(this, null, null, 0, false);
+
+		// Guarded by this, the hedge is started by the timer thread
+		private final List<Attempt> attempts = new ArrayList<Attempt>();
+		private boolean aborted;
+		private boolean decided;
+		private boolean hedged;
+		private int started;
+		private int outstanding;
+
+		Execution(HttpHost target, HttpUriRequest request, Subject subject) {
+			this.target = target;
+			this.request = request;
+			this.subject = subject;
+		}
+
+		/**
+		 * Runs an attempt on the calling thread, with a hedge started on another thread if it is still running
+		 * after the hedging delay
+		 *
+		 * @param hedgingDelay delay in nanoseconds, or -1 not to hedge
+		 */
+		Attempt run(Supplier<HttpClientContext> contexts, long hedgingDelay) throws RequestAbortedException {
+			Attempt attempt = add(contexts.get(), false);
+			ScheduledFuture<?> hedge = null;
+			if (hedgingDelay >= 0 && !isHedged()) {
+				try {
+					hedge = hedgingTimer.schedule(() -> hedge(attempt, contexts, hedgingDelay), hedgingDelay, TimeUnit.NANOSECONDS);
+				} catch (RejectedExecutionException e) {
+					// Shut down, the request is not hedged
+				}
+			}
+			try {
+				attempt.run();
+			} finally {
+				if (hedge != null) {
+					hedge.cancel(false);
+				}
+			}
+			return attempt;
+		}
+
+		/**
+		 * Starts the hedge of the attempt on a hedging thread, unless the attempt completed meanwhile
+		 */
+		@SuppressWarnings("synthetic-access")
+		private void hedge(Attempt slow, Supplier<HttpClientContext> contexts, long hedgingDelay) {
+			HttpClientContext context = contexts.get();
+			Attempt attempt;
+			synchronized (this) {
+				if (slow.completed || decided || aborted || hedged || started >= settings.getMaxAttempts()) {
+					return;
+				}
+				hedged = true;
+				attempt = register(context, true);
+			}
+			try {
+				hedgingExecutor.execute(attempt);
+			} catch (RejectedExecutionException e) {
+				// Too many hedges running, or shut down
+				synchronized (this) {
+					attempts.remove(attempt);
+					started--;
+					outstanding--;
+					hedged = false;
+				}
+				return;
+			}
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("No response from " + request.getURI() + " after " + TimeUnit.NANOSECONDS.toMillis(hedgingDelay) + " ms, hedged it");
+			}
+		}
+
+		private synchronized Attempt add(HttpClientContext context, boolean hedge) throws RequestAbortedException {
+			if (aborted) {
+				throw new RequestAbortedException("Request aborted");
+			}
+			return register(context, hedge);
+		}
+
+		private synchronized Attempt register(HttpClientContext context, boolean hedge) {
+			Attempt attempt = new Attempt(this, RequestBuilder.copy(request).build(), context, ++started, hedge);
+			attempts.add(attempt);
+			outstanding++;
+			return attempt;
+		}
+
+		/**
+		 * Called by the calling thread for each attempt it takes from the completions
+		 *
+		 * @return whether other attempts are still running
+		 */
+		synchronized boolean taken() {
+			return --outstanding > 0;
+		}
+
+		synchronized int getStarted() {
+			return started;
+		}
+
+		synchronized boolean isHedged() {
+			return hedged;
+		}
+
+		void completed(Attempt attempt) {
+			List<Attempt> overtaken = new ArrayList<Attempt>();
+			synchronized (this) {
+				attempt.completed = true;
+				if (decided) {
+					overtaken = null;
+				} else {
+					completions.add(attempt);
+					if (attempt.hedge && attempt.failure == null && retryReason(attempt) == null) {
+						// Queued before the slow attempt, which the calling thread is still waiting for
+						for (Attempt other : attempts) {
+							if (!other.completed) {
+								overtaken.add(other);
+							}
+						}
+					}
+				}
+			}
+			if (overtaken == null) {
+				attempt.discard();
+				return;
+			}
+			for (Attempt other : overtaken) {
+				other.request.abort();
+			}
+		}
+
+		/**
+		 * Aborts the attempts other than the winner and discards their responses
+		 */
+		void finish(Attempt winner) {
+			List<Attempt> losers;
+			synchronized (this) {
+				decided = true;
+				losers = new ArrayList<Attempt>(attempts);
+			}
+			for (Attempt attempt : losers) {
+				if (attempt != winner) {
+					attempt.request.abort();
+				}
+			}
+			for (Attempt attempt; (attempt = completions.poll()) != null;) {
+				if (attempt != winner) {
+					attempt.discard();
+				}
+			}
+		}
+
+		/**
+		 * Aborts all the attempts, including the winning one while its response is being handled
+		 */
+		@Override
+		public boolean cancel() {
+			List<Attempt> all;
+			synchronized (this) {
+				if (aborted) {
+					return false;
+				}
+				aborted = true;
+				all = new ArrayList<Attempt>(attempts);
+			}
+			for (Attempt attempt : all) {
+				attempt.request.abort();
+			}
+			completions.add(cancelled);
+			return true;
+		}
+	}
+
+	/**
+	 * One attempt of a request, with its copy of the request and its own context
+	 */
+	private class Attempt implements Runnable {
+
+		private final Execution execution;
+		private final HttpUriRequest request;
+		private final HttpClientContext context;
+		private final int number;
+		private final boolean hedge;
+		private final long start = System.nanoTime();
+		private volatile long end;
+		private volatile CloseableHttpResponse response;
+		private volatile Exception failure;
+		// Guarded by the execution
+		private boolean completed;
+
+		Attempt(Execution execution, HttpUriRequest request, HttpClientContext context, int number, boolean hedge) {
+			this.execution = execution;
+			this.request = request;
+			this.context = context;
+			this.number = number;
+			this.hedge = hedge;
+		}
+
+		@SuppressWarnings("synthetic-access")
+		@Override
+		public void run() {
+			try {
+				response = Subject.doAs(execution.subject, (PrivilegedExceptionAction<CloseableHttpResponse>) () -> httpClient.execute(request, context));
+			} catch (PrivilegedActionException e) {
+				failure = e.getException();
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+			end = System.nanoTime();
+			execution.completed(this);
+		}
+
+		/**
+		 * Reads the rest of the body, so the connection is kept
+		 */
+		void release() {
+			if (response != null) {
+				EntityUtils.consumeQuietly(response.getEntity());
+				discard();
+			}
+		}
+
+		/**
+		 * Closes the response, and its connection if the body was not read
+		 */
+		void discard() {
+			if (response != null) {
+				try {
+					response.close();
+				} catch (IOException e) {
+					LOG.debug("Error closing the response of a discarded attempt", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Last response times of a host, with the percentile used as its hedging delay
+	 */
+	private static class ResponseTimes {
+
+		private final long[] samples = new long[RESPONSE_TIME_SAMPLES];
+		private long count;
+		private long computedAt;
+		private long percentile = -1;
+
+		synchronized void record(long durationNanos) {
+			samples[(int) (count++ % samples.length)] = durationNanos;
+		}
+
+		synchronized long percentile(double fraction) {
+			if (count < MIN_RESPONSE_TIME_SAMPLES) {
+				return -1;
+			}
+			if (percentile < 0 || count - computedAt >= RESPONSE_TIME_RECOMPUTE_INTERVAL) {
+				long[] sorted = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+				Arrays.sort(sorted);
+				percentile = sorted[Math.max((int) Math.ceil(fraction * sorted.length) - 1, 0)];
+				computedAt = count;
+			}
+			return percentile;
+		}
+	}
+}
@@ -0,0 +1,797 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.login.LoginException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Private cache of the responses to the GET requests of a {@link KerberosHttpClient}, see
+ * {@link KerberosHttpClient#enableResponseCache(ResponseCacheSettings)}.
+ *
+ * Responses are kept per user principal and url, so a principal never gets a response fetched by another one.
+ * A 200 response is cached when neither the request nor the response have {@code Cache-Control: no-store}
+ * and it has a freshness lifetime ({@code max-age}, {@code Expires}, or a tenth of its age since its
+ * {@code Last-Modified}) or a validator ({@code ETag}, {@code Last-Modified}). While a response is fresh it
+ * is handed to the response handler without going to the server, nor logging in. Once stale, or with
+ * {@code no-cache}, the request is sent with {@code If-None-Match} / {@code If-Modified-Since}, and a 304
+ * answer refreshes the cached response and hands it to the handler instead of transferring the body again.
+ *
+ * Responses whose {@code Vary} headers do not match are fetched again, and requests with other methods than
+ * GET, HEAD, OPTIONS or TRACE discard the response cached for their url.
+ */
+public class ResponseCache implements Closeable {
+
+	private static final Log LOG = LogFactory.getLog(ResponseCache.class);
+
+	/** Fraction of the time since the last modification a response without expiry is considered fresh */
+	private static final double HEURISTIC_FRACTION = 0.1;
+
+	private static final long MAX_HEURISTIC_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	/** Headers of a connection rather than of the response, never stored */
+	private static final String[] HOP_BY_HOP_HEADERS = { "Connection", "Keep-Alive", "Proxy-Authenticate", "Proxy-Authorization",
+			"TE", "Trailer", "Transfer-Encoding", "Upgrade", HttpHeaders.WWW_AUTHENTICATE, HttpHeaders.CONTENT_LENGTH, HttpHeaders.AGE };
+
+	private final ResponseCacheSettings settings;
+	private final Path directory;
+	private final boolean temporaryDirectory;
+
+	// Access ordered, the first entry is the least recently used
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long size;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong revalidations = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Network exchange of a request, with the handler of its response
+	 */
+	interface Exchange<T> {
+		T execute(ResponseHandler<? extends T> responseHandler) throws LoginException;
+	}
+
+	ResponseCache(ResponseCacheSettings settings) {
+		this.settings = settings;
+		if (settings.getStorage() == ResponseCacheSettings.Storage.DISK) {
+			try {
+				boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+				FileAttribute<?>[] attributes = posix
+						? new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")) }
+						: new FileAttribute<?>[0];
+				this.temporaryDirectory = settings.getDirectory() == null;
+				this.directory = temporaryDirectory ? Files.createTempDirectory("kerberos-responses", attributes)
+						: Files.createDirectories(Paths.get(settings.getDirectory()), attributes);
+			} catch (IOException e) {
+				throw new RuntimeException("Error creating the directory of the response cache", e);
+			}
+		} else {
+			this.directory = null;
+			this.temporaryDirectory = false;
+		}
+	}
+
+	/**
+	 * Performs the request through the cache: answers it with a fresh cached response, or sends it through the
+	 * exchange, with conditional headers if there is a stale one, and caches the response
+	 */
+	<T> T execute(String userPrincipal, HttpUriRequest request, ResponseHandler<? extends T> responseHandler,
+			CompositeClientListener listener, Exchange<T> exchange) throws IOException, LoginException {
+
+		String method = request.getMethod().toUpperCase(Locale.ROOT);
+		if (!"GET".equals(method)) {
+			if ("HEAD".equals(method) || "OPTIONS".equals(method) || "TRACE".equals(method)) {
+				return exchange.execute(responseHandler);
+			}
+			// The request may change the resource, its cached response is no longer valid
+			try {
+				return exchange.execute(responseHandler);
+			} finally {
+				remove(key(userPrincipal, request));
+			}
+		}
+		if (isBypassed(request)) {
+			return exchange.execute(responseHandler);
+		}
+
+		final String key = key(userPrincipal, request);
+		long now = System.currentTimeMillis();
+		Entry entry = get(key);
+		if (entry != null && !entry.matchesVary(request)) {
+			entry = null;
+		}
+
+		if (entry != null && entry.isFresh(now) && !requiresValidation(request)) {
+			HttpResponse cached = entry.toResponse(now);
+			if (cached != null) {
+				hits.incrementAndGet();
+				if (listener.isEnabled()) {
+					listener.responseCacheHit(URIUtils.extractHost(request.getURI()), false);
+				}
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Response cache hit for " + request.getURI() + " of " + userPrincipal);
+				}
+				try {
+					return responseHandler.handleResponse(cached);
+				} finally {
+					// Closes the stream of the body, the handler may not have read it to the end
+					EntityUtils.consumeQuietly(cached.getEntity());
+				}
+			}
+			remove(key, entry);
+			entry = null;
+		}
+
+		final Entry validated = entry != null && entry.hasValidator() ? entry : null;
+		List<Header> conditions = new ArrayList<Header>(2);
+		if (validated != null) {
+			if (validated.etag != null) {
+				conditions.add(new BasicHeader(HttpHeaders.IF_NONE_MATCH, validated.etag));
+			}
+			if (validated.lastModified != null) {
+				conditions.add(new BasicHeader(HttpHeaders.IF_MODIFIED_SINCE, validated.lastModified));
+			}
+			for (Header condition : conditions) {
+				request.addHeader(condition);
+			}
+		}
+
+		final long requestTime = now;
+		try {
+			return exchange.execute(response -> handleResponse(key, request, validated, requestTime, response, responseHandler, listener));
+		} finally {
+			// The request is the caller's, it may be sent again later without the cache
+			for (Header condition : conditions) {
+				request.removeHeader(condition);
+			}
+		}
+	}
+
+	private <T> T handleResponse(String key, HttpUriRequest request, Entry validated, long requestTime, HttpResponse response,
+			ResponseHandler<? extends T> responseHandler, CompositeClientListener listener) throws IOException {
+
+		long responseTime = System.currentTimeMillis();
+		int status = response.getStatusLine().getStatusCode();
+
+		if (status == HttpStatus.SC_NOT_MODIFIED && validated != null) {
+			EntityUtils.consume(response.getEntity());
+			Entry revalidated = validated.revalidate(request, response, requestTime, responseTime);
+			HttpResponse cached = revalidated.toResponse(responseTime);
+			if (cached != null) {
+				replace(key, validated, revalidated);
+				revalidations.incrementAndGet();
+				if (listener.isEnabled()) {
+					listener.responseCacheHit(URIUtils.extractHost(request.getURI()), true);
+				}
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Response cache revalidated " + request.getURI() + " with a 304");
+				}
+				try {
+					return responseHandler.handleResponse(cached);
+				} finally {
+					EntityUtils.consumeQuietly(cached.getEntity());
+				}
+			}
+			// The body was evicted meanwhile, the handler gets the 304 as it would without cache
+			remove(key, validated);
+			return responseHandler.handleResponse(response);
+		}
+
+		misses.incrementAndGet();
+		if (listener.isEnabled()) {
+			listener.responseCacheMiss(URIUtils.extractHost(request.getURI()));
+		}
+
+		HttpEntity entity = response.getEntity();
+		if (status != HttpStatus.SC_OK || !isStorable(response, responseTime) || entity == null
+				|| entity.getContentLength() > settings.getMaxEntryBytes()) {
+			if (validated != null) {
+				remove(key, validated);
+			}
+			return responseHandler.handleResponse(response);
+		}
+
+		InputStream content = entity.getContent();
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(entity.getContentLength() > 0 ? (int) entity.getContentLength() : 4096);
+		boolean complete = copy(content, buffer, settings.getMaxEntryBytes());
+		BasicHttpEntity bufferedEntity = new BasicHttpEntity();
+		bufferedEntity.setContentType(entity.getContentType());
+		bufferedEntity.setContentEncoding(entity.getContentEncoding());
+		if (complete) {
+			byte[] body = buffer.toByteArray();
+			EntityUtils.consume(entity);
+			bufferedEntity.setContent(new ByteArrayInputStream(body));
+			bufferedEntity.setContentLength(body.length);
+			Body stored = storeBody(body);
+			if (stored != null) {
+				store(key, new Entry(request, response, stored, requestTime, responseTime));
+			} else if (validated != null) {
+				remove(key, validated);
+			}
+		} else {
+			// Too large to cache, the handler reads what was buffered followed by the rest of the body
+			bufferedEntity.setContent(new SequenceInputStream(new ByteArrayInputStream(buffer.toByteArray()), content));
+			bufferedEntity.setContentLength(-1);
+			if (validated != null) {
+				remove(key, validated);
+			}
+		}
+		response.setEntity(bufferedEntity);
+		return responseHandler.handleResponse(response);
+	}
+
+	/**
+	 * Copies up to limit bytes, returning whether the end of the input was reached
+	 */
+	private static boolean copy(InputStream in, OutputStream out, long limit) throws IOException {
+		byte[] chunk = new byte[8192];
+		long total = 0;
+		while (total <= limit) {
+			int read = in.read(chunk, 0, (int) Math.min(chunk.length, limit + 1 - total));
+			if (read < 0) {
+				return true;
+			}
+			out.write(chunk, 0, read);
+			total += read;
+		}
+		return false;
+	}
+
+	/**
+	 * Stores the body of a response, or returns null if it can not be stored: the response is then handed
+	 * to the handler without being cached, it was already received
+	 */
+	private Body storeBody(byte[] body) {
+		switch (settings.getStorage()) {
+		case OFF_HEAP:
+			ByteBuffer buffer = ByteBuffer.allocateDirect(body.length);
+			buffer.put(body);
+			buffer.flip();
+			return new BufferBody(buffer);
+		case DISK:
+			Path file = null;
+			try {
+				// Unique names, the directory may have files of a previous run or of another client
+				boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+				file = posix
+						? Files.createTempFile(directory, "response", ".body",
+								PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")))
+						: Files.createTempFile(directory, "response", ".body");
+				Files.write(file, body);
+				return new FileBody(file, body.length);
+			} catch (IOException e) {
+				LOG.warn("Error storing a response in " + directory + ", it is not cached", e);
+				deleteQuietly(file);
+				return null;
+			}
+		default:
+			return new BufferBody(ByteBuffer.wrap(body));
+		}
+	}
+
+	private static void deleteQuietly(Path file) {
+		if (file != null) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				LOG.debug("Error deleting " + file, e);
+			}
+		}
+	}
+
+	private static String key(String userPrincipal, HttpUriRequest request) {
+		return userPrincipal + " " + request.getURI();
+	}
+
+	/**
+	 * Requests the caller made conditional or partial themselves, or that must not be stored, skip the cache
+	 */
+	private static boolean isBypassed(HttpUriRequest request) {
+		return request.containsHeader(HttpHeaders.RANGE) || request.containsHeader(HttpHeaders.IF_NONE_MATCH)
+				|| request.containsHeader(HttpHeaders.IF_MODIFIED_SINCE) || request.containsHeader(HttpHeaders.IF_MATCH)
+				|| request.containsHeader(HttpHeaders.IF_UNMODIFIED_SINCE) || request.containsHeader(HttpHeaders.IF_RANGE)
+				|| hasDirective(request.getHeaders(HttpHeaders.CACHE_CONTROL), "no-store");
+	}
+
+	private static boolean requiresValidation(HttpUriRequest request) {
+		Header[] cacheControl = request.getHeaders(HttpHeaders.CACHE_CONTROL);
+		return hasDirective(cacheControl, "no-cache") || "0".equals(directive(cacheControl, "max-age"))
+				|| hasDirective(request.getHeaders(HttpHeaders.PRAGMA), "no-cache");
+	}
+
+	private static boolean isStorable(HttpResponse response, long responseTime) {
+		if (hasDirective(response.getHeaders(HttpHeaders.CACHE_CONTROL), "no-store")) {
+			return false;
+		}
+		for (Header vary : response.getHeaders("Vary")) {
+			if (vary.getValue().trim().equals("*")) {
+				return false;
+			}
+		}
+		return response.containsHeader(HttpHeaders.ETAG) || response.containsHeader(HttpHeaders.LAST_MODIFIED)
+				|| freshnessLifetime(response.getAllHeaders(), dateOf(response.getAllHeaders(), responseTime)) > 0;
+	}
+
+	/**
+	 * Date the response was generated, or the given time if it has no valid Date header
+	 */
+	static long dateOf(Header[] headers, long responseTime) {
+		Header dateHeader = firstHeader(headers, HttpHeaders.DATE);
+		Date date = dateHeader != null ? DateUtils.parseDate(dateHeader.getValue()) : null;
+		return date != null ? date.getTime() : responseTime;
+	}
+
+	static boolean hasDirective(Header[] headers, String name) {
+		for (Header header : headers) {
+			for (HeaderElement element : header.getElements()) {
+				if (name.equalsIgnoreCase(element.getName())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	static String directive(Header[] headers, String name) {
+		for (Header header : headers) {
+			for (HeaderElement element : header.getElements()) {
+				if (name.equalsIgnoreCase(element.getName())) {
+					return element.getValue();
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Time the response is fresh for, from its date
+	 */
+	static long freshnessLifetime(Header[] headers, long date) {
+		Header[] cacheControl = headersNamed(headers, HttpHeaders.CACHE_CONTROL);
+		if (hasDirective(cacheControl, "no-cache")) {
+			return 0;
+		}
+		String maxAge = directive(cacheControl, "max-age");
+		if (maxAge != null) {
+			try {
+				return TimeUnit.SECONDS.toMillis(Long.parseLong(maxAge.trim()));
+			} catch (NumberFormatException e) {
+				return 0;
+			}
+		}
+		Header expires = firstHeader(headers, HttpHeaders.EXPIRES);
+		if (expires != null) {
+			// Invalid dates, i.e. "0", mean already expired
+			Date expiry = DateUtils.parseDate(expires.getValue());
+			return expiry != null ? Math.max(expiry.getTime() - date, 0) : 0;
+		}
+		Header lastModified = firstHeader(headers, HttpHeaders.LAST_MODIFIED);
+		if (lastModified != null) {
+			Date modified = DateUtils.parseDate(lastModified.getValue());
+			if (modified != null && modified.getTime() < date) {
+				return Math.min((long) ((date - modified.getTime()) * HEURISTIC_FRACTION), MAX_HEURISTIC_MILLIS);
+			}
+		}
+		return 0;
+	}
+
+	private static Header firstHeader(Header[] headers, String name) {
+		for (Header header : headers) {
+			if (name.equalsIgnoreCase(header.getName())) {
+				return header;
+			}
+		}
+		return null;
+	}
+
+	private static Header[] headersNamed(Header[] headers, String name) {
+		List<Header> named = new ArrayList<Header>(1);
+		for (Header header : headers) {
+			if (name.equalsIgnoreCase(header.getName())) {
+				named.add(header);
+			}
+		}
+		return named.toArray(new Header[named.size()]);
+	}
+
+	private static boolean isHopByHop(String name) {
+		for (String hopByHop : HOP_BY_HOP_HEADERS) {
+			if (hopByHop.equalsIgnoreCase(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private synchronized Entry get(String key) {
+		return entries.get(key);
+	}
+
+	private void store(String key, Entry entry) {
+		List<Entry> released = new ArrayList<Entry>();
+		synchronized (this) {
+			Entry previous = entries.put(key, entry);
+			if (previous != null) {
+				size -= previous.body.length();
+				released.add(previous);
+			}
+			size += entry.body.length();
+			Iterator<Entry> eldest = entries.values().iterator();
+			while (size > settings.getMaxBytes() && eldest.hasNext()) {
+				Entry evicted = eldest.next();
+				eldest.remove();
+				size -= evicted.body.length();
+				released.add(evicted);
+			}
+		}
+		for (Entry evicted : released) {
+			evicted.body.release();
+		}
+	}
+
+	private void replace(String key, Entry current, Entry replacement) {
+		synchronized (this) {
+			// It shares the body of the current entry, the size does not change
+			if (entries.get(key) == current) {
+				entries.put(key, replacement);
+			}
+		}
+	}
+
+	private void remove(String key) {
+		Entry removed;
+		synchronized (this) {
+			removed = entries.remove(key);
+			if (removed != null) {
+				size -= removed.body.length();
+			}
+		}
+		if (removed != null) {
+			removed.body.release();
+		}
+	}
+
+	private void remove(String key, Entry entry) {
+		synchronized (this) {
+			if (!entries.remove(key, entry)) {
+				return;
+			}
+			size -= entry.body.length();
+		}
+		entry.body.release();
+	}
+
+	/**
+	 * Discards the responses cached for a user principal
+	 */
+	public void invalidate(String userPrincipal) {
+		String prefix = userPrincipal + " ";
+		List<Entry> removed = new ArrayList<Entry>();
+		synchronized (this) {
+			Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, Entry> entry = iterator.next();
+				if (entry.getKey().startsWith(prefix)) {
+					iterator.remove();
+					size -= entry.getValue().body.length();
+					removed.add(entry.getValue());
+				}
+			}
+		}
+		for (Entry entry : removed) {
+			entry.body.release();
+		}
+	}
+
+	/**
+	 * Discards all the cached responses
+	 */
+	public void clear() {
+		List<Entry> removed;
+		synchronized (this) {
+			removed = new ArrayList<Entry>(entries.values());
+			entries.clear();
+			size = 0;
+		}
+		for (Entry entry : removed) {
+			entry.body.release();
+		}
+	}
+
+	/**
+	 * Discards all the cached responses, and their directory if it is a temporary one
+	 */
+	@Override
+	public void close() {
+		clear();
+		if (temporaryDirectory) {
+			try {
+				Files.deleteIfExists(directory);
+			} catch (IOException e) {
+				LOG.warn("Error deleting the directory of the response cache " + directory, e);
+			}
+		}
+	}
+
+	/**
+	 * Number of requests answered with a fresh cached response, without going to the server
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Number of requests answered with a cached response after the server confirmed it with a 304
+	 */
+	public long getRevalidationCount() {
+		return revalidations.get();
+	}
+
+	/**
+	 * Number of GET requests whose response was transferred from the server
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Size of all the cached bodies
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return "ResponseCache [entries=" + getEntryCount() + ", size=" + getSize() + ", hits=" + hits + ", revalidations=" + revalidations
+				+ ", misses=" + misses + ", " + settings + "]";
+	}
+
+	/**
+	 * A cached response, immutable: a revalidation replaces it with a new one sharing the body
+	 */
+	private static class Entry {
+
+		private final Header[] headers;
+		private final Map<String, String> varyValues;
+		private final Body body;
+		private final String etag;
+		private final String lastModified;
+		private final long responseTime;
+		private final long initialAge;
+		private final long lifetime;
+
+		Entry(HttpUriRequest request, HttpResponse response, Body body, long requestTime, long responseTime) {
+			this(request, storedHeaders(response.getAllHeaders()), body, requestTime, responseTime, ageOf(response));
+		}
+
+		private Entry(HttpUriRequest request, Header[] headers, Body body, long requestTime, long responseTime, long age) {
+			this.headers = headers;
+			this.body = body;
+			this.varyValues = new HashMap<String, String>();
+			for (Header vary : headersNamed(headers, "Vary")) {
+				for (HeaderElement element : vary.getElements()) {
+					varyValues.put(element.getName().toLowerCase(Locale.ROOT), valuesOf(request, element.getName()));
+				}
+			}
+			Header etagHeader = firstHeader(headers, HttpHeaders.ETAG);
+			this.etag = etagHeader != null ? etagHeader.getValue() : null;
+			Header lastModifiedHeader = firstHeader(headers, HttpHeaders.LAST_MODIFIED);
+			this.lastModified = lastModifiedHeader != null ? lastModifiedHeader.getValue() : null;
+			this.responseTime = responseTime;
+
+			long dateMillis = dateOf(headers, responseTime);
+			long apparentAge = Math.max(0, responseTime - dateMillis);
+			this.initialAge = Math.max(apparentAge, age + (responseTime - requestTime));
+			this.lifetime = freshnessLifetime(headers, dateMillis);
+		}
+
+		boolean isFresh(long now) {
+			return currentAge(now) < lifetime;
+		}
+
+		boolean hasValidator() {
+			return etag != null || lastModified != null;
+		}
+
+		boolean matchesVary(HttpUriRequest other) {
+			for (Map.Entry<String, String> vary : varyValues.entrySet()) {
+				if (!vary.getValue().equals(valuesOf(other, vary.getKey()))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		long currentAge(long now) {
+			return initialAge + Math.max(0, now - responseTime);
+		}
+
+		/**
+		 * Entry updated with the headers of a 304 answer to a conditional request
+		 */
+		Entry revalidate(HttpUriRequest request, HttpResponse notModified, long requestTime, long responseTime) {
+			Header[] updates = storedHeaders(notModified.getAllHeaders());
+			List<Header> merged = new ArrayList<Header>(headers.length + updates.length);
+			for (Header header : headers) {
+				if (firstHeader(updates, header.getName()) == null) {
+					merged.add(header);
+				}
+			}
+			for (Header update : updates) {
+				merged.add(update);
+			}
+			return new Entry(request, merged.toArray(new Header[merged.size()]), body, requestTime, responseTime, ageOf(notModified));
+		}
+
+		/**
+		 * A 200 response with the cached headers and body, or null if the body is no longer available
+		 */
+		HttpResponse toResponse(long now) {
+			InputStream content;
+			try {
+				content = body.open();
+			} catch (IOException e) {
+				LOG.warn("Error reading a cached response, it is requested again", e);
+				return null;
+			}
+			BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+			response.setHeaders(headers);
+			response.setHeader(HttpHeaders.AGE, String.valueOf(TimeUnit.MILLISECONDS.toSeconds(currentAge(now))));
+			BasicHttpEntity entity = new BasicHttpEntity();
+			entity.setContent(content);
+			entity.setContentLength(body.length());
+			entity.setContentType(firstHeader(headers, HttpHeaders.CONTENT_TYPE));
+			entity.setContentEncoding(firstHeader(headers, HttpHeaders.CONTENT_ENCODING));
+			response.setEntity(entity);
+			response.setHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(body.length()));
+			return response;
+		}
+
+		private static Header[] storedHeaders(Header[] headers) {
+			List<Header> stored = new ArrayList<Header>(headers.length);
+			for (Header header : headers) {
+				if (!isHopByHop(header.getName())) {
+					stored.add(header);
+				}
+			}
+			return stored.toArray(new Header[stored.size()]);
+		}
+
+		private static long ageOf(HttpResponse response) {
+			Header age = response.getFirstHeader(HttpHeaders.AGE);
+			if (age != null) {
+				try {
+					return TimeUnit.SECONDS.toMillis(Long.parseLong(age.getValue().trim()));
+				} catch (NumberFormatException e) {
+					// Ignored as the RFC says
+				}
+			}
+			return 0;
+		}
+
+		private static String valuesOf(HttpUriRequest request, String name) {
+			StringBuilder values = new StringBuilder();
+			for (Header header : request.getHeaders(name)) {
+				values.append(header.getValue()).append(',');
+			}
+			return values.toString();
+		}
+	}
+
+	/**
+	 * Body of a cached response in its storage
+	 */
+	private interface Body {
+
+		InputStream open() throws IOException;
+
+		long length();
+
+		void release();
+	}
+
+	/**
+	 * Body in a heap or direct buffer, released by the garbage collector
+	 */
+	private static class BufferBody implements Body {
+
+		private final ByteBufferEntity entity;
+
+		BufferBody(ByteBuffer buffer) {
+			this.entity = new ByteBufferEntity(buffer);
+		}
+
+		@Override
+		public InputStream open() throws IOException {
+			return entity.getContent();
+		}
+
+		@Override
+		public long length() {
+			return entity.getContentLength();
+		}
+
+		@Override
+		public void release() {
+		}
+	}
+
+	/**
+	 * Body in a file, deleted on release. Readers that opened it before keep reading it where the file system allows it.
+	 */
+	private static class FileBody implements Body {
+
+		private final Path file;
+		private final long length;
+
+		FileBody(Path file, long length) {
+			this.file = file;
+			this.length = length;
+		}
+
+		@Override
+		public InputStream open() throws IOException {
+			return Files.newInputStream(file);
+		}
+
+		@Override
+		public long length() {
+			return length;
+		}
+
+		@Override
+		public void release() {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				LOG.warn("Error deleting the cached response " + file, e);
+			}
+		}
+	}
+}
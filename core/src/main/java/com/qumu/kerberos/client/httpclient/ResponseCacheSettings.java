@@ -0,0 +1,86 @@
+package com.qumu.kerberos.client.httpclient;
+
+/**
+ * Settings of the cache of responses of a client, see {@link KerberosHttpClient#enableResponseCache(ResponseCacheSettings)}.
+ *
+ * The bodies of the cached responses take at most {@link #getMaxBytes()} in the chosen storage, the least
+ * recently used ones are evicted to make room for new ones. Their headers are always kept on the heap.
+ */
+public class ResponseCacheSettings {
+
+	/**
+	 * Where the bodies of the cached responses are kept
+	 */
+	public enum Storage {
+		/** Byte arrays on the heap */
+		HEAP,
+		/** Direct buffers, out of the heap so large caches do not add to the GC work */
+		OFF_HEAP,
+		/** Files in {@link ResponseCacheSettings#getDirectory()}, readable by the owner only */
+		DISK
+	}
+
+	/** Default maximum size of all the cached bodies */
+	public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+	/** Default maximum size of the body of a response to be cached */
+	public static final long DEFAULT_MAX_ENTRY_BYTES = 1024 * 1024;
+
+	private Storage storage = Storage.HEAP;
+	private long maxBytes = DEFAULT_MAX_BYTES;
+	private long maxEntryBytes = DEFAULT_MAX_ENTRY_BYTES;
+	private String directory;
+
+	public Storage getStorage() {
+		return storage;
+	}
+
+	public void setStorage(Storage storage) {
+		this.storage = storage;
+	}
+
+	/**
+	 * Maximum size of all the cached bodies, the least recently used responses are evicted beyond it
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("The maximum size of the cache must be positive: " + maxBytes);
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Maximum size of the body of a response to be cached, larger responses are streamed to the handler without caching them
+	 */
+	public long getMaxEntryBytes() {
+		return maxEntryBytes;
+	}
+
+	public void setMaxEntryBytes(long maxEntryBytes) {
+		if (maxEntryBytes <= 0) {
+			throw new IllegalArgumentException("The maximum size of a cached response must be positive: " + maxEntryBytes);
+		}
+		this.maxEntryBytes = maxEntryBytes;
+	}
+
+	/**
+	 * Directory of the bodies with {@link Storage#DISK}, a temporary one by default
+	 */
+	public String getDirectory() {
+		return directory;
+	}
+
+	public void setDirectory(String directory) {
+		this.directory = directory;
+	}
+
+	@Override
+	public String toString() {
+		return "ResponseCacheSettings [storage=" + storage + ", maxBytes=" + maxBytes + ", maxEntryBytes=" + maxEntryBytes
+				+ ", directory=" + directory + "]";
+	}
+}
@@ -0,0 +1,70 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.IOException;
+
+import org.apache.http.ContentTooLongException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.ContentBufferEntity;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SimpleInputBuffer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Async response consumer that buffers the response body in memory and hands the complete
+ * response to a blocking {@link ResponseHandler}, so the same handlers can be used with the
+ * sync and the async clients.
+ *
+ * The handler runs in an I/O dispatcher thread once the whole body has been received, so it
+ * must not block.
+ */
+class ResponseHandlerConsumer<T> extends AbstractAsyncResponseConsumer<T> {
+
+	private final ResponseHandler<? extends T> responseHandler;
+
+	private volatile HttpResponse response;
+	private volatile SimpleInputBuffer buffer;
+
+	ResponseHandlerConsumer(ResponseHandler<? extends T> responseHandler) {
+		this.responseHandler = responseHandler;
+	}
+
+	@Override
+	protected void onResponseReceived(HttpResponse response) throws IOException {
+		this.response = response;
+	}
+
+	@Override
+	protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+		long length = entity.getContentLength();
+		if (length > Integer.MAX_VALUE) {
+			throw new ContentTooLongException("Entity content is too long: " + length);
+		}
+		if (length < 0) {
+			length = 4096;
+		}
+		buffer = new SimpleInputBuffer((int) length, new HeapByteBufferAllocator());
+		response.setEntity(new ContentBufferEntity(entity, buffer));
+	}
+
+	@Override
+	protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+		buffer.consumeContent(decoder);
+	}
+
+	@Override
+	protected T buildResult(HttpContext context) throws Exception {
+		return responseHandler.handleResponse(response);
+	}
+
+	@Override
+	protected void releaseResources() {
+		response = null;
+		buffer = null;
+	}
+}
@@ -0,0 +1,73 @@
+package com.qumu.kerberos.client.httpclient;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.AuthProtocolState;
+import org.apache.http.auth.AuthScheme;
+import org.apache.http.auth.AuthState;
+import org.apache.http.client.AuthCache;
+import org.apache.http.client.config.AuthSchemes;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.TargetAuthenticationStrategy;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Target authentication strategy that keeps track of where SPNEGO authentication succeeded:
+ *
+ * - The hosts, in the {@link PreemptiveAuthCache} of the request context if there is one.
+ *   The default strategy only caches Basic and Digest schemes. Hosts are removed from the cache
+ *   when authentication fails through {@link TargetAuthenticationStrategy#authFailed}.
+ * - The connections, marking them as authenticated for the current principal when a response
+ *   is accepted and clearing the mark when the server asks for authentication again,
+ *   see {@link AuthenticatedConnections}.
+ *
+ * Challenges are reported to the client listeners, if any.
+ */
+public class SPNegoAuthenticationStrategy extends TargetAuthenticationStrategy {
+
+	private final CompositeClientListener listener;
+
+	public SPNegoAuthenticationStrategy() {
+		this(null);
+	}
+
+	SPNegoAuthenticationStrategy(CompositeClientListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public boolean isAuthenticationRequested(HttpHost authhost, HttpResponse response, HttpContext context) {
+		boolean requested = super.isAuthenticationRequested(authhost, response, context);
+		if (requested) {
+			AuthenticatedConnections.clear(context);
+			if (listener != null && listener.isEnabled()) {
+				listener.challengeReceived(authhost);
+			}
+		} else if (isNegotiated(HttpClientContext.adapt(context).getTargetAuthState())) {
+			AuthenticatedConnections.markAuthenticated(context, AuthenticatedConnections.currentPrincipal());
+		}
+		return requested;
+	}
+
+	@Override
+	public void authSucceeded(HttpHost authhost, AuthScheme authScheme, HttpContext context) {
+		AuthCache authCache = HttpClientContext.adapt(context).getAuthCache();
+		if (authCache instanceof PreemptiveAuthCache && isSPNego(authScheme)) {
+			authCache.put(authhost, authScheme);
+		} else {
+			super.authSucceeded(authhost, authScheme, context);
+		}
+	}
+
+	private static boolean isNegotiated(AuthState authState) {
+		if (authState == null || !isSPNego(authState.getAuthScheme())) {
+			return false;
+		}
+		AuthProtocolState state = authState.getState();
+		return state == AuthProtocolState.CHALLENGED || state == AuthProtocolState.HANDSHAKE || state == AuthProtocolState.SUCCESS;
+	}
+
+	private static boolean isSPNego(AuthScheme authScheme) {
+		return authScheme != null && AuthSchemes.SPNEGO.equalsIgnoreCase(authScheme.getSchemeName());
+	}
+}
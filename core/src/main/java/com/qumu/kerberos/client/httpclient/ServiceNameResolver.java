@@ -0,0 +1,164 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.GSSName;
+import org.ietf.jgss.Oid;
+
+/**
+ * Resolves the GSS name of the service to authenticate against for each target server (authServer).
+ *
+ * The user principal is parsed once, when the resolver is created, to get the service type of host
+ * based names (SERV in SERV/host@DOMAIN.COM, HTTP by default) or the fixed service principal of user
+ * based names. The canonical names of each server are kept in a bounded map shared by all the schemes
+ * of a factory, so they are only created and canonicalized (which can involve a DNS lookup) once.
+ * When the map is full, the oldest server is evicted.
+ */
+public class ServiceNameResolver {
+
+	private static final Log LOG = LogFactory.getLog(ServiceNameResolver.class);
+
+	/** Default maximum number of servers whose names are kept */
+	public static final int DEFAULT_MAX_ENTRIES = 256;
+
+	private static final String DEFAULT_SERVICE = "HTTP";
+
+	private final Oid nameType;
+	private final String hostBasedPrefix;
+	private final String fixedName;
+	private final int maxEntries;
+
+	private final ConcurrentMap<String, ResolvedName> names = new ConcurrentHashMap<String, ResolvedName>();
+	private final Queue<String> insertionOrder = new ConcurrentLinkedQueue<String>();
+
+	public ServiceNameResolver(String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType) {
+		this(userPrincipal, servicePrincipal, serviceNameType, DEFAULT_MAX_ENTRIES);
+	}
+
+	public ServiceNameResolver(String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType, int maxEntries) {
+		this.maxEntries = maxEntries;
+
+		if (serviceNameType == ServiceNameType.USER_BASED) {
+			// NT_USER_NAME is the same as KRB5_PRINCIPAL_NAME oid
+			this.nameType = GSSName.NT_USER_NAME;
+			this.hostBasedPrefix = null;
+			this.fixedName = servicePrincipal;
+		} else {
+			// HOST_BASED or the default implementation: the service of the user principal (HTTP by default) at the server
+			this.nameType = GSSName.NT_HOSTBASED_SERVICE;
+			this.hostBasedPrefix = serviceOf(userPrincipal) + "@";
+			this.fixedName = null;
+		}
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Principal is: " + userPrincipal + ", serviceNameType is: " + serviceNameType
+					+ ", GSS names will be " + (fixedName != null ? fixedName : hostBasedPrefix + "<authServer>"));
+		}
+	}
+
+	/**
+	 * Service type of the principal: SERV for SERV/user.domain.com@DOMAIN.COM, HTTP for user@DOMAIN.COM
+	 */
+	private static String serviceOf(String userPrincipal) {
+		if (userPrincipal == null) {
+			return DEFAULT_SERVICE;
+		}
+		int slash = userPrincipal.indexOf('/');
+		int at = userPrincipal.indexOf('@');
+		if (slash > 0 && (at < 0 || slash < at)) {
+			return userPrincipal.substring(0, slash);
+		}
+		return DEFAULT_SERVICE;
+	}
+
+	/**
+	 * Creates the GSS name of the service at the given server, without canonicalizing or caching it
+	 */
+	public GSSName createName(GSSManager manager, String authServer) throws GSSException {
+		String nameStr = fixedName != null ? fixedName : hostBasedPrefix + authServer;
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Generated GSSName: " + nameStr + " for authServer: " + authServer);
+		}
+		return manager.createName(nameStr, nameType);
+	}
+
+	/**
+	 * Returns the canonical name of the service at the given server for a mechanism, creating it
+	 * the first time
+	 */
+	ResolvedName resolve(GSSManager manager, String authServer, Oid mechanism) throws GSSException {
+		String key = mechanism + "|" + authServer;
+		ResolvedName resolved = names.get(key);
+		if (resolved != null) {
+			return resolved;
+		}
+
+		GSSName name = createName(manager, authServer);
+		resolved = new ResolvedName(name.canonicalize(mechanism), toKerberosServiceName(name));
+		if (names.putIfAbsent(key, resolved) == null) {
+			insertionOrder.add(key);
+			evict();
+		}
+		return resolved;
+	}
+
+	private void evict() {
+		while (names.size() > maxEntries) {
+			String eldest = insertionOrder.poll();
+			if (eldest == null) {
+				return;
+			}
+			names.remove(eldest);
+		}
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	public void clear() {
+		names.clear();
+		insertionOrder.clear();
+	}
+
+	/**
+	 * Kerberos principal name, without realm, of the service the GSS name refers to
+	 * (SERV@host is SERV/host for a host based name)
+	 */
+	private static String toKerberosServiceName(GSSName gssName) throws GSSException {
+		String name = gssName.toString();
+		if (GSSName.NT_HOSTBASED_SERVICE.equals(gssName.getStringNameType())) {
+			return name.replaceFirst("@", "/");
+		}
+		return ServiceTicketCache.stripRealm(name);
+	}
+
+	/**
+	 * Canonical name of the service at a server, along with its Kerberos principal name
+	 */
+	static class ResolvedName {
+
+		private final GSSName canonicalName;
+		private final String kerberosServiceName;
+
+		ResolvedName(GSSName canonicalName, String kerberosServiceName) {
+			this.canonicalName = canonicalName;
+			this.kerberosServiceName = kerberosServiceName;
+		}
+
+		GSSName getCanonicalName() {
+			return canonicalName;
+		}
+
+		String getKerberosServiceName() {
+			return kerberosServiceName;
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ietf.jgss.GSSCredential;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.GSSName;
+import org.ietf.jgss.Oid;
+
+/**
+ * Cache of the GSS state needed to authenticate against a given target server (authServer),
+ * so only the authenticator has to be generated on every request.
+ *
+ * For each authServer and mechanism it keeps the canonicalized {@link GSSName} of the service,
+ * the initiator {@link GSSCredential} built from the Subject in use and the service ticket obtained
+ * for it. GSS-API stores the service tickets it obtains in the (writable) Subject and looks them up
+ * there before asking the KDC, so keeping the Subject and the ticket around avoids the TGS-REQ for
+ * every request to the same host.
+ *
+ * Entries are dropped when the service ticket or the credential expire, or when the Subject changes
+ * after a new login. Concurrent requests missing the same entry wait for a single acquisition.
+ */
+public class ServiceTicketCache {
+
+	private static final Log LOG = LogFactory.getLog(ServiceTicketCache.class);
+
+	/** Time before the ticket end time at which an entry is considered expired */
+	private static final long EXPIRY_MARGIN_MILLIS = 30 * 1000L;
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final SingleFlight<String, Entry> acquisitions = new SingleFlight<String, Entry>();
+	private volatile PersistentCredentialCache credentialCache;
+
+	/**
+	 * Returns the cached entry for the server and mechanism if it is still valid for the given Subject
+	 *
+	 * @param authServer target server
+	 * @param oid GSS mechanism
+	 * @param subject Subject the request is running under, can be null
+	 * @return the entry or null if there is none or it is no longer usable
+	 */
+	Entry get(String authServer, Oid oid, Subject subject) {
+		String key = key(authServer, oid);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+
+		if (entry.subject != subject || entry.isExpired(System.currentTimeMillis())) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Discarding cached GSS state for " + authServer);
+			}
+			entries.remove(key, entry);
+			entry.removeTicket();
+			return null;
+		}
+		entry.markUsed();
+		return entry;
+	}
+
+	/**
+	 * Runs the acquisition of the entry for a server, unless one is already in flight for the server and
+	 * mechanism, in which case it waits for it and returns its entry. So concurrent requests missing the
+	 * cache do a single TGS exchange. If the acquisition fails, all the requests waiting for it fail.
+	 *
+	 * @param authServer target server
+	 * @param oid GSS mechanism
+	 * @param acquisition creates the entry and obtains its service ticket
+	 * @return the entry created by this acquisition or the one in flight
+	 * @throws GSSException if the acquisition fails
+	 */
+	Entry acquire(String authServer, Oid oid, Callable<Entry> acquisition) throws GSSException {
+		try {
+			return acquisitions.execute(key(authServer, oid), acquisition);
+		} catch (GSSException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			GSSException gssException = new GSSException(GSSException.FAILURE, 0, "Interrupted while waiting for the service ticket of " + authServer);
+			gssException.initCause(e);
+			throw gssException;
+		}
+	}
+
+	void put(String authServer, Oid oid, Entry entry) {
+		entries.put(key(authServer, oid), entry);
+	}
+
+	/**
+	 * Sets the cache on disk the service tickets are written to when they are obtained, can be null
+	 */
+	void setCredentialCache(PersistentCredentialCache credentialCache) {
+		this.credentialCache = credentialCache;
+	}
+
+	/**
+	 * Writes the tickets of the Subject to the cache on disk after a service ticket was obtained, if there is one
+	 */
+	void storeCredentials(Subject subject) {
+		PersistentCredentialCache cache = credentialCache;
+		if (cache != null && subject != null) {
+			cache.store(subject);
+		}
+	}
+
+	/**
+	 * Drops the entry for a server, i.e. after its ticket was rejected
+	 */
+	void remove(String authServer, Oid oid) {
+		Entry entry = entries.remove(key(authServer, oid));
+		if (entry != null) {
+			entry.removeTicket();
+		}
+	}
+
+	/**
+	 * Live view of the cached entries, used by the background renewal of their tickets
+	 */
+	Collection<Entry> entries() {
+		return entries.values();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	private static String key(String authServer, Oid oid) {
+		return oid + "|" + authServer;
+	}
+
+	/**
+	 * Cached state for one target server
+	 */
+	static class Entry {
+
+		private final GSSName serviceName;
+		private final GSSCredential credential;
+		private final Subject subject;
+		private final String servicePrincipal;
+		private final long credentialEndTime;
+		private volatile KerberosTicket ticket;
+		private volatile boolean used = true;
+
+		Entry(GSSName serviceName, GSSCredential credential, Subject subject, String servicePrincipal) throws GSSException {
+			this.serviceName = serviceName;
+			this.credential = credential;
+			this.subject = subject;
+			this.servicePrincipal = servicePrincipal;
+			if (credential != null && credential.getRemainingLifetime() != GSSCredential.INDEFINITE_LIFETIME) {
+				this.credentialEndTime = System.currentTimeMillis() + credential.getRemainingLifetime() * 1000L;
+			} else {
+				this.credentialEndTime = Long.MAX_VALUE;
+			}
+		}
+
+		GSSName getServiceName() {
+			return serviceName;
+		}
+
+		GSSCredential getCredential() {
+			return credential;
+		}
+
+		KerberosTicket getTicket() {
+			return ticket;
+		}
+
+		Subject getSubject() {
+			return subject;
+		}
+
+		String getServicePrincipal() {
+			return servicePrincipal;
+		}
+
+		/**
+		 * Looks up the service ticket GSS-API stored in the Subject after a security context was initiated
+		 */
+		void resolveTicket() {
+			if (ticket != null || subject == null || servicePrincipal == null) {
+				return;
+			}
+			ticket = findTicket(subject, servicePrincipal);
+		}
+
+		/**
+		 * Puts a renewed service ticket in the Subject in place of the current one, requests keep
+		 * finding a valid ticket for the service all along
+		 */
+		void replaceTicket(KerberosTicket renewed) {
+			synchronized (subject.getPrivateCredentials()) {
+				subject.getPrivateCredentials().add(renewed);
+				removeTicket();
+			}
+			ticket = renewed;
+			used = false;
+		}
+
+		/**
+		 * Records that the entry was used by a request
+		 */
+		void markUsed() {
+			if (!used) {
+				used = true;
+			}
+		}
+
+		/**
+		 * Whether the entry was used since its ticket was obtained or last renewed
+		 */
+		boolean isUsed() {
+			return used;
+		}
+
+		boolean isExpired(long now) {
+			long endTime = credentialEndTime;
+			KerberosTicket current = ticket;
+			if (current != null && current.getEndTime() != null) {
+				endTime = Math.min(endTime, current.getEndTime().getTime());
+			}
+			return now >= endTime - EXPIRY_MARGIN_MILLIS;
+		}
+
+		/**
+		 * Removes the expired ticket from the Subject so GSS-API asks the KDC for a new one
+		 */
+		void removeTicket() {
+			KerberosTicket current = ticket;
+			if (current != null && subject != null && !subject.isReadOnly()) {
+				synchronized (subject.getPrivateCredentials()) {
+					Iterator<Object> it = subject.getPrivateCredentials().iterator();
+					while (it.hasNext()) {
+						if (it.next() == current) {
+							it.remove();
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the ticket for a service among the private credentials of a Subject
+	 *
+	 * @param subject Subject holding the tickets
+	 * @param servicePrincipal service principal name, without realm
+	 * @return the ticket or null if the Subject does not have one for the service
+	 */
+	static KerberosTicket findTicket(Subject subject, String servicePrincipal) {
+		for (KerberosTicket candidate : subject.getPrivateCredentials(KerberosTicket.class)) {
+			KerberosPrincipal server = candidate.getServer();
+			if (server != null && servicePrincipal.equals(stripRealm(server.getName()))) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	static String stripRealm(String principal) {
+		int at = principal.lastIndexOf('@');
+		return at >= 0 ? principal.substring(0, at) : principal;
+	}
+}
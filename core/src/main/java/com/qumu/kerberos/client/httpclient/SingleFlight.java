@@ -0,0 +1,71 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller runs the call and the ones arriving
+ * while it is in flight wait for it and get its result instead of running their own.
+ *
+ * If the call fails, all the callers waiting for it get the same exception, none of them retries on its own.
+ * The next call for the key, once the failed one is over, runs again.
+ */
+final class SingleFlight<K, V> {
+
+	private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<K, CompletableFuture<V>>();
+
+	/**
+	 * Runs the call, or waits for the one in flight for the same key
+	 *
+	 * @param key key of the call
+	 * @param call call to run if there is none in flight
+	 * @return the result of the call
+	 * @throws Exception the exception thrown by the call, or InterruptedException if interrupted while waiting
+	 */
+	V execute(K key, Callable<? extends V> call) throws Exception {
+		CompletableFuture<V> flight = new CompletableFuture<V>();
+		CompletableFuture<V> inFlight = calls.putIfAbsent(key, flight);
+		if (inFlight != null) {
+			return await(inFlight);
+		}
+
+		try {
+			V result = call.call();
+			flight.complete(result);
+			return result;
+		} catch (Exception | Error e) {
+			flight.completeExceptionally(e);
+			throw e;
+		} finally {
+			calls.remove(key, flight);
+		}
+	}
+
+	/**
+	 * Number of calls in flight
+	 */
+	int size() {
+		return calls.size();
+	}
+
+	private static <V> V await(CompletableFuture<V> flight) throws Exception {
+		try {
+			return flight.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Base64;
+
+import javax.security.auth.Subject;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSCredential;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.GSSName;
+import org.ietf.jgss.Oid;
+
+/**
+ * Generates the SPNEGO tokens of a user principal for the servers it calls, independently of the HTTP
+ * library that sends them: {@link CustomSPNegoScheme} uses it for HttpClient and {@link KerberosTransportClient}
+ * for any {@link KerberosTransport}.
+ *
+ * The name of the service at each server is built according to the {@link ServiceNameType}, and the
+ * names, credentials and service tickets are kept in a {@link ServiceTicketCache}, so only the first
+ * token for a server goes to the KDC.
+ */
+public class SpnegoAuthenticator {
+
+	private static final Log LOG = LogFactory.getLog(SpnegoAuthenticator.class);
+
+	/** Prefix of the Authorization and WWW-Authenticate headers of the Negotiate scheme */
+	public static final String NEGOTIATE = "Negotiate";
+
+	private static final String SPNEGO_OID = "1.3.6.1.5.5.2";
+
+	private final String userPrincipal;
+	private final String servicePrincipal;
+	private final ServiceNameType serviceNameType;
+	private final ServiceTicketCache ticketCache;
+	private final ServiceNameResolver nameResolver;
+	private volatile CompositeClientListener listener;
+	private volatile TokenPool tokenPool;
+
+	public SpnegoAuthenticator(String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType) {
+		this(userPrincipal, servicePrincipal, serviceNameType, new ServiceTicketCache(),
+				new ServiceNameResolver(userPrincipal, servicePrincipal, serviceNameType));
+	}
+
+	public SpnegoAuthenticator(String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType, ServiceTicketCache ticketCache,
+			ServiceNameResolver nameResolver) {
+		this.userPrincipal = userPrincipal;
+		this.servicePrincipal = servicePrincipal;
+		this.serviceNameType = serviceNameType;
+		this.ticketCache = ticketCache;
+		this.nameResolver = nameResolver;
+	}
+
+	/**
+	 * Sets the listeners notified of the ticket cache lookups and token generations
+	 */
+	void setListener(CompositeClientListener listener) {
+		this.listener = listener;
+	}
+
+	CompositeClientListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Generates the first token of the requests ahead of time in a background thread, see {@link TokenPool}.
+	 * Disabled by default.
+	 *
+	 * @param settings size and maximum age of the tokens, replacing the current pool if it was already enabled
+	 */
+	public synchronized void enableTokenPool(TokenPoolSettings settings) {
+		disableTokenPool();
+		tokenPool = new TokenPool(settings, this);
+	}
+
+	/**
+	 * Stops generating tokens ahead of time and discards the ready ones
+	 */
+	public synchronized void disableTokenPool() {
+		if (tokenPool != null) {
+			tokenPool.close();
+			tokenPool = null;
+		}
+	}
+
+	/**
+	 * Pool of tokens, with its statistics, or null if it is not enabled
+	 */
+	public TokenPool getTokenPool() {
+		return tokenPool;
+	}
+
+	/**
+	 * Cache of service names, credentials and tickets of the servers the tokens were generated for
+	 */
+	public ServiceTicketCache getTicketCache() {
+		return ticketCache;
+	}
+
+	/**
+	 * Canonical service names of the servers the tokens were generated for
+	 */
+	public ServiceNameResolver getNameResolver() {
+		return nameResolver;
+	}
+
+	/**
+	 * Generates the value of the Authorization header of a request to the given server, with a new SPNEGO token.
+	 * Each request needs its own token, the server rejects a token sent twice as a replay.
+	 *
+	 * @param authServer host name of the server
+	 * @param subject logged in Subject of the user principal, the token is generated under it
+	 * @return {@code Negotiate <token>}
+	 * @throws GSSException if the token can not be generated, i.e. the service ticket can not be obtained
+	 */
+	public String generateAuthorization(final String authServer, final Subject subject) throws GSSException {
+		final Oid oid = new Oid(SPNEGO_OID);
+		byte[] token;
+		if (subject == null || subject == Subject.getSubject(AccessController.getContext())) {
+			token = generateToken(null, oid, authServer, subject, null);
+		} else {
+			try {
+				token = Subject.doAs(subject, new PrivilegedExceptionAction<byte[]>() {
+					@Override
+					public byte[] run() throws GSSException {
+						return generateToken(null, oid, authServer, subject, null);
+					}
+				});
+			} catch (PrivilegedActionException e) {
+				throw (GSSException) e.getException();
+			}
+		}
+		return NEGOTIATE + " " + Base64.getEncoder().encodeToString(token);
+	}
+
+	/**
+	 * Obtains the service ticket of the given server, unless it is already cached for the Subject, so the next
+	 * tokens for the server are generated without a call to the KDC
+	 *
+	 * @param authServer host name of the server
+	 * @param subject logged in Subject of the user principal
+	 * @throws GSSException if the service ticket can not be obtained
+	 */
+	void acquireServiceTicket(String authServer, Subject subject) throws GSSException {
+		if (ticketCache.get(authServer, new Oid(SPNEGO_OID), subject) == null) {
+			// The token itself is discarded, each request needs its own
+			generateAuthorization(authServer, subject);
+		}
+	}
+
+	/**
+	 * Generates a token for the given server. It must run inside Subject.doAs with the given Subject, which
+	 * holds the TGT and the service tickets obtained so far.
+	 *
+	 * @param input token received from the server, null for the first one
+	 * @param oid mechanism of the token, SPNEGO or Kerberos
+	 * @param authServer host name of the server
+	 * @param subject Subject the call runs under, null to let GSS-API use its defaults
+	 * @param credential initiator credential to use instead of the one of the Subject, null for the Subject's
+	 * @return the token
+	 * @throws GSSException if the token can not be generated
+	 */
+	public byte[] generateToken(byte[] input, Oid oid, String authServer, Subject subject, GSSCredential credential) throws GSSException {
+		TokenPool pool = tokenPool;
+		if (pool != null && (input == null || input.length == 0) && subject != null && credential == null) {
+			// Only the first tokens of the Subject's credential can be generated ahead of time
+			byte[] token = pool.take(authServer, oid, subject);
+			if (token != null) {
+				return token;
+			}
+		}
+		return mintToken(input, oid, authServer, subject, credential);
+	}
+
+	/**
+	 * Generates a token, see {@link #generateToken(byte[], Oid, String, Subject, GSSCredential)}, without taking it from the pool
+	 */
+	byte[] mintToken(byte[] input, final Oid oid, final String authServer, final Subject subject, final GSSCredential credential)
+			throws GSSException {
+		final byte[] inputBuff = input != null ? input : new byte[0];
+		final GSSManager manager = GSSManager.getInstance();
+
+		final CompositeClientListener listener = this.listener;
+		final boolean instrumented = listener != null && listener.isEnabled();
+		final long start = instrumented ? System.nanoTime() : 0;
+
+		ServiceTicketCache.Entry entry = ticketCache.get(authServer, oid, subject);
+		final boolean cacheHit = entry != null;
+		if (instrumented) {
+			if (cacheHit) {
+				listener.ticketCacheHit(authServer);
+			} else {
+				listener.ticketCacheMiss(authServer);
+			}
+		}
+
+		byte[] token = null;
+		try {
+			if (entry == null) {
+				// Concurrent requests missing the same server wait for a single TGS exchange
+				final byte[][] acquiredToken = new byte[1][];
+				entry = ticketCache.acquire(authServer, oid, () -> {
+					ServiceTicketCache.Entry acquired = createEntry(manager, oid, authServer, subject, credential);
+					acquiredToken[0] = initSecContext(manager, acquired, oid, inputBuff);
+					acquired.resolveTicket();
+					ticketCache.put(authServer, oid, acquired);
+					ticketCache.storeCredentials(subject);
+					return acquired;
+				});
+				token = acquiredToken[0];
+				if (token == null && entry.getSubject() != subject) {
+					// The acquisition waited for was done under another Subject (i.e. before a new login)
+					entry = createEntry(manager, oid, authServer, subject, credential);
+				}
+			} else if (LOG.isDebugEnabled()) {
+				LOG.debug("Reusing cached GSS name and credential for authServer: " + authServer);
+			}
+
+			if (token == null) {
+				token = initSecContext(manager, entry, oid, inputBuff);
+			}
+		} catch (GSSException e) {
+			ticketCache.remove(authServer, oid);
+			if (instrumented) {
+				listener.tokenGenerated(authServer, System.nanoTime() - start, cacheHit, false);
+			}
+			throw e;
+		}
+
+		entry.resolveTicket();
+		ticketCache.put(authServer, oid, entry);
+		if (instrumented) {
+			listener.tokenGenerated(authServer, System.nanoTime() - start, cacheHit, true);
+		}
+		return token;
+	}
+
+	/**
+	 * Creates the cache entry of a server: the canonical name of its service and the initiator credential
+	 */
+	private ServiceTicketCache.Entry createEntry(GSSManager manager, Oid oid, String authServer, Subject subject, GSSCredential credential)
+			throws GSSException {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Resolving GSS name, authServer is: " + authServer + ", principal: " + userPrincipal +
+					  ", serviceNameType: " + serviceNameType + ", servicePrincipal: " + servicePrincipal);
+		}
+		ServiceNameResolver.ResolvedName serviceName = nameResolver.resolve(manager, authServer, oid);
+		GSSCredential gssCredential = credential != null ? credential : generateGSSCredential(manager, oid, subject);
+		return new ServiceTicketCache.Entry(serviceName.getCanonicalName(), gssCredential, subject, serviceName.getKerberosServiceName());
+	}
+
+	/**
+	 * Generates the token for the service of the entry, getting its service ticket from the KDC if it is not in the Subject
+	 */
+	private static byte[] initSecContext(GSSManager manager, ServiceTicketCache.Entry entry, Oid oid, byte[] input) throws GSSException {
+		GSSContext gssContext = manager.createContext(entry.getServiceName(), oid, entry.getCredential(), GSSContext.DEFAULT_LIFETIME);
+		gssContext.requestMutualAuth(true);
+		gssContext.requestCredDeleg(true);
+		return gssContext.initSecContext(input, 0, input.length);
+	}
+
+	/**
+	 * Builds the initiator credential for the Subject the request runs under, so the
+	 * GSS context does not have to look it up again for every token
+	 */
+	private static GSSCredential generateGSSCredential(GSSManager manager, Oid oid, Subject subject) throws GSSException {
+		if (subject == null) {
+			// No Subject to take the credential from, let GSS-API use its defaults
+			return null;
+		}
+
+		return manager.createCredential(null, GSSCredential.DEFAULT_LIFETIME, oid, GSSCredential.INITIATE_ONLY);
+	}
+
+	/**
+	 * Creates the GSS name of the service at the given server, without the cache of canonical names
+	 */
+	GSSName generateGSSName(GSSManager manager, String authServer) throws GSSException {
+		return nameResolver.createName(manager, authServer);
+	}
+}
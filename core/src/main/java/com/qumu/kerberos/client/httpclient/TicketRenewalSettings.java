@@ -0,0 +1,96 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of the background renewal of tickets, see {@link KerberosHttpClient#enableTicketRenewal(TicketRenewalSettings)}.
+ *
+ * A ticket is renewed once the given fraction of its lifetime has passed, plus or minus a random jitter, so
+ * clients started at the same time do not all go to the KDC at the same moment. Failed renewals are retried
+ * with an exponential backoff, also jittered.
+ */
+public class TicketRenewalSettings {
+
+	/** Default fraction of the lifetime of a ticket after which it is renewed */
+	public static final double DEFAULT_RENEWAL_FRACTION = 0.8;
+
+	/** Default maximum deviation, as a fraction of the ticket lifetime, of the renewal time */
+	public static final double DEFAULT_JITTER_FRACTION = 0.05;
+
+	/** Default time between checks of the tickets to renew */
+	public static final long DEFAULT_CHECK_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+	/** Default time before the first retry of a failed renewal */
+	public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+	/** Default maximum time between retries of a failed renewal */
+	public static final long DEFAULT_MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	private double renewalFraction = DEFAULT_RENEWAL_FRACTION;
+	private double jitterFraction = DEFAULT_JITTER_FRACTION;
+	private long checkIntervalMillis = DEFAULT_CHECK_INTERVAL_MILLIS;
+	private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+	private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+
+	/**
+	 * Fraction of the lifetime of a ticket, between 0 and 1, after which it is renewed
+	 */
+	public double getRenewalFraction() {
+		return renewalFraction;
+	}
+
+	public void setRenewalFraction(double renewalFraction) {
+		if (renewalFraction <= 0 || renewalFraction >= 1) {
+			throw new IllegalArgumentException("The renewal fraction must be between 0 and 1: " + renewalFraction);
+		}
+		this.renewalFraction = renewalFraction;
+	}
+
+	/**
+	 * Maximum deviation of the renewal time, as a fraction of the ticket lifetime
+	 */
+	public double getJitterFraction() {
+		return jitterFraction;
+	}
+
+	public void setJitterFraction(double jitterFraction) {
+		if (jitterFraction < 0 || jitterFraction >= 1) {
+			throw new IllegalArgumentException("The jitter fraction must be between 0 and 1: " + jitterFraction);
+		}
+		this.jitterFraction = jitterFraction;
+	}
+
+	/**
+	 * Time between checks of the tickets to renew, it bounds how late after its renewal time a ticket is renewed
+	 */
+	public long getCheckIntervalMillis() {
+		return checkIntervalMillis;
+	}
+
+	public void setCheckIntervalMillis(long checkIntervalMillis) {
+		this.checkIntervalMillis = checkIntervalMillis;
+	}
+
+	public long getInitialBackoffMillis() {
+		return initialBackoffMillis;
+	}
+
+	public void setInitialBackoffMillis(long initialBackoffMillis) {
+		this.initialBackoffMillis = initialBackoffMillis;
+	}
+
+	public long getMaxBackoffMillis() {
+		return maxBackoffMillis;
+	}
+
+	public void setMaxBackoffMillis(long maxBackoffMillis) {
+		this.maxBackoffMillis = maxBackoffMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "TicketRenewalSettings [renewalFraction=" + renewalFraction + ", jitterFraction=" + jitterFraction
+				+ ", checkIntervalMillis=" + checkIntervalMillis + ", initialBackoffMillis=" + initialBackoffMillis
+				+ ", maxBackoffMillis=" + maxBackoffMillis + "]";
+	}
+}
@@ -0,0 +1,304 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.login.LoginException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.GSSName;
+import org.ietf.jgss.Oid;
+
+/**
+ * Renews the tickets of a set of principals in a background thread, before they expire, so requests
+ * do not have to wait for a login or a TGS exchange.
+ *
+ * Each ticket gets a renewal time at the configured fraction of its lifetime, plus or minus a random jitter,
+ * and the thread checks periodically which ones are due:
+ *
+ * - The TGT is renewed with a new login. The service tickets in use are obtained with the new TGT before the
+ *   new Subject replaces the current one, so requests find them in place.
+ * - A service ticket that expires before the TGT, and that was used since it was obtained, is obtained again
+ *   in a copy of the Subject and then swapped into the Subject. Unused ones are left to expire.
+ *
+ * Failed renewals are retried with a jittered exponential backoff. Renewals and failures are reported to
+ * the listeners.
+ */
+class TicketRenewer {
+
+	private static final Log LOG = LogFactory.getLog(TicketRenewer.class);
+
+	private static final int MAX_BACKOFF_SHIFT = 20;
+
+	private final TicketRenewalSettings settings;
+	private final Iterable<ClientPrincipal> principals;
+	private final CompositeClientListener listener;
+	private final ScheduledExecutorService scheduler;
+	private final Oid spnegoOid;
+
+	// Only accessed by the renewal thread
+	private final Map<KerberosTicket, Schedule> schedules = new IdentityHashMap<KerberosTicket, Schedule>();
+
+	/**
+	 * @param settings renewal settings
+	 * @param principals live view of the principals whose tickets are renewed
+	 * @param listener listeners to report the renewals to
+	 */
+	TicketRenewer(TicketRenewalSettings settings, Iterable<ClientPrincipal> principals, CompositeClientListener listener) {
+		this.settings = settings;
+		this.principals = principals;
+		this.listener = listener;
+		try {
+			this.spnegoOid = new Oid("1.3.6.1.5.5.2");
+		} catch (GSSException e) {
+			throw new RuntimeException("Error creating the SPNEGO oid", e);
+		}
+
+		long interval = Math.max(settings.getCheckIntervalMillis(), 1);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "kerberos-ticket-renewer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// Clients started together do not check at the same moment either
+		long initialDelay = 1 + ThreadLocalRandom.current().nextLong(interval);
+		this.scheduler.scheduleWithFixedDelay(this::check, initialDelay, interval, TimeUnit.MILLISECONDS);
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Started ticket renewal, " + settings);
+		}
+	}
+
+	void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Renews the tickets that are due, called periodically by the renewal thread
+	 */
+	void check() {
+		try {
+			long now = System.currentTimeMillis();
+			Set<KerberosTicket> current = Collections.newSetFromMap(new IdentityHashMap<KerberosTicket, Boolean>());
+			for (ClientPrincipal principal : principals) {
+				check(principal, now, current);
+			}
+			// Forget the tickets that were renewed, expired or belong to evicted principals
+			schedules.keySet().retainAll(current);
+		} catch (RuntimeException e) {
+			// Keep the periodic check alive
+			LOG.warn("Error checking the tickets to renew", e);
+		}
+	}
+
+	private void check(ClientPrincipal principal, long now, Set<KerberosTicket> current) {
+		KerberosCredentialHolder credentialHolder = principal.getCredentialHolder();
+		Subject subject = credentialHolder.getCurrentSubject();
+		if (subject == null) {
+			// Not logged in yet, the first request will
+			return;
+		}
+
+		long tgtRenewalTime = Long.MAX_VALUE;
+		KerberosTicket tgt = credentialHolder.getCurrentTgt();
+		if (tgt != null) {
+			current.add(tgt);
+			if (isDue(tgt, now)) {
+				// The service tickets in use are obtained again along with the TGT
+				renewTgt(principal, subject, tgt, now);
+				return;
+			}
+			tgtRenewalTime = schedules.get(tgt).nextAttempt;
+		}
+
+		for (ServiceTicketCache.Entry entry : principal.getTicketCache().entries()) {
+			KerberosTicket ticket = entry.getTicket();
+			if (ticket == null || entry.getSubject() != subject) {
+				continue;
+			}
+			current.add(ticket);
+			// Tickets lasting until the TGT renewal are obtained again along with it. The others would be capped
+			// at the expiry of the current TGT anyway.
+			boolean outlastsTgt = ticket.getEndTime() == null || ticket.getEndTime().getTime() >= tgtRenewalTime;
+			if (!outlastsTgt && isDue(ticket, now) && entry.isUsed()) {
+				renewServiceTicket(principal, entry, ticket, now);
+			}
+		}
+	}
+
+	private void renewTgt(final ClientPrincipal principal, final Subject subject, KerberosTicket tgt, long now) {
+		String userPrincipal = principal.getUserPrincipal();
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Renewing the TGT of " + userPrincipal + ", it expires at " + tgt.getEndTime());
+		}
+
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			principal.getCredentialHolder().renew(listener, renewed -> obtainServiceTickets(principal, subject, renewed));
+			success = true;
+		} catch (LoginException | RuntimeException e) {
+			long retryAt = backoff(tgt, now);
+			LOG.warn("Error renewing the TGT of " + userPrincipal + ", retrying in " + (retryAt - now) + " ms", e);
+		} finally {
+			reportRenewal(userPrincipal, null, start, success);
+		}
+	}
+
+	/**
+	 * Obtains, with a new TGT, the service tickets used with the current one
+	 */
+	private void obtainServiceTickets(ClientPrincipal principal, Subject subject, Subject renewed) {
+		for (ServiceTicketCache.Entry entry : principal.getTicketCache().entries()) {
+			if (entry.getSubject() != subject || !entry.isUsed()) {
+				continue;
+			}
+			long start = System.nanoTime();
+			boolean success = false;
+			try {
+				obtainServiceTicket(renewed, entry.getServiceName());
+				success = true;
+			} catch (GSSException e) {
+				// The first request to the server will get it
+				LOG.warn("Error obtaining the service ticket for " + entry.getServicePrincipal() + " with the renewed TGT", e);
+			} finally {
+				reportRenewal(principal.getUserPrincipal(), entry.getServicePrincipal(), start, success);
+			}
+		}
+	}
+
+	private void renewServiceTicket(ClientPrincipal principal, ServiceTicketCache.Entry entry, KerberosTicket ticket, long now) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Renewing the service ticket of " + principal.getUserPrincipal() + " for " + entry.getServicePrincipal()
+					+ ", it expires at " + ticket.getEndTime());
+		}
+
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			// Requests keep using the current ticket while the new one is obtained in a copy of the Subject without it
+			Subject copy = withoutServiceTickets(entry.getSubject());
+			obtainServiceTicket(copy, entry.getServiceName());
+			KerberosTicket renewed = ServiceTicketCache.findTicket(copy, entry.getServicePrincipal());
+			if (renewed == null) {
+				throw new GSSException(GSSException.NO_CRED, 0, "No service ticket obtained for " + entry.getServicePrincipal());
+			}
+			entry.replaceTicket(renewed);
+			principal.getTicketCache().storeCredentials(entry.getSubject());
+			success = true;
+		} catch (GSSException | RuntimeException e) {
+			long retryAt = backoff(ticket, now);
+			LOG.warn("Error renewing the service ticket for " + entry.getServicePrincipal() + ", retrying in " + (retryAt - now) + " ms", e);
+		} finally {
+			reportRenewal(principal.getUserPrincipal(), entry.getServicePrincipal(), start, success);
+		}
+	}
+
+	/**
+	 * Initiates a security context with the service under the Subject, so GSS-API gets a service ticket
+	 * from the KDC and stores it in the Subject
+	 */
+	private void obtainServiceTicket(Subject subject, final GSSName serviceName) throws GSSException {
+		try {
+			Subject.doAs(subject, new PrivilegedExceptionAction<Void>() {
+				@Override
+				public Void run() throws GSSException {
+					GSSContext context = GSSManager.getInstance().createContext(serviceName, spnegoOid, null, GSSContext.DEFAULT_LIFETIME);
+					try {
+						context.initSecContext(new byte[0], 0, 0);
+					} finally {
+						context.dispose();
+					}
+					return null;
+				}
+			});
+		} catch (PrivilegedActionException e) {
+			throw (GSSException) e.getException();
+		}
+	}
+
+	/**
+	 * Copy of the Subject with its principals, keys and TGT but none of its service tickets
+	 */
+	private static Subject withoutServiceTickets(Subject subject) {
+		Set<Object> privateCredentials = new HashSet<Object>();
+		synchronized (subject.getPrivateCredentials()) {
+			for (Object credential : subject.getPrivateCredentials()) {
+				if (!(credential instanceof KerberosTicket) || KerberosCredentialHolder.isTgt((KerberosTicket) credential)) {
+					privateCredentials.add(credential);
+				}
+			}
+		}
+		return new Subject(false, subject.getPrincipals(), subject.getPublicCredentials(), privateCredentials);
+	}
+
+	private boolean isDue(KerberosTicket ticket, long now) {
+		Schedule schedule = schedules.get(ticket);
+		if (schedule == null) {
+			schedule = new Schedule(renewalTime(ticket));
+			schedules.put(ticket, schedule);
+		}
+		return now >= schedule.nextAttempt;
+	}
+
+	/**
+	 * Time at the renewal fraction of the ticket lifetime, moved by a random jitter
+	 */
+	private long renewalTime(KerberosTicket ticket) {
+		if (ticket.getEndTime() == null) {
+			return Long.MAX_VALUE;
+		}
+		long end = ticket.getEndTime().getTime();
+		long start = ticket.getStartTime() != null ? ticket.getStartTime().getTime() : ticket.getAuthTime().getTime();
+		long lifetime = Math.max(end - start, 0);
+		double jitter = (ThreadLocalRandom.current().nextDouble() * 2 - 1) * settings.getJitterFraction();
+		double fraction = Math.min(Math.max(settings.getRenewalFraction() + jitter, 0), 1);
+		return start + (long) (lifetime * fraction);
+	}
+
+	/**
+	 * Schedules the next attempt of a failed renewal
+	 *
+	 * @return the time of the next attempt
+	 */
+	private long backoff(KerberosTicket ticket, long now) {
+		Schedule schedule = schedules.get(ticket);
+		schedule.failures++;
+		long backoff = settings.getInitialBackoffMillis() << Math.min(schedule.failures - 1, MAX_BACKOFF_SHIFT);
+		backoff = Math.min(backoff, settings.getMaxBackoffMillis());
+		// Half of the backoff is random, so retries of clients that failed together spread out
+		schedule.nextAttempt = now + backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+		return schedule.nextAttempt;
+	}
+
+	private void reportRenewal(String userPrincipal, String service, long start, boolean success) {
+		if (listener.isEnabled()) {
+			listener.ticketRenewed(userPrincipal, service, System.nanoTime() - start, success);
+		}
+	}
+
+	private static class Schedule {
+
+		private long nextAttempt;
+		private int failures;
+
+		Schedule(long nextAttempt) {
+			this.nextAttempt = nextAttempt;
+		}
+	}
+}
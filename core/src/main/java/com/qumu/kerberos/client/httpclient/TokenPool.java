@@ -0,0 +1,294 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.Closeable;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.Subject;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ietf.jgss.Oid;
+
+/**
+ * Pool of single use SPNEGO tokens of a {@link SpnegoAuthenticator}, generated ahead of the requests by a
+ * background thread, see {@link KerberosHttpClient#enableTokenPool(TokenPoolSettings)}.
+ *
+ * Generating a token builds, encrypts and encodes a new Kerberos authenticator, which under a burst of
+ * requests takes a good part of the CPU of the request threads. With the pool, the first token of a request
+ * is taken from the ones ready for its server, without waiting, and generated in the request thread only
+ * when there are none left. Each token is used once, as the servers reject replays, and discarded if it is
+ * not used within its maximum age.
+ *
+ * Tokens are generated for the servers requests were made to within the idle timeout, under the Subject of
+ * the last request. Tokens generated under a previous Subject (i.e. before a new login) are discarded. A server
+ * idle for longer than the timeout is forgotten, with its Subject, once its last tokens have expired.
+ */
+public class TokenPool implements Closeable {
+
+	private static final Log LOG = LogFactory.getLog(TokenPool.class);
+
+	/** Minimum time between refills of the pool that were not asked for by a request */
+	private static final long MIN_REFILL_INTERVAL_MILLIS = 100;
+
+	private final TokenPoolSettings settings;
+	private final SpnegoAuthenticator authenticator;
+	private final long maxAgeNanos;
+	private final long idleTimeoutNanos;
+	private final ConcurrentMap<String, Server> servers = new ConcurrentHashMap<String, Server>();
+	private final ScheduledExecutorService minter;
+	private final AtomicBoolean refillPending = new AtomicBoolean();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong minted = new AtomicLong();
+	private final AtomicLong expired = new AtomicLong();
+
+	TokenPool(TokenPoolSettings settings, SpnegoAuthenticator authenticator) {
+		this.settings = settings;
+		this.authenticator = authenticator;
+		this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(settings.getMaxAgeMillis());
+		this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(settings.getIdleTimeoutMillis());
+		this.minter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "kerberos-token-minter");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// Periodically, to replace the tokens about to expire
+		long period = Math.max(settings.getMaxAgeMillis() / 4, MIN_REFILL_INTERVAL_MILLIS);
+		minter.scheduleWithFixedDelay(this::refill, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Takes a token for the server, if one generated under the given Subject is ready
+	 *
+	 * @return the token, or null if the pool has none and it has to be generated by the caller
+	 */
+	byte[] take(String authServer, Oid oid, Subject subject) {
+		String key = authServer + " " + oid;
+		Server server = servers.get(key);
+		if (server == null) {
+			Server newServer = new Server(authServer, oid);
+			server = servers.putIfAbsent(key, newServer);
+			if (server == null) {
+				server = newServer;
+			}
+		}
+		long now = System.nanoTime();
+		server.lastRequest = now;
+		server.subject = subject;
+
+		byte[] token = null;
+		int discarded = 0;
+		for (Token ready; token == null && (ready = server.tokens.poll()) != null;) {
+			server.size.decrementAndGet();
+			if (ready.subject == subject && now - ready.mintedAt < maxAgeNanos) {
+				token = ready.token;
+			} else {
+				discarded++;
+			}
+		}
+		if (discarded > 0) {
+			expired(server, discarded);
+		}
+
+		CompositeClientListener listener = authenticator.getListener();
+		if (listener != null && listener.isEnabled()) {
+			listener.tokenPoolTaken(authServer, token != null);
+		}
+		if (token != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		if (server.size.get() < settings.getTokensPerServer()) {
+			requestRefill();
+		}
+		return token;
+	}
+
+	private void requestRefill() {
+		if (refillPending.compareAndSet(false, true)) {
+			try {
+				minter.execute(this::refill);
+			} catch (RejectedExecutionException e) {
+				// Closed, no more tokens are generated
+			}
+		}
+	}
+
+	/**
+	 * Discards the expired tokens and generates the missing ones of the servers in use
+	 */
+	private void refill() {
+		refillPending.set(false);
+		try {
+			refillServers();
+		} catch (RuntimeException e) {
+			LOG.error("Error refilling the token pool", e);
+		}
+	}
+
+	private void refillServers() {
+		for (Map.Entry<String, Server> entry : servers.entrySet()) {
+			final Server server = entry.getValue();
+			long now = System.nanoTime();
+			int discarded = 0;
+			for (Token oldest; (oldest = server.tokens.peek()) != null && now - oldest.mintedAt >= maxAgeNanos;) {
+				if (server.tokens.remove(oldest)) {
+					server.size.decrementAndGet();
+					discarded++;
+				}
+			}
+			if (discarded > 0) {
+				expired(server, discarded);
+			}
+
+			if (now - server.lastRequest > idleTimeoutNanos) {
+				if (server.size.get() == 0 && servers.remove(entry.getKey(), server)) {
+					// Not called any more, the next request to it starts over
+					server.subject = null;
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("Stopped generating tokens for " + server.authServer + ", idle for " + TimeUnit.NANOSECONDS.toMillis(now - server.lastRequest) + " ms");
+					}
+				}
+				continue;
+			}
+			final Subject subject = server.subject;
+			while (server.size.get() < settings.getTokensPerServer() && !Thread.currentThread().isInterrupted()) {
+				byte[] token;
+				try {
+					token = Subject.doAs(subject, (PrivilegedExceptionAction<byte[]>) () ->
+							authenticator.mintToken(null, server.oid, server.authServer, subject, null));
+				} catch (PrivilegedActionException e) {
+					LOG.warn("Error generating a token for " + server.authServer + ", it will be generated by the requests", e.getException());
+					break;
+				}
+				server.tokens.add(new Token(token, subject, System.nanoTime()));
+				server.size.incrementAndGet();
+				minted.incrementAndGet();
+			}
+		}
+	}
+
+	private void expired(Server server, int count) {
+		expired.addAndGet(count);
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Discarded " + count + " unused tokens for " + server.authServer);
+		}
+		CompositeClientListener listener = authenticator.getListener();
+		if (listener != null && listener.isEnabled()) {
+			listener.tokensExpired(server.authServer, count);
+		}
+	}
+
+	/**
+	 * Stops generating tokens and discards the ready ones
+	 */
+	@Override
+	public void close() {
+		minter.shutdownNow();
+		servers.clear();
+	}
+
+	/**
+	 * Number of tokens taken from the pool
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Number of tokens generated by the requests because the pool had none ready for their server
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Fraction of the tokens taken from the pool, 0 if no token was asked for yet
+	 */
+	public double getHitRate() {
+		long hitCount = hits.get();
+		long total = hitCount + misses.get();
+		return total > 0 ? (double) hitCount / total : 0;
+	}
+
+	/**
+	 * Number of tokens generated by the background thread
+	 */
+	public long getMintedCount() {
+		return minted.get();
+	}
+
+	/**
+	 * Number of tokens discarded without being used, because they reached their maximum age or were generated under a previous Subject
+	 */
+	public long getExpiredCount() {
+		return expired.get();
+	}
+
+	/**
+	 * Number of tokens ready for all the servers
+	 */
+	public int getSize() {
+		int size = 0;
+		for (Server server : servers.values()) {
+			size += server.size.get();
+		}
+		return size;
+	}
+
+	public TokenPoolSettings getSettings() {
+		return settings;
+	}
+
+	@Override
+	public String toString() {
+		return "TokenPool [size=" + getSize() + ", hits=" + hits + ", misses=" + misses + ", minted=" + minted + ", expired=" + expired
+				+ ", " + settings + "]";
+	}
+
+	/**
+	 * Tokens ready for a server, oldest first
+	 */
+	private static class Server {
+
+		private final String authServer;
+		private final Oid oid;
+		private final Queue<Token> tokens = new ConcurrentLinkedQueue<Token>();
+		private final AtomicInteger size = new AtomicInteger();
+		private volatile long lastRequest;
+		private volatile Subject subject;
+
+		Server(String authServer, Oid oid) {
+			this.authServer = authServer;
+			this.oid = oid;
+		}
+	}
+
+	private static class Token {
+
+		private final byte[] token;
+		private final Subject subject;
+		private final long mintedAt;
+
+		Token(byte[] token, Subject subject, long mintedAt) {
+			this.token = token;
+			this.subject = subject;
+			this.mintedAt = mintedAt;
+		}
+	}
+}
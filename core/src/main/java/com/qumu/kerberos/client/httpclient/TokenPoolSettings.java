@@ -0,0 +1,71 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of the pool of SPNEGO tokens generated ahead of the requests, see {@link KerberosHttpClient#enableTokenPool(TokenPoolSettings)}.
+ *
+ * A background thread keeps up to {@link #getTokensPerServer()} tokens ready for each server requests were
+ * recently made to. Tokens not used within {@link #getMaxAgeMillis()} are discarded, so the ones sent are far
+ * from the clock skew the servers accept and from the lifetime of their replay caches.
+ */
+public class TokenPoolSettings {
+
+	/** Default number of tokens kept ready for each server */
+	public static final int DEFAULT_TOKENS_PER_SERVER = 16;
+
+	/** Default time after which an unused token is discarded */
+	public static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+	/** Default time without requests to a server after which its tokens are no longer generated */
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+	private int tokensPerServer = DEFAULT_TOKENS_PER_SERVER;
+	private long maxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+	private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+	/**
+	 * Number of tokens kept ready for each server, the requests beyond them in a burst generate their own
+	 */
+	public int getTokensPerServer() {
+		return tokensPerServer;
+	}
+
+	public void setTokensPerServer(int tokensPerServer) {
+		if (tokensPerServer <= 0) {
+			throw new IllegalArgumentException("The number of tokens per server must be positive: " + tokensPerServer);
+		}
+		this.tokensPerServer = tokensPerServer;
+	}
+
+	/**
+	 * Time after which an unused token is discarded, it must be well below the clock skew allowed by the servers (5 minutes by default)
+	 */
+	public long getMaxAgeMillis() {
+		return maxAgeMillis;
+	}
+
+	public void setMaxAgeMillis(long maxAgeMillis) {
+		if (maxAgeMillis <= 0) {
+			throw new IllegalArgumentException("The maximum age of the tokens must be positive: " + maxAgeMillis);
+		}
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	/**
+	 * Time without requests to a server after which its tokens are no longer generated, so servers called once do not waste tokens
+	 */
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "TokenPoolSettings [tokensPerServer=" + tokensPerServer + ", maxAgeMillis=" + maxAgeMillis
+				+ ", idleTimeoutMillis=" + idleTimeoutMillis + "]";
+	}
+}
@@ -0,0 +1,77 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Request sent through a {@link KerberosTransport}. The body is kept in memory, so it can be sent again
+ * with a token when the server answers with a challenge.
+ */
+public class TransportRequest {
+
+	private final String method;
+	private final URI uri;
+	// Header names are case insensitive
+	private final Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+	private byte[] body;
+
+	public TransportRequest(String method, URI uri) {
+		this.method = method;
+		this.uri = uri;
+	}
+
+	public TransportRequest(String method, String uri) {
+		this(method, URI.create(uri));
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public URI getUri() {
+		return uri;
+	}
+
+	public void addHeader(String name, String value) {
+		List<String> values = headers.get(name);
+		if (values == null) {
+			values = new ArrayList<String>(1);
+			headers.put(name, values);
+		}
+		values.add(value);
+	}
+
+	/**
+	 * Replaces the values of the header, removing it if value is null
+	 */
+	public void setHeader(String name, String value) {
+		headers.remove(name);
+		if (value != null) {
+			addHeader(name, value);
+		}
+	}
+
+	public Map<String, List<String>> getHeaders() {
+		return Collections.unmodifiableMap(headers);
+	}
+
+	/**
+	 * Body of the request, null if it has none
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	public void setBody(byte[] body) {
+		this.body = body;
+	}
+
+	@Override
+	public String toString() {
+		return "TransportRequest [method=" + method + ", uri=" + uri + "]";
+	}
+}
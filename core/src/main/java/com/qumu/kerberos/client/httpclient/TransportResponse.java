@@ -0,0 +1,88 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response received through a {@link KerberosTransport}. The body is read as a stream, closing the response
+ * releases its connection (HTTP/1.1) or stream (HTTP/2).
+ */
+public class TransportResponse implements Closeable {
+
+	private final int statusCode;
+	private final String protocol;
+	private final Map<String, List<String>> headers;
+	private final InputStream body;
+	private final Closeable resource;
+
+	/**
+	 * @param statusCode status of the response
+	 * @param protocol protocol it was received with, i.e. HTTP/1.1 or HTTP/2
+	 * @param headers headers by name
+	 * @param body stream of the body, empty if it has none
+	 * @param resource closed with the response, after the body
+	 */
+	public TransportResponse(int statusCode, String protocol, Map<String, List<String>> headers, InputStream body, Closeable resource) {
+		this.statusCode = statusCode;
+		this.protocol = protocol;
+		this.headers = headers;
+		this.body = body;
+		this.resource = resource;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	public String getProtocol() {
+		return protocol;
+	}
+
+	public Map<String, List<String>> getHeaders() {
+		return Collections.unmodifiableMap(headers);
+	}
+
+	/**
+	 * Values of the header, whose name is compared ignoring case
+	 */
+	public List<String> getHeaders(String name) {
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			if (header.getKey().equalsIgnoreCase(name)) {
+				return header.getValue();
+			}
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * First value of the header, or null if the response does not have it
+	 */
+	public String getFirstHeader(String name) {
+		List<String> values = getHeaders(name);
+		return values.isEmpty() ? null : values.get(0);
+	}
+
+	public InputStream getBody() {
+		return body;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			body.close();
+		} finally {
+			if (resource != null) {
+				resource.close();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TransportResponse [statusCode=" + statusCode + ", protocol=" + protocol + "]";
+	}
+}
@@ -0,0 +1,288 @@
+package com.qumu.kerberos.client.httpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosTicket;
+
+import org.apache.kerby.kerberos.kerb.type.base.EncryptionType;
+import org.apache.kerby.kerberos.kerb.type.base.KrbMessageType;
+import org.apache.kerby.kerberos.kerb.type.kdc.AsReq;
+import org.apache.kerby.kerberos.kerb.type.kdc.KdcReqBody;
+import org.junit.After;
+import org.junit.Test;
+
+import com.qumu.kerberos.client.httpclient.KdcHealthTracker.CircuitState;
+import com.qumu.kerberos.client.httpclient.KdcHealthTracker.KdcStatus;
+
+public class KdcHealthTrackerTest {
+
+	private static final List<String> CONFIG = Arrays.asList(
+			"# Comment with default_realm = COMMENT.COM",
+			"[libdefaults]",
+			"  default_realm = EXAMPLE.COM",
+			"  kdc_timeout = 10000",
+			"  forwardable = true",
+			"",
+			"[realms]",
+			"  OTHER.COM = {",
+			"    kdc = other1.other.com",
+			"  }",
+			"  EXAMPLE.COM = {",
+			"    kdc = kdc1.example.com",
+			"    ; kdc = commented.example.com",
+			"    kdc=kdc2.example.com:8888",
+			"    admin_server = admin.example.com",
+			"  }",
+			"",
+			"[domain_realm]",
+			"  .example.com = EXAMPLE.COM");
+
+	private KdcTestEnvironment environment;
+	private KdcHealthTracker tracker;
+
+	@After
+	public void close() throws Exception {
+		if (tracker != null) {
+			tracker.close();
+		}
+		if (environment != null) {
+			environment.close();
+		}
+	}
+
+	@Test
+	public void findsTheDefaultRealm() {
+		assertEquals("EXAMPLE.COM", KdcHealthTracker.findDefaultRealm(CONFIG));
+		assertEquals("EXAMPLE.COM", KdcHealthTracker.findDefaultRealm(Arrays.asList("[libdefaults]", "default_realm=EXAMPLE.COM")));
+		assertNull(KdcHealthTracker.findDefaultRealm(Arrays.asList("[realms]", "  default_realm = EXAMPLE.COM")));
+		assertNull(KdcHealthTracker.findDefaultRealm(Arrays.asList("[libdefaults]", "  default_realm_other = EXAMPLE.COM")));
+	}
+
+	@Test
+	public void findsTheKdcsOfTheRealm() {
+		assertEquals(Arrays.asList("kdc1.example.com", "kdc2.example.com:8888"), KdcHealthTracker.findKdcs(CONFIG, "EXAMPLE.COM"));
+		assertEquals(Arrays.asList("other1.other.com"), KdcHealthTracker.findKdcs(CONFIG, "OTHER.COM"));
+		assertEquals(Collections.emptyList(), KdcHealthTracker.findKdcs(CONFIG, "EXAMPLE"));
+		// A realm without its closing brace ends with its section
+		assertEquals(Arrays.asList("kdc1"), KdcHealthTracker.findKdcs(
+				Arrays.asList("[realms]", "EXAMPLE.COM = {", "kdc = kdc1", "[domain_realm]", "kdc = domain"), "EXAMPLE.COM"));
+	}
+
+	@Test
+	public void generatesTheConfigurationWithTheKdcsInOrder() {
+		List<String> kdcs = Arrays.asList("kdc2.example.com:8888", "kdc3.example.com", "kdc1.example.com");
+		List<String> generated = KdcHealthTracker.generateConfig(CONFIG, "EXAMPLE.COM", kdcs, 2000);
+
+		assertEquals("EXAMPLE.COM", KdcHealthTracker.findDefaultRealm(generated));
+		assertEquals(kdcs, KdcHealthTracker.findKdcs(generated, "EXAMPLE.COM"));
+		assertEquals(Arrays.asList("other1.other.com"), KdcHealthTracker.findKdcs(generated, "OTHER.COM"));
+		assertEquals(Arrays.asList("  kdc_timeout = 2000"), lines(generated, "kdc_timeout"));
+		assertEquals(Arrays.asList("  forwardable = true"), lines(generated, "forwardable"));
+		assertEquals(Arrays.asList("    admin_server = admin.example.com"), lines(generated, "admin_server"));
+		assertEquals(Arrays.asList("  .example.com = EXAMPLE.COM"), lines(generated, ".example.com"));
+	}
+
+	@Test
+	public void generatesTheMissingSections() {
+		List<String> kdcs = Arrays.asList("kdc2", "kdc1");
+
+		List<String> withoutRealm = KdcHealthTracker.generateConfig(Arrays.asList("[libdefaults]", "  default_realm = EXAMPLE.COM",
+				"[realms]", "  OTHER.COM = {", "    kdc = other", "  }", "[domain_realm]"), "EXAMPLE.COM", kdcs, 2000);
+		assertEquals(kdcs, KdcHealthTracker.findKdcs(withoutRealm, "EXAMPLE.COM"));
+		assertEquals(Arrays.asList("other"), KdcHealthTracker.findKdcs(withoutRealm, "OTHER.COM"));
+
+		List<String> empty = KdcHealthTracker.generateConfig(Collections.<String> emptyList(), "EXAMPLE.COM", kdcs, 2000);
+		assertEquals("EXAMPLE.COM", KdcHealthTracker.findDefaultRealm(empty));
+		assertEquals(kdcs, KdcHealthTracker.findKdcs(empty, "EXAMPLE.COM"));
+		assertEquals(Arrays.asList("  kdc_timeout = 2000"), lines(empty, "kdc_timeout"));
+	}
+
+	@Test
+	public void encodesTheProbeRequest() throws Exception {
+		long now = System.currentTimeMillis();
+		AsReq request = new AsReq();
+		request.decode(KdcHealthTracker.encodeAsRequest("kerberos-client-probe", "EXAMPLE.COM", 200000, now));
+
+		assertEquals(KrbMessageType.AS_REQ, request.getMsgType());
+		KdcReqBody body = request.getReqBody();
+		assertEquals("kerberos-client-probe", body.getCname().getName());
+		assertEquals("EXAMPLE.COM", body.getRealm());
+		assertEquals("krbtgt/EXAMPLE.COM", body.getSname().getName());
+		assertEquals(200000, body.getNonce());
+		assertTrue(body.getTill().getTime() > now);
+		assertEquals(Arrays.asList(EncryptionType.AES256_CTS_HMAC_SHA1_96, EncryptionType.AES128_CTS_HMAC_SHA1_96, EncryptionType.ARCFOUR_HMAC),
+				body.getEtypes());
+	}
+
+	@Test
+	public void listsTheSlowKdcLastAndFailsOverInOrder() throws Exception {
+		environment = new KdcTestEnvironment(3);
+		KdcProxy slow = environment.getKdcs().get(0);
+		slow.setDelayMillis(300);
+		String previousConfig = System.getProperty(KdcHealthTracker.KRB5_CONF_PROPERTY);
+
+		// Only the first probe, so the connections come from the logins
+		KdcHealthSettings settings = settings();
+		settings.setProbeIntervalMillis(60000);
+		tracker = new KdcHealthTracker(settings);
+		assertEquals(tracker.getConfigLocation(), System.getProperty(KdcHealthTracker.KRB5_CONF_PROPERTY));
+
+		waitUntil(() -> tracker.getOrder().indexOf(slow.getAddress()) == 2);
+		List<String> order = tracker.getOrder();
+		assertEquals(order, KdcHealthTracker.findKdcs(Files.readAllLines(Paths.get(tracker.getConfigLocation()), StandardCharsets.UTF_8), KdcTestEnvironment.REALM));
+		KdcProxy first = environment.getKdc(order.get(0));
+		KdcProxy second = environment.getKdc(order.get(1));
+
+		resetConnectionCounts();
+		assertHasTgt(tracker.login(environment::loginClient));
+		assertTrue(first.getConnectionCount() > 0);
+		assertEquals(0, second.getConnectionCount());
+		assertEquals(0, slow.getConnectionCount());
+
+		// The JDK goes to the next KDC of the list
+		first.stop();
+		resetConnectionCounts();
+		assertHasTgt(tracker.login(environment::loginClient));
+		assertTrue(second.getConnectionCount() > 0);
+		assertEquals(0, slow.getConnectionCount());
+
+		tracker.close();
+		tracker = null;
+		assertEquals(previousConfig, System.getProperty(KdcHealthTracker.KRB5_CONF_PROPERTY));
+	}
+
+	@Test
+	public void leavesOutAFailingKdcAndProbesItBack() throws Exception {
+		environment = new KdcTestEnvironment(3);
+		KdcProxy failing = environment.getKdcs().get(1);
+
+		tracker = new KdcHealthTracker(settings());
+		waitUntil(() -> status(failing).getAverageLatencyMillis() >= 0);
+
+		failing.stop();
+		waitUntil(() -> status(failing).getState() == CircuitState.OPEN && !tracker.getOrder().contains(failing.getAddress()));
+		assertTrue(status(failing).getConsecutiveFailures() >= 2);
+		assertTrue(status(failing).getOpenUntil() > 0);
+		assertEquals(2, tracker.getOrder().size());
+		resetConnectionCounts();
+		assertHasTgt(tracker.login(environment::loginClient));
+
+		// After the open time it is probed again, listed last while half open and then back in the ranking
+		failing.start();
+		Set<CircuitState> states = EnumSet.noneOf(CircuitState.class);
+		waitUntil(() -> {
+			CircuitState state = status(failing).getState();
+			states.add(state);
+			return state == CircuitState.CLOSED && tracker.getOrder().contains(failing.getAddress());
+		});
+		assertTrue(states.contains(CircuitState.HALF_OPEN));
+		assertEquals(3, tracker.getOrder().size());
+		assertEquals(0, status(failing).getConsecutiveFailures());
+	}
+
+	@Test
+	public void listsAllTheKdcsWhenAllAreFailing() throws Exception {
+		environment = new KdcTestEnvironment(2);
+		tracker = new KdcHealthTracker(settings());
+		List<String> addresses = new ArrayList<String>();
+		for (KdcProxy kdc : environment.getKdcs()) {
+			addresses.add(kdc.getAddress());
+		}
+
+		environment.getKdcs().get(0).stop();
+		waitUntil(() -> tracker.getOrder().equals(Arrays.asList(addresses.get(1))));
+
+		environment.getKdcs().get(1).stop();
+		waitUntil(() -> status(environment.getKdcs().get(1)).getState() == CircuitState.OPEN);
+		waitUntil(() -> tracker.getOrder().equals(addresses));
+	}
+
+	@Test
+	public void rejectsASecondTrackerWhileOneIsOpen() throws Exception {
+		environment = new KdcTestEnvironment(1);
+		tracker = new KdcHealthTracker(settings());
+		String location = tracker.getConfigLocation();
+
+		try {
+			new KdcHealthTracker(settings());
+			fail("Only one tracker can be open");
+		} catch (IllegalStateException e) {
+			// The JVM keeps the configuration of the first one
+			assertEquals(location, System.getProperty(KdcHealthTracker.KRB5_CONF_PROPERTY));
+		}
+
+		tracker.close();
+		assertFalse(Files.exists(Paths.get(location)));
+		tracker = new KdcHealthTracker(settings());
+		assertEquals(tracker.getConfigLocation(), System.getProperty(KdcHealthTracker.KRB5_CONF_PROPERTY));
+	}
+
+	private KdcHealthSettings settings() {
+		KdcHealthSettings settings = new KdcHealthSettings();
+		settings.setBaseConfigLocation(environment.getBaseConfigLocation());
+		settings.setProbeIntervalMillis(200);
+		settings.setFailureThreshold(2);
+		settings.setOpenMillis(400);
+		settings.setMaxOpenMillis(1600);
+		settings.setKdcTimeoutMillis(1000);
+		return settings;
+	}
+
+	private KdcStatus status(KdcProxy kdc) {
+		for (KdcStatus status : tracker.getKdcStatus()) {
+			if (status.getAddress().equals(kdc.getAddress())) {
+				return status;
+			}
+		}
+		throw new IllegalArgumentException("Unknown KDC " + kdc.getAddress());
+	}
+
+	private void resetConnectionCounts() {
+		for (KdcProxy kdc : environment.getKdcs()) {
+			kdc.resetConnectionCount();
+		}
+	}
+
+	private static void assertHasTgt(Subject subject) {
+		Set<KerberosTicket> tickets = subject.getPrivateCredentials(KerberosTicket.class);
+		assertFalse(tickets.isEmpty());
+		assertNotNull(tickets.iterator().next().getSessionKey());
+	}
+
+	private static List<String> lines(List<String> config, String key) {
+		List<String> lines = new ArrayList<String>();
+		for (String line : config) {
+			if (line.trim().startsWith(key)) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				throw new AssertionError("Timed out waiting for the KDCs");
+			}
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in KDC for the tests: a TCP proxy to a real KDC that can delay the requests, be stopped, so connections
+ * to it are refused, and be started again on the same port.
+ */
+final class KdcProxy implements Closeable {
+
+	private final int targetPort;
+	private final int port;
+	private final ExecutorService executor;
+	private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger connections = new AtomicInteger();
+
+	private volatile long delayMillis;
+	private ServerSocket server;
+
+	KdcProxy(int targetPort) throws IOException {
+		this.targetPort = targetPort;
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "kdc-proxy");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.server = bind(0);
+		this.port = server.getLocalPort();
+		accept(server);
+	}
+
+	/**
+	 * Address as written in krb5.conf
+	 */
+	String getAddress() {
+		return "127.0.0.1:" + port;
+	}
+
+	/**
+	 * Delays every request by the given time before forwarding it to the KDC
+	 */
+	void setDelayMillis(long delayMillis) {
+		this.delayMillis = delayMillis;
+	}
+
+	/**
+	 * Number of connections accepted since the last reset, probes included
+	 */
+	int getConnectionCount() {
+		return connections.get();
+	}
+
+	void resetConnectionCount() {
+		connections.set(0);
+	}
+
+	/**
+	 * Closes the port and the open connections, as a KDC that went down
+	 */
+	synchronized void stop() throws IOException {
+		server.close();
+		for (Socket socket : sockets) {
+			closeQuietly(socket);
+		}
+	}
+
+	/**
+	 * Listens again on the same port after {@link #stop()}
+	 */
+	synchronized void start() throws IOException {
+		if (server.isClosed()) {
+			server = bind(port);
+			accept(server);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		stop();
+		executor.shutdownNow();
+	}
+
+	private static ServerSocket bind(int port) throws IOException {
+		ServerSocket server = new ServerSocket();
+		server.setReuseAddress(true);
+		server.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+		return server;
+	}
+
+	private void accept(ServerSocket server) {
+		executor.execute(() -> {
+			while (!server.isClosed()) {
+				try {
+					Socket client = server.accept();
+					connections.incrementAndGet();
+					executor.execute(() -> forward(client));
+				} catch (IOException e) {
+					// Stopped
+				}
+			}
+		});
+	}
+
+	private void forward(Socket client) {
+		sockets.add(client);
+		try (Socket kdc = new Socket("localhost", targetPort)) {
+			sockets.add(kdc);
+			executor.execute(() -> copy(kdc, client, 0));
+			copy(client, kdc, delayMillis);
+		} catch (IOException e) {
+			// The KDC is down
+		} finally {
+			closeQuietly(client);
+		}
+	}
+
+	private void copy(Socket from, Socket to, long delayMillis) {
+		byte[] buffer = new byte[8192];
+		try {
+			InputStream in = from.getInputStream();
+			OutputStream out = to.getOutputStream();
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				if (delayMillis > 0) {
+					Thread.sleep(delayMillis);
+				}
+				out.write(buffer, 0, read);
+				out.flush();
+			}
+		} catch (IOException | InterruptedException e) {
+			// Closed by the other side
+		} finally {
+			closeQuietly(from);
+			closeQuietly(to);
+		}
+	}
+
+	private void closeQuietly(Socket socket) {
+		sockets.remove(socket);
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Nothing to do
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+import javax.security.auth.login.LoginContext;
+import javax.security.auth.login.LoginException;
+
+import org.apache.kerby.kerberos.kerb.server.SimpleKdcServer;
+
+/**
+ * Several KDCs of one realm for the tests, like the KerberosTestEnvironment of the benchmarks: an in-process KDC
+ * (Apache Kerby) behind a {@link KdcProxy} per KDC address, so each KDC can be slowed down or stopped on its own
+ * while they all share the principals and keys.
+ *
+ * The base krb5.conf of the environment lists the proxies in the order they were created, over TCP only.
+ */
+final class KdcTestEnvironment implements Closeable {
+
+	static final String REALM = "EXAMPLE.COM";
+
+	static final String CLIENT_PRINCIPAL = "client@" + REALM;
+
+	private final File workDir;
+	private final SimpleKdcServer kdc;
+	private final List<KdcProxy> proxies;
+	private final File clientKeytab;
+	private final File baseConfig;
+
+	KdcTestEnvironment(int kdcCount) throws Exception {
+		workDir = Files.createTempDirectory("kerberos-kdcs").toFile();
+
+		kdc = new SimpleKdcServer();
+		kdc.setWorkDir(workDir);
+		kdc.setKdcRealm(REALM);
+		kdc.setKdcHost("localhost");
+		kdc.setAllowUdp(false);
+		kdc.setKdcTcpPort(freePort());
+		kdc.init();
+		kdc.start();
+
+		kdc.createPrincipal(CLIENT_PRINCIPAL, "client-password");
+		clientKeytab = new File(workDir, "client.keytab");
+		kdc.exportPrincipal(CLIENT_PRINCIPAL, clientKeytab);
+
+		List<KdcProxy> proxies = new ArrayList<KdcProxy>(kdcCount);
+		List<String> config = new ArrayList<String>();
+		config.add("[libdefaults]");
+		config.add("  default_realm = " + REALM);
+		config.add("  udp_preference_limit = 1");
+		config.add("");
+		config.add("[realms]");
+		config.add("  " + REALM + " = {");
+		for (int i = 0; i < kdcCount; i++) {
+			KdcProxy proxy = new KdcProxy(kdc.getKdcTcpPort());
+			proxies.add(proxy);
+			config.add("    kdc = " + proxy.getAddress());
+		}
+		config.add("  }");
+		this.proxies = Collections.unmodifiableList(proxies);
+
+		baseConfig = new File(workDir, "base-krb5.conf");
+		Files.write(baseConfig.toPath(), config, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The KDCs in the order of the base configuration
+	 */
+	List<KdcProxy> getKdcs() {
+		return proxies;
+	}
+
+	KdcProxy getKdc(String address) {
+		for (KdcProxy proxy : proxies) {
+			if (proxy.getAddress().equals(address)) {
+				return proxy;
+			}
+		}
+		throw new IllegalArgumentException("Unknown KDC " + address);
+	}
+
+	String getBaseConfigLocation() {
+		return baseConfig.getAbsolutePath();
+	}
+
+	/**
+	 * Logs in the client principal with the current java.security.krb5.conf
+	 */
+	Subject loginClient() throws LoginException {
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("useKeyTab", "true");
+		options.put("keyTab", clientKeytab.getAbsolutePath());
+		options.put("principal", CLIENT_PRINCIPAL);
+		options.put("storeKey", "true");
+		options.put("doNotPrompt", "true");
+		options.put("refreshKrb5Config", "true");
+		final AppConfigurationEntry entry = new AppConfigurationEntry("com.sun.security.auth.module.Krb5LoginModule",
+				AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options);
+		Configuration configuration = new Configuration() {
+			@Override
+			public AppConfigurationEntry[] getAppConfigurationEntry(String name) {
+				return new AppConfigurationEntry[] { entry };
+			}
+		};
+
+		HashSet<KerberosPrincipal> principals = new HashSet<KerberosPrincipal>();
+		principals.add(new KerberosPrincipal(CLIENT_PRINCIPAL));
+		Subject subject = new Subject(false, principals, new HashSet<Object>(), new HashSet<Object>());
+		LoginContext loginContext = new LoginContext("", subject, null, configuration);
+		loginContext.login();
+		return loginContext.getSubject();
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (KdcProxy proxy : proxies) {
+			proxy.close();
+		}
+		try {
+			kdc.stop();
+		} catch (Exception e) {
+			throw new IOException("Error stopping the KDC", e);
+		}
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
@@ -0,0 +1,213 @@
+package com.qumu.kerberos.client.httpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PersistentCredentialCacheTest {
+
+	private static final String CLIENT = "client@EXAMPLE.COM";
+
+	/**
+	 * Written by MIT Kerberos 1.20 against a Kerby KDC, with the calls of {@code kinit -k -t client.keytab client}
+	 * and {@code kvno HTTP/localhost}, plus a pa_type configuration entry
+	 */
+	private static final String KINIT_FIXTURE = "kinit.ccache";
+
+	private Path directory;
+	private Path location;
+
+	@Before
+	public void createDirectory() throws Exception {
+		directory = Files.createTempDirectory("kerberos-ccache");
+		location = directory.resolve("cache").resolve("client.ccache");
+	}
+
+	@After
+	public void deleteDirectory() throws Exception {
+		if (Files.exists(location)) {
+			Files.delete(location);
+		}
+		if (Files.exists(location.getParent())) {
+			Files.delete(location.getParent());
+		}
+		Files.delete(directory);
+	}
+
+	@Test
+	public void loadsTheTicketsWrittenFromTheSubject() {
+		long now = seconds(System.currentTimeMillis());
+		KerberosTicket service = ticket("HTTP/localhost@EXAMPLE.COM", now, now + TimeUnit.HOURS.toMillis(1), 17, null);
+		KerberosTicket tgt = ticket("krbtgt/EXAMPLE.COM@EXAMPLE.COM", now, now + TimeUnit.HOURS.toMillis(10), 18,
+				new InetAddress[] { address(127, 0, 0, 1), address(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1) });
+		KerberosTicket expired = ticket("HTTP/expired@EXAMPLE.COM", now - TimeUnit.HOURS.toMillis(2), now - TimeUnit.HOURS.toMillis(1), 17, null);
+
+		new PersistentCredentialCache(location.toString()).store(subject(service, expired, tgt));
+
+		// A new instance, as after a restart
+		PersistentCredentialCache cache = new PersistentCredentialCache(location.toString());
+		List<KerberosTicket> tickets = cache.load(CLIENT, now);
+		assertEquals(Arrays.asList(tgt, service), tickets);
+		assertEquals(tickets, cache.load(null, now));
+		assertEquals(Arrays.asList(tgt), cache.load(CLIENT, now + TimeUnit.HOURS.toMillis(2)));
+		assertEquals(Collections.emptyList(), cache.load("other@EXAMPLE.COM", now));
+	}
+
+	@Test
+	public void writesTheCacheOnlyForItsOwner() throws Exception {
+		long now = seconds(System.currentTimeMillis());
+		new PersistentCredentialCache(location.toString()).store(subject(ticket("krbtgt/EXAMPLE.COM@EXAMPLE.COM", now,
+				now + TimeUnit.HOURS.toMillis(10), 18, null)));
+
+		if (Files.getFileStore(location).supportsFileAttributeView("posix")) {
+			assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(location)));
+		}
+		// Only the cache file, the temporary one was moved in its place
+		try (Stream<Path> files = Files.list(location.getParent())) {
+			assertEquals(1, files.count());
+		}
+	}
+
+	@Test
+	public void loadsTheTicketsWrittenByKinit() throws Exception {
+		copyFixture();
+		PersistentCredentialCache cache = new PersistentCredentialCache(location.toString());
+
+		// The tickets of the fixture have expired, so no validity is required
+		List<KerberosTicket> tickets = cache.load(CLIENT, 0);
+		assertEquals(2, tickets.size());
+		assertEquals(tickets, cache.load(null, 0));
+
+		KerberosTicket tgt = tickets.get(0);
+		assertEquals(new KerberosPrincipal(CLIENT), tgt.getClient());
+		assertEquals(new KerberosPrincipal("krbtgt/EXAMPLE.COM@EXAMPLE.COM"), tgt.getServer());
+		assertTrue(KerberosCredentialHolder.isTgt(tgt));
+		assertTrue(tgt.isInitial());
+		assertTrue(tgt.isRenewable());
+		assertFalse(tgt.isForwardable());
+
+		KerberosTicket service = tickets.get(1);
+		assertEquals(new KerberosPrincipal(CLIENT), service.getClient());
+		assertEquals(new KerberosPrincipal("HTTP/localhost@EXAMPLE.COM"), service.getServer());
+		assertFalse(KerberosCredentialHolder.isTgt(service));
+
+		for (KerberosTicket ticket : tickets) {
+			assertEquals(17, ticket.getSessionKeyType());
+			assertEquals(16, ticket.getSessionKey().getEncoded().length);
+			assertTrue(ticket.getEndTime().after(ticket.getStartTime()));
+			assertEquals(ticket.getStartTime(), ticket.getAuthTime());
+			// The DER encoding of a Ticket starts with its application tag
+			assertEquals(0x61, ticket.getEncoded()[0] & 0xff);
+		}
+		assertEquals(Collections.emptyList(), cache.load("other@EXAMPLE.COM", 0));
+	}
+
+	@Test
+	public void writesTheTicketsReadFromKinit() throws Exception {
+		copyFixture();
+		List<KerberosTicket> fixture = new PersistentCredentialCache(location.toString()).load(CLIENT, 0);
+
+		// The same tickets valid from now on, so they are written
+		long now = seconds(System.currentTimeMillis());
+		List<KerberosTicket> tickets = new ArrayList<KerberosTicket>();
+		for (KerberosTicket ticket : fixture) {
+			long lifetime = ticket.getEndTime().getTime() - ticket.getStartTime().getTime();
+			tickets.add(new KerberosTicket(ticket.getEncoded(), ticket.getClient(), ticket.getServer(), ticket.getSessionKey().getEncoded(),
+					ticket.getSessionKeyType(), ticket.getFlags(), new Date(now), new Date(now), new Date(now + lifetime),
+					new Date(now + lifetime), null));
+		}
+
+		Path rewritten = directory.resolve("rewritten.ccache");
+		try {
+			new PersistentCredentialCache(rewritten.toString()).store(subject(tickets.toArray(new KerberosTicket[tickets.size()])));
+			assertEquals(tickets, new PersistentCredentialCache(rewritten.toString()).load(CLIENT, now));
+		} finally {
+			Files.deleteIfExists(rewritten);
+		}
+	}
+
+	@Test
+	public void loadsNothingFromAMissingOrInvalidCache() throws Exception {
+		PersistentCredentialCache cache = new PersistentCredentialCache(location.toString());
+		assertEquals(Collections.emptyList(), cache.load(CLIENT, 0));
+
+		Files.createDirectories(location.getParent());
+		Files.write(location, "not a credential cache".getBytes(StandardCharsets.UTF_8));
+		assertEquals(Collections.emptyList(), cache.load(CLIENT, 0));
+
+		// Cut in the middle of a ticket
+		try (InputStream fixture = getClass().getResourceAsStream(KINIT_FIXTURE)) {
+			byte[] bytes = new byte[200];
+			assertEquals(bytes.length, fixture.read(bytes));
+			Files.write(location, bytes);
+		}
+		assertEquals(Collections.emptyList(), cache.load(CLIENT, 0));
+	}
+
+	private void copyFixture() throws Exception {
+		Files.createDirectories(location.getParent());
+		try (InputStream fixture = getClass().getResourceAsStream(KINIT_FIXTURE)) {
+			Files.copy(fixture, location);
+		}
+	}
+
+	private static KerberosTicket ticket(String server, long start, long end, int keyType, InetAddress[] addresses) {
+		boolean[] flags = new boolean[32];
+		// Forwardable and renewable
+		flags[1] = true;
+		flags[8] = true;
+		byte[] encoded = ("ticket for " + server).getBytes(StandardCharsets.UTF_8);
+		byte[] sessionKey = new byte[keyType == 18 ? 32 : 16];
+		Arrays.fill(sessionKey, (byte) server.length());
+		return new KerberosTicket(encoded, new KerberosPrincipal(CLIENT), new KerberosPrincipal(server), sessionKey, keyType, flags,
+				new Date(start), new Date(start), new Date(end), new Date(end + TimeUnit.DAYS.toMillis(7)), addresses);
+	}
+
+	private static Subject subject(KerberosTicket... tickets) {
+		return new Subject(false, Collections.singleton(new KerberosPrincipal(CLIENT)), Collections.emptySet(),
+				new HashSet<Object>(Arrays.asList(tickets)));
+	}
+
+	private static InetAddress address(int... octets) {
+		byte[] bytes = new byte[octets.length];
+		for (int i = 0; i < octets.length; i++) {
+			bytes[i] = (byte) octets[i];
+		}
+		try {
+			return InetAddress.getByAddress(bytes);
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * The cache keeps the times in seconds
+	 */
+	private static long seconds(long millis) {
+		return millis / 1000 * 1000;
+	}
+}
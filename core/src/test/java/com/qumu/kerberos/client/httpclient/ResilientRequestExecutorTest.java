@@ -0,0 +1,145 @@
+package com.qumu.kerberos.client.httpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.Subject;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.BasicResponseHandler;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class ResilientRequestExecutorTest {
+
+	/** Response times of the server in milliseconds, one after another whatever the request */
+	private static final int[] LATENCIES = { 5, 10, 15, 20, 25, 30, 35, 40, 45, 50, 55, 60, 65, 70, 75, 80, 85, 200, 300, 400 };
+
+	private static final int THREADS = 8;
+	private static final int REQUESTS_PER_THREAD = 64;
+
+	private final AtomicInteger served = new AtomicInteger();
+	private final AtomicInteger attempts = new AtomicInteger();
+	private final AtomicInteger hedgingThreadAttempts = new AtomicInteger();
+
+	private ExecutorService serverExecutor;
+	private HttpServer server;
+	private CloseableHttpClient httpClient;
+	private ResilientRequestExecutor executor;
+
+	@Before
+	public void start() throws Exception {
+		// Without it every response waits for the delayed ACK of its headers
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		serverExecutor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(serverExecutor);
+		server.createContext("/", this::handle);
+		server.start();
+
+		httpClient = HttpClients.custom().setMaxConnPerRoute(4 * THREADS).setMaxConnTotal(4 * THREADS).addInterceptorFirst(
+				(HttpRequestInterceptor) (request, context) -> {
+					attempts.incrementAndGet();
+					if (Thread.currentThread().getName().startsWith("kerberos-hedged-request")) {
+						hedgingThreadAttempts.incrementAndGet();
+					}
+				}).build();
+
+		ResilienceSettings settings = new ResilienceSettings();
+		settings.setHedging(true);
+		settings.setHedgingPercentile(0.9);
+		settings.setMinHedgingDelayMillis(1);
+		executor = new ResilientRequestExecutor(settings, httpClient, new CompositeClientListener());
+	}
+
+	@After
+	public void stop() throws Exception {
+		executor.shutdown();
+		httpClient.close();
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Test
+	public void keepsTheHedgingDelayUnderAFixedLatencyDistribution() throws Exception {
+		HttpHost target = new HttpHost("localhost", server.getAddress().getPort());
+		String url = "http://localhost:" + server.getAddress().getPort() + "/";
+
+		// Unhedged until the first samples are known
+		for (int i = 0; i < 2 * LATENCIES.length; i++) {
+			get(url);
+		}
+		long initialDelay = TimeUnit.NANOSECONDS.toMillis(executor.hedgingDelayNanos(target));
+		assertTrue("Initial delay " + initialDelay, initialDelay >= 200 && initialDelay < 400);
+
+		ExecutorService clients = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < THREADS; i++) {
+				futures.add(clients.submit(() -> {
+					for (int j = 0; j < REQUESTS_PER_THREAD; j++) {
+						get(url);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			clients.shutdown();
+		}
+
+		// The slow responses that lose to their hedge are still in the percentile
+		long delay = TimeUnit.NANOSECONDS.toMillis(executor.hedgingDelayNanos(target));
+		assertTrue("Delay went from " + initialDelay + " to " + delay + " ms", delay >= 180 && delay < 400);
+
+		// Only the slowest tenth is hedged, and only the hedges run on the hedging threads
+		int requests = 2 * LATENCIES.length + THREADS * REQUESTS_PER_THREAD;
+		int hedges = attempts.get() - requests;
+		assertTrue("Hedges: " + hedges, hedges > 0 && hedges < requests / 5);
+		assertEquals(hedges, hedgingThreadAttempts.get());
+	}
+
+	private String get(String url) throws IOException {
+		return executor.execute(new HttpGet(url), new Subject(), HttpClientContext::create, new BasicResponseHandler());
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		int attempt = served.getAndIncrement();
+		try {
+			// Every latency once in each run of LATENCIES.length attempts, in a shuffled order
+			Thread.sleep(LATENCIES[attempt * 7 % LATENCIES.length]);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		} catch (IOException e) {
+			// The attempt was aborted
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package com.qumu.kerberos.benchmark;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs the benchmarks once for each number of threads, so the scalability of the auth path can be compared.
+ *
+ * Settings are read from system properties:
+ * <ul>
+ * <li>{@code jmh.include}: regular expression of the benchmarks to run, all by default</li>
+ * <li>{@code jmh.threads}: comma separated thread counts, {@code 1,2,4,8} by default</li>
+ * <li>{@code jmh.forks}, {@code jmh.warmupIterations}, {@code jmh.iterations}, {@code jmh.iterationSeconds}</li>
+ * <li>{@code jmh.resultDir}: directory for the JSON results, one file per thread count</li>
+ * </ul>
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException {
+		String include = System.getProperty("jmh.include", "com\\.qumu\\.kerberos\\..*Benchmark");
+		String[] threadCounts = System.getProperty("jmh.threads", "1,2,4,8").split(",");
+		File resultDir = new File(System.getProperty("jmh.resultDir", "build/reports/jmh"));
+		resultDir.mkdirs();
+		TimeValue iterationTime = TimeValue.seconds(Integer.getInteger("jmh.iterationSeconds", 5));
+
+		for (String threadCount : threadCounts) {
+			int threads = Integer.parseInt(threadCount.trim());
+			ChainedOptionsBuilder options = new OptionsBuilder()
+					.include(include)
+					.threads(threads)
+					.forks(Integer.getInteger("jmh.forks", 1))
+					.warmupIterations(Integer.getInteger("jmh.warmupIterations", 3))
+					.warmupTime(iterationTime)
+					.measurementIterations(Integer.getInteger("jmh.iterations", 5))
+					.measurementTime(iterationTime)
+					.resultFormat(ResultFormatType.JSON)
+					.result(new File(resultDir, "results-" + threads + "-threads.json").getPath());
+			new Runner(options.build()).run();
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package com.qumu.kerberos.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.PrivilegedExceptionAction;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+import javax.security.auth.login.LoginContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.kerby.kerberos.kerb.server.SimpleKdcServer;
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSCredential;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.Oid;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Self-contained Kerberos environment for the benchmarks: an in-process KDC (Apache Kerby) and
+ * a local HTTP server protected with SPNEGO, so they run offline without an Active Directory.
+ *
+ * The KDC has the realm {@link #REALM}, with a client principal and the HTTP/localhost service
+ * principal, whose keytabs are exported to a temporary directory. The server answers any request
+ * without a valid Negotiate header with a 401 challenge, and authenticated ones with a short text.
+ *
+ * The environment is started once per JVM (JMH fork) and stopped on shutdown.
+ */
+public final class KerberosTestEnvironment {
+
+	private static final Log LOG = LogFactory.getLog(KerberosTestEnvironment.class);
+
+	public static final String REALM = "EXAMPLE.COM";
+
+	public static final String CLIENT_PRINCIPAL = "client@" + REALM;
+
+	public static final String SERVICE_PRINCIPAL = "HTTP/localhost@" + REALM;
+
+	private static final String SPNEGO_OID = "1.3.6.1.5.5.2";
+	private static final String KERBEROS_OID = "1.2.840.113554.1.2.2";
+
+	private static KerberosTestEnvironment instance;
+
+	private final File workDir;
+	private final SimpleKdcServer kdc;
+	private final HttpServer server;
+	private final ExecutorService serverExecutor;
+	private final File clientKeytab;
+	private final Subject serverSubject;
+
+	private KerberosTestEnvironment() throws Exception {
+		workDir = Files.createTempDirectory("kerberos-benchmark").toFile();
+
+		kdc = new SimpleKdcServer();
+		kdc.setWorkDir(workDir);
+		kdc.setKdcRealm(REALM);
+		kdc.setKdcHost("localhost");
+		kdc.setAllowUdp(false);
+		kdc.setKdcTcpPort(freePort());
+		kdc.init();
+		kdc.start();
+
+		kdc.createPrincipal(CLIENT_PRINCIPAL, "client-password");
+		kdc.createPrincipal(SERVICE_PRINCIPAL, "service-password");
+		clientKeytab = new File(workDir, "client.keytab");
+		File serviceKeytab = new File(workDir, "service.keytab");
+		kdc.exportPrincipal(CLIENT_PRINCIPAL, clientKeytab);
+		kdc.exportPrincipal(SERVICE_PRINCIPAL, serviceKeytab);
+
+		// The KDC writes a krb5.conf pointing to itself in its work dir
+		System.setProperty("java.security.krb5.conf", new File(workDir, "krb5.conf").getAbsolutePath());
+		System.setProperty("sun.security.krb5.disableReferrals", "true");
+		// Authenticators generated in the same microsecond by different threads are not replays
+		System.setProperty("sun.security.krb5.rcache", "none");
+
+		serverSubject = login(SERVICE_PRINCIPAL, serviceKeytab);
+
+		// Without it every response waits for the delayed ACK of its headers
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		serverExecutor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(serverExecutor);
+		server.createContext("/", this::handle);
+		server.start();
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Started KDC on port " + kdc.getKdcTcpPort() + " and SPNEGO server at " + getBaseUrl());
+		}
+	}
+
+	/**
+	 * Starts the environment the first time it is called in this JVM
+	 *
+	 * @return the running environment
+	 */
+	public static synchronized KerberosTestEnvironment start() {
+		if (instance == null) {
+			try {
+				instance = new KerberosTestEnvironment();
+			} catch (Exception e) {
+				throw new RuntimeException("Error starting the Kerberos test environment", e);
+			}
+			Runtime.getRuntime().addShutdownHook(new Thread(instance::stop));
+		}
+		return instance;
+	}
+
+	public String getBaseUrl() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	public String getClientKeytab() {
+		return clientKeytab.getAbsolutePath();
+	}
+
+	/**
+	 * Logs in the client principal, for benchmarks that need a Subject of their own
+	 */
+	public Subject loginClient() {
+		try {
+			return login(CLIENT_PRINCIPAL, clientKeytab);
+		} catch (Exception e) {
+			throw new RuntimeException("Error logging in " + CLIENT_PRINCIPAL, e);
+		}
+	}
+
+	private void stop() {
+		server.stop(0);
+		serverExecutor.shutdownNow();
+		try {
+			kdc.stop();
+		} catch (Exception e) {
+			LOG.warn("Error stopping the KDC", e);
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		drain(exchange.getRequestBody());
+
+		String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+		byte[] outputToken = null;
+		boolean authenticated = false;
+		if (authorization != null && authorization.startsWith("Negotiate ")) {
+			byte[] inputToken = Base64.getDecoder().decode(authorization.substring(10).trim());
+			try {
+				outputToken = Subject.doAs(serverSubject, (PrivilegedExceptionAction<byte[]>) () -> accept(inputToken));
+				authenticated = true;
+			} catch (Exception e) {
+				LOG.warn("Rejected SPNEGO token", e);
+			}
+		}
+
+		if (!authenticated) {
+			exchange.getResponseHeaders().add("WWW-Authenticate", "Negotiate");
+			respond(exchange, 401, "Unauthorized");
+			return;
+		}
+		if (outputToken != null) {
+			exchange.getResponseHeaders().add("WWW-Authenticate", "Negotiate " + Base64.getEncoder().encodeToString(outputToken));
+		}
+		respond(exchange, 200, "Authenticated " + exchange.getRequestMethod() + " " + exchange.getRequestURI());
+	}
+
+	private static byte[] accept(byte[] inputToken) throws Exception {
+		GSSManager manager = GSSManager.getInstance();
+		GSSCredential credential = manager.createCredential(null, GSSCredential.INDEFINITE_LIFETIME,
+				new Oid[] { new Oid(SPNEGO_OID), new Oid(KERBEROS_OID) }, GSSCredential.ACCEPT_ONLY);
+		GSSContext context = manager.createContext(credential);
+		try {
+			byte[] outputToken = context.acceptSecContext(inputToken, 0, inputToken.length);
+			if (!context.isEstablished()) {
+				throw new IllegalStateException("SPNEGO context not established after one token");
+			}
+			return outputToken;
+		} finally {
+			context.dispose();
+		}
+	}
+
+	/**
+	 * Responses always have a body, the JDK server closes keep-alive connections after empty ones
+	 */
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[8192];
+		while (in.read(buffer) > 0) {
+			// Discard the request body so the connection can be kept alive
+		}
+	}
+
+	private static Subject login(String principal, File keytab) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("useKeyTab", "true");
+		options.put("keyTab", keytab.getAbsolutePath());
+		options.put("principal", principal);
+		options.put("storeKey", "true");
+		options.put("doNotPrompt", "true");
+		options.put("isInitiator", String.valueOf(CLIENT_PRINCIPAL.equals(principal)));
+		final AppConfigurationEntry entry = new AppConfigurationEntry("com.sun.security.auth.module.Krb5LoginModule",
+				AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options);
+		Configuration configuration = new Configuration() {
+			@Override
+			public AppConfigurationEntry[] getAppConfigurationEntry(String name) {
+				return new AppConfigurationEntry[] { entry };
+			}
+		};
+
+		HashSet<KerberosPrincipal> principals = new HashSet<KerberosPrincipal>();
+		principals.add(new KerberosPrincipal(principal));
+		Subject subject = new Subject(false, principals, new HashSet<Object>(), new HashSet<Object>());
+		LoginContext loginContext = new LoginContext("", subject, null, configuration);
+		loginContext.login();
+		return loginContext.getSubject();
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
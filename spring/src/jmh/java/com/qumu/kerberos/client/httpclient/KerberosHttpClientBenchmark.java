@@ -0,0 +1,52 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.qumu.kerberos.benchmark.KerberosTestEnvironment;
+
+/**
+ * Latency and throughput of a full authenticated GET with {@link KerberosHttpClient#executeGet(String)},
+ * with and without preemptive authentication, against the local SPNEGO server
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class KerberosHttpClientBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean preemptive;
+
+	private KerberosHttpClient client;
+	private String url;
+
+	@Setup
+	public void setup() {
+		KerberosTestEnvironment environment = KerberosTestEnvironment.start();
+		url = environment.getBaseUrl() + "/benchmark";
+		client = new KerberosHttpClient(environment.getClientKeytab(), KerberosTestEnvironment.CLIENT_PRINCIPAL, ServiceNameType.HOST_BASED);
+		client.setPreemptiveAuthentication(preemptive);
+		// Log in and learn the host before measuring
+		client.executeGet(url);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		client.close();
+	}
+
+	@Benchmark
+	public String executeGet() {
+		return client.executeGet(url);
+	}
+}
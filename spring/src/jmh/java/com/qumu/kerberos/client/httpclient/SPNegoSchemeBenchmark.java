@@ -0,0 +1,71 @@
+package com.qumu.kerberos.client.httpclient;
+
+import java.security.PrivilegedExceptionAction;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.Subject;
+
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.GSSName;
+import org.ietf.jgss.Oid;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.qumu.kerberos.benchmark.KerberosTestEnvironment;
+
+/**
+ * Cost of the SPNEGO steps done for every request: building the GSS name of the service
+ * ({@link CustomSPNegoScheme#generateGSSName}), resolving its canonical name through the shared
+ * {@link ServiceNameResolver}, and generating the token
+ * ({@link CustomSPNegoScheme#generateGSSToken}), which includes the Subject.doAs the clients run it in.
+ *
+ * Service tickets are cached in the Subject after the first token, so the KDC is only hit during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SPNegoSchemeBenchmark {
+
+	private static final String AUTH_SERVER = "localhost";
+
+	private CustomSPNegoScheme scheme;
+	private ServiceNameResolver nameResolver;
+	private Subject subject;
+	private GSSManager manager;
+	private Oid spnegoOid;
+	private PrivilegedExceptionAction<byte[]> generateToken;
+
+	@Setup
+	public void setup() throws Exception {
+		KerberosTestEnvironment environment = KerberosTestEnvironment.start();
+		subject = environment.loginClient();
+		scheme = new CustomSPNegoScheme(KerberosTestEnvironment.CLIENT_PRINCIPAL, ServiceNameType.HOST_BASED, true, false);
+		manager = GSSManager.getInstance();
+		spnegoOid = new Oid("1.3.6.1.5.5.2");
+		nameResolver = new ServiceNameResolver(KerberosTestEnvironment.CLIENT_PRINCIPAL, null, ServiceNameType.HOST_BASED);
+		generateToken = () -> scheme.generateGSSToken(null, spnegoOid, AUTH_SERVER, null);
+		// Get the service ticket before measuring
+		Subject.doAs(subject, generateToken);
+	}
+
+	@Benchmark
+	public byte[] generateGSSToken() throws Exception {
+		return Subject.doAs(subject, generateToken);
+	}
+
+	@Benchmark
+	public GSSName generateGSSName() throws GSSException {
+		return scheme.generateGSSName(manager, AUTH_SERVER);
+	}
+
+	@Benchmark
+	public GSSName resolveServiceName() throws GSSException {
+		return nameResolver.resolve(manager, AUTH_SERVER, spnegoOid).getCanonicalName();
+	}
+}
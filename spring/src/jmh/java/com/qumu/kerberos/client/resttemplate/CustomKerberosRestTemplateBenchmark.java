@@ -0,0 +1,46 @@
+package com.qumu.kerberos.client.resttemplate;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.qumu.kerberos.benchmark.KerberosTestEnvironment;
+
+/**
+ * Latency and throughput of an authenticated GET through {@link CustomKerberosRestTemplate},
+ * which reuses the login and the service ticket like {@link com.qumu.kerberos.client.httpclient.KerberosHttpClient}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CustomKerberosRestTemplateBenchmark {
+
+	private CustomKerberosRestTemplate restTemplate;
+	private String url;
+
+	@Setup
+	public void setup() {
+		KerberosTestEnvironment environment = KerberosTestEnvironment.start();
+		url = environment.getBaseUrl() + "/benchmark";
+		restTemplate = new CustomKerberosRestTemplate(environment.getClientKeytab(), KerberosTestEnvironment.CLIENT_PRINCIPAL);
+		restTemplate.getForObject(url, String.class);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		restTemplate.close();
+	}
+
+	@Benchmark
+	public String getForObject() {
+		return restTemplate.getForObject(url, String.class);
+	}
+}
@@ -0,0 +1,174 @@
+package com.qumu.kerberos;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.security.SecurityAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.util.StringUtils;
+
+import com.qumu.kerberos.client.KerberosService;
+import com.qumu.kerberos.client.httpclient.ConnectionPoolSettings;
+import com.qumu.kerberos.client.httpclient.ServiceNameType;
+import com.qumu.kerberos.client.resttemplate.CustomKerberosRestTemplate;
+import com.qumu.kerberos.load.LoadGenerator;
+import com.qumu.kerberos.load.LoadReport;
+
+@SpringBootApplication
+@EnableAutoConfiguration(exclude = SecurityAutoConfiguration.class)
+public class Application implements CommandLineRunner {
+
+	@Value("${app.user-principal}")
+	private String userPrincipal;
+
+	@Value("${app.keytab-location:}")
+	private String keytabLocation;
+
+	@Value("${app.access-url}")
+	private String accessUrl;
+
+	@Value("${app.service-name-type:}")
+	private String serviceNameTypeProperty;
+
+	@Value("${app.service-principal:}")
+	private String servicePrincipal;
+
+	@Value("${app.use-http-client}")
+	private String useHttpClient;
+
+	@Value("${app.preemptive-auth:false}")
+	private boolean preemptiveAuth;
+
+	@Value("${app.pool.max-total:100}")
+	private int poolMaxTotal;
+
+	@Value("${app.pool.max-per-route:20}")
+	private int poolMaxPerRoute;
+
+	@Value("${app.pool.time-to-live-millis:-1}")
+	private long poolTimeToLiveMillis;
+
+	@Value("${app.pool.idle-timeout-millis:30000}")
+	private long poolIdleTimeoutMillis;
+
+	@Value("${app.pool.validate-after-inactivity-millis:2000}")
+	private int poolValidateAfterInactivityMillis;
+
+	@Value("${app.pool.connection-bound-auth:false}")
+	private boolean poolConnectionBoundAuth;
+
+	@Value("${app.load.enabled:false}")
+	private boolean loadEnabled;
+
+	@Value("${app.load.concurrency:10}")
+	private int loadConcurrency;
+
+	@Value("${app.load.virtual-threads:false}")
+	private boolean loadVirtualThreads;
+
+	@Value("${app.load.rate:0}")
+	private double loadRate;
+
+	@Value("${app.load.warmup-seconds:5}")
+	private long loadWarmupSeconds;
+
+	@Value("${app.load.duration-seconds:30}")
+	private long loadDurationSeconds;
+
+	@Override
+	public void run(String... args) throws Exception {
+		System.out.println("Running Kerberos call to url: " + accessUrl + ", user principal: " + userPrincipal + ", keytab: " + keytabLocation);
+		boolean useHttpClientBoolean = Boolean.parseBoolean(useHttpClient);
+
+		System.out.println("Use HttpClient customised: " + useHttpClientBoolean);
+
+		if (loadEnabled) {
+			runLoad(useHttpClientBoolean);
+			return;
+		}
+
+		String response = useHttpClientBoolean ? useSimpleHttpClient() : useRestTemplate();
+		System.out.println("The response obtained is " + response);
+	}
+
+	private String useSimpleHttpClient() {
+//		KerberosHttpClient kerberosHttpClient = new KerberosHttpClient(keytabLocation, userPrincipal, ServiceNameSource.HOST_BASED);
+//		KerberosHttpClient kerberosHttpClient = ;
+//		String response = kerberosHttpClient.execute(accessUrl);
+		String response = "";
+		ServiceNameType serviceNameType = (StringUtils.hasText(serviceNameTypeProperty)) ? ServiceNameType.valueOf(serviceNameTypeProperty) : ServiceNameType.HOST_BASED;
+		KerberosService kerberosService = new KerberosService();
+		String servicePrincipalValue = (StringUtils.hasText(servicePrincipal)) ? servicePrincipal : null;
+		kerberosService.setup(keytabLocation, userPrincipal, servicePrincipalValue, serviceNameType, buildPoolSettings());
+		kerberosService.getKerberosHttpClient().setPreemptiveAuthentication(preemptiveAuth);
+		kerberosService.executeKerberosValidation(accessUrl);
+		return response;
+	}
+
+	/**
+	 * Calls the url repeatedly with the configured concurrency and rate and prints the latency percentiles,
+	 * the throughput and the errors by phase. Both paths reuse one client, as a service would.
+	 */
+	private void runLoad(boolean useHttpClientBoolean) throws InterruptedException {
+		Callable<?> call;
+		if (useHttpClientBoolean) {
+			ServiceNameType serviceNameType = (StringUtils.hasText(serviceNameTypeProperty)) ? ServiceNameType.valueOf(serviceNameTypeProperty) : ServiceNameType.HOST_BASED;
+			String servicePrincipalValue = (StringUtils.hasText(servicePrincipal)) ? servicePrincipal : null;
+			KerberosService kerberosService = new KerberosService();
+			kerberosService.setup(keytabLocation, userPrincipal, servicePrincipalValue, serviceNameType, buildPoolSettings());
+			kerberosService.getKerberosHttpClient().setPreemptiveAuthentication(preemptiveAuth);
+			call = () -> kerberosService.getKerberosHttpClient().executeGet(accessUrl);
+		} else {
+			CustomKerberosRestTemplate restTemplate = buildRestTemplate();
+			call = () -> restTemplate.getForObject(accessUrl, String.class);
+		}
+
+		LoadGenerator loadGenerator = new LoadGenerator();
+		loadGenerator.setConcurrency(loadConcurrency);
+		loadGenerator.setVirtualThreads(loadVirtualThreads);
+		loadGenerator.setRate(loadRate);
+		loadGenerator.setWarmupMillis(TimeUnit.SECONDS.toMillis(loadWarmupSeconds));
+		loadGenerator.setDurationMillis(TimeUnit.SECONDS.toMillis(loadDurationSeconds));
+
+		LoadReport report = loadGenerator.run(call);
+		report.print(System.out);
+	}
+
+	private ConnectionPoolSettings buildPoolSettings() {
+		ConnectionPoolSettings poolSettings = new ConnectionPoolSettings();
+		poolSettings.setMaxTotal(poolMaxTotal);
+		poolSettings.setMaxPerRoute(poolMaxPerRoute);
+		poolSettings.setTimeToLiveMillis(poolTimeToLiveMillis);
+		poolSettings.setIdleTimeoutMillis(poolIdleTimeoutMillis);
+		poolSettings.setValidateAfterInactivityMillis(poolValidateAfterInactivityMillis);
+		poolSettings.setConnectionBoundAuthentication(poolConnectionBoundAuth);
+		return poolSettings;
+	}
+
+	private String useRestTemplate() {
+		try (CustomKerberosRestTemplate restTemplate = buildRestTemplate()) {
+			String response = restTemplate.getForObject(accessUrl, String.class);
+			return response;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private CustomKerberosRestTemplate buildRestTemplate() {
+		ServiceNameType serviceNameType = (StringUtils.hasText(serviceNameTypeProperty)) ? ServiceNameType.valueOf(serviceNameTypeProperty) : ServiceNameType.HOST_BASED;
+		String servicePrincipalValue = (StringUtils.hasText(servicePrincipal)) ? servicePrincipal : null;
+		CustomKerberosRestTemplate restTemplate = new CustomKerberosRestTemplate(null, userPrincipal, servicePrincipalValue, serviceNameType, buildPoolSettings());
+		restTemplate.getKerberosHttpClient().setPreemptiveAuthentication(preemptiveAuth);
+		return restTemplate;
+	}
+
+    public static void main(String[] args) throws Throwable {
+    	new SpringApplicationBuilder(Application.class).web(false).run(args);
+    }
+
+}
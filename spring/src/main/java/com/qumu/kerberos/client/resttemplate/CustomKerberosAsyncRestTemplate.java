@@ -0,0 +1,237 @@
+package com.qumu.kerberos.client.resttemplate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.AsyncClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsAsyncClientHttpRequestFactory;
+import org.springframework.util.concurrent.FailureCallback;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.util.concurrent.SuccessCallback;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import com.qumu.kerberos.client.httpclient.ConnectionPoolSettings;
+import com.qumu.kerberos.client.httpclient.KerberosAsyncHttpClient;
+import com.qumu.kerberos.client.httpclient.KerberosHttpClient;
+import com.qumu.kerberos.client.httpclient.ServiceNameType;
+
+/**
+ * AsyncRestTemplate counterpart of {@link CustomKerberosRestTemplate}, making its requests through a
+ * {@link KerberosAsyncHttpClient}: the Subject is cached and passed along with each request, so SPNEGO tokens
+ * are generated in the I/O threads without a login per request.
+ *
+ * Requests made through the template count in the limit of requests in flight of the client: over the limit
+ * their future fails with a {@link RejectedExecutionException}, as the ones of the client do.
+ * Its synchronous operations ({@link #getRestOperations()}) go through a {@link CustomKerberosRestTemplate}
+ * sharing the login of the async client.
+ *
+ * The template must be closed to release the pooled connections.
+ */
+public class CustomKerberosAsyncRestTemplate extends AsyncRestTemplate implements Closeable {
+
+	private final KerberosAsyncHttpClient kerberosAsyncHttpClient;
+	private final CustomKerberosRestTemplate restTemplate;
+
+	public CustomKerberosAsyncRestTemplate(String keyTabLocation, String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType,
+			ConnectionPoolSettings poolSettings) {
+		this(new KerberosAsyncHttpClient(keyTabLocation, userPrincipal, servicePrincipal, serviceNameType, poolSettings,
+				KerberosAsyncHttpClient.DEFAULT_MAX_IN_FLIGHT), servicePrincipal, serviceNameType, poolSettings);
+	}
+
+	private CustomKerberosAsyncRestTemplate(KerberosAsyncHttpClient kerberosAsyncHttpClient, String servicePrincipal,
+			ServiceNameType serviceNameType, ConnectionPoolSettings poolSettings) {
+		this(kerberosAsyncHttpClient, new CustomKerberosRestTemplate(new KerberosHttpClient(
+				kerberosAsyncHttpClient.getCredentialHolder(), servicePrincipal, serviceNameType, poolSettings)));
+	}
+
+	/**
+	 * Template making its requests through the given async client and its synchronous ones through the given template
+	 */
+	public CustomKerberosAsyncRestTemplate(KerberosAsyncHttpClient kerberosAsyncHttpClient, CustomKerberosRestTemplate restTemplate) {
+		super(new KerberosAsyncClientHttpRequestFactory(kerberosAsyncHttpClient, restTemplate.getKerberosHttpClient()), restTemplate);
+		this.kerberosAsyncHttpClient = kerberosAsyncHttpClient;
+		this.restTemplate = restTemplate;
+	}
+
+	/**
+	 * Client the requests are made through, to enable preemptive authentication or to register listeners
+	 */
+	public KerberosAsyncHttpClient getKerberosAsyncHttpClient() {
+		return kerberosAsyncHttpClient;
+	}
+
+	/**
+	 * Statistics of the connection pool of the async client
+	 */
+	public PoolStats getPoolStats() {
+		return kerberosAsyncHttpClient.getPoolStats();
+	}
+
+	/**
+	 * Closes the async client and the synchronous template
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			kerberosAsyncHttpClient.close();
+		} finally {
+			restTemplate.close();
+		}
+	}
+
+	/**
+	 * Request factory running each request with the context of the Kerberos async client, which carries the Subject
+	 */
+	private static class KerberosAsyncClientHttpRequestFactory extends HttpComponentsAsyncClientHttpRequestFactory {
+
+		private final KerberosAsyncHttpClient kerberosAsyncHttpClient;
+
+		KerberosAsyncClientHttpRequestFactory(KerberosAsyncHttpClient kerberosAsyncHttpClient, KerberosHttpClient kerberosHttpClient) {
+			// The sync client is only used by the factory for synchronous requests, which go through the template instead
+			super(kerberosHttpClient.getHttpClient(), kerberosAsyncHttpClient.getHttpClient());
+			this.kerberosAsyncHttpClient = kerberosAsyncHttpClient;
+		}
+
+		@Override
+		protected HttpContext createHttpContext(HttpMethod httpMethod, URI uri) {
+			return kerberosAsyncHttpClient.createContext();
+		}
+
+		@Override
+		public AsyncClientHttpRequest createAsyncRequest(URI uri, HttpMethod httpMethod) throws IOException {
+			return new InFlightRequest(super.createAsyncRequest(uri, httpMethod), kerberosAsyncHttpClient);
+		}
+	}
+
+	/**
+	 * Request holding a place in the limit of requests in flight of the client from the time it is executed until
+	 * its response future is done. The place is taken on execution rather than on creation, since the request
+	 * callback of the template may fail before then.
+	 */
+	private static class InFlightRequest implements AsyncClientHttpRequest {
+
+		private final AsyncClientHttpRequest request;
+		private final KerberosAsyncHttpClient kerberosAsyncHttpClient;
+
+		InFlightRequest(AsyncClientHttpRequest request, KerberosAsyncHttpClient kerberosAsyncHttpClient) {
+			this.request = request;
+			this.kerberosAsyncHttpClient = kerberosAsyncHttpClient;
+		}
+
+		@Override
+		public ListenableFuture<ClientHttpResponse> executeAsync() throws IOException {
+			try {
+				kerberosAsyncHttpClient.acquireInFlight();
+			} catch (RejectedExecutionException e) {
+				SettableListenableFuture<ClientHttpResponse> rejected = new SettableListenableFuture<ClientHttpResponse>();
+				rejected.setException(e);
+				return rejected;
+			}
+
+			ListenableFuture<ClientHttpResponse> future;
+			try {
+				future = request.executeAsync();
+			} catch (IOException | RuntimeException e) {
+				kerberosAsyncHttpClient.releaseInFlight();
+				throw e;
+			}
+			return new InFlightFuture(future, kerberosAsyncHttpClient);
+		}
+
+		@Override
+		public OutputStream getBody() throws IOException {
+			return request.getBody();
+		}
+
+		@Override
+		public HttpMethod getMethod() {
+			return request.getMethod();
+		}
+
+		@Override
+		public URI getURI() {
+			return request.getURI();
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return request.getHeaders();
+		}
+	}
+
+	/**
+	 * Response future giving back the place of its request once it is done. HttpComponents does not notify the
+	 * callbacks of a cancelled request, so cancelling releases it too.
+	 */
+	private static class InFlightFuture implements ListenableFuture<ClientHttpResponse> {
+
+		private final ListenableFuture<ClientHttpResponse> future;
+		private final KerberosAsyncHttpClient kerberosAsyncHttpClient;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		InFlightFuture(ListenableFuture<ClientHttpResponse> future, KerberosAsyncHttpClient kerberosAsyncHttpClient) {
+			this.future = future;
+			this.kerberosAsyncHttpClient = kerberosAsyncHttpClient;
+			future.addCallback(response -> release(), e -> release());
+		}
+
+		private void release() {
+			if (released.compareAndSet(false, true)) {
+				kerberosAsyncHttpClient.releaseInFlight();
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = future.cancel(mayInterruptIfRunning);
+			if (cancelled) {
+				release();
+			}
+			return cancelled;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return future.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return future.isDone();
+		}
+
+		@Override
+		public ClientHttpResponse get() throws InterruptedException, ExecutionException {
+			return future.get();
+		}
+
+		@Override
+		public ClientHttpResponse get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			return future.get(timeout, unit);
+		}
+
+		@Override
+		public void addCallback(ListenableFutureCallback<? super ClientHttpResponse> callback) {
+			future.addCallback(callback);
+		}
+
+		@Override
+		public void addCallback(SuccessCallback<? super ClientHttpResponse> successCallback, FailureCallback failureCallback) {
+			future.addCallback(successCallback, failureCallback);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package com.qumu.kerberos.client.resttemplate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import com.qumu.kerberos.client.httpclient.ConnectionPoolSettings;
+import com.qumu.kerberos.client.httpclient.KerberosHttpClient;
+import com.qumu.kerberos.client.httpclient.ServiceNameType;
+
+/**
+ * RestTemplate that makes its requests through a {@link KerberosHttpClient}, so it has the same performance
+ * as using the client directly.
+ *
+ * Unlike Spring's KerberosRestTemplate, which logs in to the KDC inside every request, the login is done once
+ * and its Subject is reused until its TGT is about to expire, along with the service tickets obtained with it
+ * (see {@link com.qumu.kerberos.client.httpclient.KerberosCredentialHolder}). Tickets can also be renewed in
+ * the background with {@code getKerberosHttpClient().enableTicketRenewal(...)}. Connections are pooled as
+ * defined by the {@link ConnectionPoolSettings}, and the name of the service can be built with any
+ * {@link ServiceNameType}.
+ *
+ * The template must be closed to release the pooled connections.
+ */
+public class CustomKerberosRestTemplate extends RestTemplate implements Closeable {
+
+	private final KerberosHttpClient kerberosHttpClient;
+
+	public CustomKerberosRestTemplate(String keyTabLocation, String userPrincipal) {
+		this(keyTabLocation, userPrincipal, new ConnectionPoolSettings());
+	}
+
+	public CustomKerberosRestTemplate(String keyTabLocation, String userPrincipal, ConnectionPoolSettings poolSettings) {
+		this(keyTabLocation, userPrincipal, null, ServiceNameType.HOST_BASED, poolSettings);
+	}
+
+	public CustomKerberosRestTemplate(String keyTabLocation, String userPrincipal, String servicePrincipal, ServiceNameType serviceNameType,
+			ConnectionPoolSettings poolSettings) {
+		this(new KerberosHttpClient(keyTabLocation, userPrincipal, servicePrincipal, serviceNameType, poolSettings));
+	}
+
+	/**
+	 * Template making its requests through the given client, sharing its login, service tickets, connections
+	 * and listeners
+	 */
+	public CustomKerberosRestTemplate(KerberosHttpClient kerberosHttpClient) {
+		super(new KerberosClientHttpRequestFactory(kerberosHttpClient));
+		this.kerberosHttpClient = kerberosHttpClient;
+	}
+
+	/**
+	 * Client the requests are made through, to enable preemptive authentication or ticket renewal,
+	 * or to register listeners
+	 */
+	public KerberosHttpClient getKerberosHttpClient() {
+		return kerberosHttpClient;
+	}
+
+	/**
+	 * Statistics of the connection pool
+	 */
+	public PoolStats getPoolStats() {
+		return kerberosHttpClient.getPoolStats();
+	}
+
+	/**
+	 * Closes the client, with its pooled connections
+	 */
+	@Override
+	public void close() throws IOException {
+		kerberosHttpClient.close();
+	}
+
+	/**
+	 * Request factory running each request with the context of the Kerberos client, which carries the Subject,
+	 * so neither a login nor a Subject.doAs is needed per request
+	 */
+	private static class KerberosClientHttpRequestFactory extends HttpComponentsClientHttpRequestFactory {
+
+		private final KerberosHttpClient kerberosHttpClient;
+
+		KerberosClientHttpRequestFactory(KerberosHttpClient kerberosHttpClient) {
+			super(kerberosHttpClient.getHttpClient());
+			this.kerberosHttpClient = kerberosHttpClient;
+		}
+
+		@Override
+		protected HttpContext createHttpContext(HttpMethod httpMethod, URI uri) {
+			return kerberosHttpClient.createContext();
+		}
+	}
+}
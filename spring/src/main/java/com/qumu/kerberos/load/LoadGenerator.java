@@ -0,0 +1,187 @@
+package com.qumu.kerberos.load;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs a call repeatedly from several threads for a warmup period and then a measured period, and
+ * reports the throughput, the latency percentiles and the errors by phase of the request.
+ *
+ * With a target rate the calls are scheduled at fixed intervals and their latency is measured from the
+ * time they were scheduled, not from the time they could start, so a slow server does not hide its
+ * effect on the calls queued behind (coordinated omission). Without a rate each thread makes calls back
+ * to back.
+ *
+ * Calls can run on virtual threads when the JVM supports them (Java 21 or later), to test with
+ * concurrency levels beyond what platform threads allow.
+ */
+public class LoadGenerator {
+
+	private static final Log LOG = LogFactory.getLog(LoadGenerator.class);
+
+	/** Highest latency tracked by the histogram, slower calls are recorded with this value */
+	private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+	private int concurrency = 10;
+	private boolean virtualThreads;
+	private double rate;
+	private long warmupMillis = TimeUnit.SECONDS.toMillis(5);
+	private long durationMillis = TimeUnit.SECONDS.toMillis(30);
+
+	/**
+	 * Number of calls in flight at the same time
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	public void setConcurrency(int concurrency) {
+		if (concurrency <= 0) {
+			throw new IllegalArgumentException("The concurrency must be positive: " + concurrency);
+		}
+		this.concurrency = concurrency;
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * Target number of calls per second across all threads, a value <= 0 means as fast as possible
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	public void setRate(double rate) {
+		this.rate = rate;
+	}
+
+	public long getWarmupMillis() {
+		return warmupMillis;
+	}
+
+	public void setWarmupMillis(long warmupMillis) {
+		this.warmupMillis = warmupMillis;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	public void setDurationMillis(long durationMillis) {
+		this.durationMillis = durationMillis;
+	}
+
+	/**
+	 * Runs the warmup and the measured period
+	 *
+	 * @param call call to make, any exception it throws counts as an error
+	 * @return the report of the measured period
+	 */
+	public LoadReport run(Callable<?> call) throws InterruptedException {
+		if (warmupMillis > 0) {
+			LOG.info("Warming up for " + warmupMillis + " ms");
+			LoadReport warmup = runPeriod(call, warmupMillis);
+			LOG.info("Warmup done: " + warmup.getCount() + " calls, " + warmup.getErrorCount() + " errors");
+		}
+		LOG.info("Measuring for " + durationMillis + " ms with " + concurrency + (virtualThreads ? " virtual" : "") + " threads"
+				+ (rate > 0 ? " at " + rate + " calls/s" : ""));
+		return runPeriod(call, durationMillis);
+	}
+
+	private LoadReport runPeriod(final Callable<?> call, long periodMillis) throws InterruptedException {
+		final long start = System.nanoTime();
+		final long end = start + TimeUnit.MILLISECONDS.toNanos(periodMillis);
+		final long intervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+		final AtomicLong nextSlot = new AtomicLong(start);
+
+		ExecutorService executor = newExecutor();
+		List<Future<LoadReport>> workers = new ArrayList<Future<LoadReport>>(concurrency);
+		try {
+			for (int i = 0; i < concurrency; i++) {
+				workers.add(executor.submit(() -> work(call, end, intervalNanos, nextSlot)));
+			}
+
+			LoadReport report = new LoadReport(new Histogram(MAX_LATENCY_MICROS, 3));
+			for (Future<LoadReport> worker : workers) {
+				try {
+					report.add(worker.get());
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Load worker failed", e.getCause());
+				}
+			}
+			report.setElapsedNanos(System.nanoTime() - start);
+			return report;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Makes calls until the end of the period, taking the next scheduled slot before each one if there is a rate
+	 */
+	private LoadReport work(Callable<?> call, long end, long intervalNanos, AtomicLong nextSlot) throws InterruptedException {
+		LoadReport report = new LoadReport(new Histogram(MAX_LATENCY_MICROS, 3));
+		while (true) {
+			long scheduled;
+			if (intervalNanos > 0) {
+				scheduled = nextSlot.getAndAdd(intervalNanos);
+				if (scheduled >= end) {
+					break;
+				}
+				long wait = scheduled - System.nanoTime();
+				if (wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+			} else {
+				scheduled = System.nanoTime();
+				if (scheduled >= end) {
+					break;
+				}
+			}
+
+			Exception error = null;
+			try {
+				call.call();
+			} catch (Exception e) {
+				error = e;
+			}
+			report.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduled), error);
+		}
+		return report;
+	}
+
+	private ExecutorService newExecutor() {
+		if (virtualThreads) {
+			try {
+				// Java 21+, looked up so the project still builds for Java 8
+				Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService) factory.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				LOG.warn("Virtual threads are not available in this JVM, using platform threads");
+			}
+		}
+		return Executors.newFixedThreadPool(concurrency, runnable -> {
+			Thread thread = new Thread(runnable, "kerberos-load");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+}
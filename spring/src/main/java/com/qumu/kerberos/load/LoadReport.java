@@ -0,0 +1,159 @@
+package com.qumu.kerberos.load;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.login.LoginException;
+
+import org.HdrHistogram.Histogram;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.ietf.jgss.GSSException;
+import org.springframework.web.client.HttpStatusCodeException;
+
+/**
+ * Result of a load run: number of calls, throughput, latency percentiles and errors by phase.
+ *
+ * Latencies are recorded in microseconds. The phase of an error is taken from the first exception in its cause
+ * chain that identifies it: login, authentication, connect, read-timeout, status-&lt;code&gt;, io or other.
+ */
+public class LoadReport {
+
+	private final Histogram latencies;
+	private final Map<String, Long> errorsByPhase = new TreeMap<String, Long>();
+	private long errorCount;
+	private long elapsedNanos;
+
+	LoadReport(Histogram latencies) {
+		this.latencies = latencies;
+	}
+
+	/**
+	 * Records a call
+	 *
+	 * @param latencyMicros time from the scheduled start of the call to its end
+	 * @param error exception thrown by the call, or null if it succeeded
+	 */
+	void record(long latencyMicros, Exception error) {
+		latencies.recordValue(Math.min(latencyMicros, latencies.getHighestTrackableValue()));
+		if (error != null) {
+			errorCount++;
+			errorsByPhase.merge(phaseOf(error), 1L, Long::sum);
+		}
+	}
+
+	/**
+	 * Adds the calls recorded by another report, i.e. of another thread
+	 */
+	void add(LoadReport other) {
+		latencies.add(other.latencies);
+		errorCount += other.errorCount;
+		for (Map.Entry<String, Long> entry : other.errorsByPhase.entrySet()) {
+			errorsByPhase.merge(entry.getKey(), entry.getValue(), Long::sum);
+		}
+	}
+
+	void setElapsedNanos(long elapsedNanos) {
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * Number of calls, successful or not
+	 */
+	public long getCount() {
+		return latencies.getTotalCount();
+	}
+
+	public long getErrorCount() {
+		return errorCount;
+	}
+
+	/**
+	 * Number of errors by the phase of the request they happened in
+	 */
+	public Map<String, Long> getErrorsByPhase() {
+		return errorsByPhase;
+	}
+
+	/**
+	 * Calls completed per second
+	 */
+	public double getThroughput() {
+		return elapsedNanos > 0 ? getCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+	}
+
+	/**
+	 * Latency at the given percentile, in microseconds
+	 */
+	public long getLatencyMicros(double percentile) {
+		return latencies.getValueAtPercentile(percentile);
+	}
+
+	public double getMeanLatencyMicros() {
+		return latencies.getMean();
+	}
+
+	public long getMaxLatencyMicros() {
+		return latencies.getMaxValue();
+	}
+
+	public void print(PrintStream out) {
+		out.println(String.format("Calls: %d in %.1f s, %.1f calls/s, errors: %d", getCount(),
+				elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1), getThroughput(), errorCount));
+		out.println(String.format("Latency (ms): mean %.2f, p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f",
+				getMeanLatencyMicros() / 1000, millis(50), millis(90), millis(99), millis(99.9), getMaxLatencyMicros() / 1000.0));
+		for (Map.Entry<String, Long> entry : errorsByPhase.entrySet()) {
+			out.println("Errors in " + entry.getKey() + ": " + entry.getValue());
+		}
+	}
+
+	private double millis(double percentile) {
+		return getLatencyMicros(percentile) / 1000.0;
+	}
+
+	@Override
+	public String toString() {
+		return "LoadReport [count=" + getCount() + ", errors=" + errorCount + ", throughput=" + getThroughput()
+				+ ", p50=" + getLatencyMicros(50) + ", p99=" + getLatencyMicros(99) + ", max=" + getMaxLatencyMicros()
+				+ ", errorsByPhase=" + errorsByPhase + "]";
+	}
+
+	/**
+	 * Phase of the request in which the error happened
+	 */
+	static String phaseOf(Throwable error) {
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			if (cause instanceof LoginException) {
+				return "login";
+			}
+			if (cause instanceof GSSException || cause instanceof AuthenticationException) {
+				return "authentication";
+			}
+			if (cause instanceof ConnectException || cause instanceof ConnectTimeoutException || cause instanceof UnknownHostException) {
+				return "connect";
+			}
+			if (cause instanceof SocketTimeoutException) {
+				return "read-timeout";
+			}
+			if (cause instanceof HttpResponseException) {
+				return "status-" + ((HttpResponseException) cause).getStatusCode();
+			}
+			if (cause instanceof HttpStatusCodeException) {
+				return "status-" + ((HttpStatusCodeException) cause).getStatusCode().value();
+			}
+		}
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			if (cause instanceof IOException) {
+				return "io";
+			}
+		}
+		return "other";
+	}
+}